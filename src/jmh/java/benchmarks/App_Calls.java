@@ -0,0 +1,121 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+// Entry points of the application used by the benchmarks. JMH rejects benchmarks in the default package, and
+// the app lives there, so its methods are bound once as constant method handles (which the JIT inlines)
+final class App_Calls {
+
+    private static final MethodHandle new_store = constructor("Transaction_Store");
+    private static final MethodHandle parse_with_stax = method("XML_Parser", "parse_with_stax", File.class, type("Transaction_Store"));
+    private static final MethodHandle parse_with_dom = method("XML_Parser", "parse_with_dom", File.class, type("Transaction_Store"));
+    private static final MethodHandle store_size = method("Transaction_Store", "size");
+    private static final MethodHandle cube_of = method("Rollup_Cube", "of", type("Transaction_Store"));
+    private static final MethodHandle merge_cubes = method("Rollup_Cube", "merge", Collection.class);
+    private static final MethodHandle build_date_report = method("Report_Analyzer", "build_date_report",
+            type("Rollup_Cube"), List.class, boolean.class);
+    private static final MethodHandle build_card_type_report = method("Report_Analyzer", "build_card_type_report",
+            type("Rollup_Cube"), List.class);
+    private static final MethodHandle row_count = method("Report_Data", "get_row_count");
+    private static final MethodHandle column_count = method("Report_Data", "get_column_count");
+    private static final MethodHandle new_cursor = method("Report_Data", "new_cursor");
+    private static final MethodHandle move_to = method("Report_Data$Row_Cursor", "move_to", int.class);
+    private static final MethodHandle get_value = method("Report_Data$Row_Cursor", "get_value", int.class);
+    private static final MethodHandle export_excel = method("Excel_Exporter", "export_report", type("Report_Data"), File.class);
+    private static final MethodHandle export_pdf = method("PDF_Exporter", "export_report", type("Report_Data"), File.class);
+
+    private App_Calls() {
+    }
+
+    // Parses a file with the streaming parser into a new Transaction_Store (no cache, no snapshot)
+    static Object parse_with_stax(File file) throws Throwable {
+        Object store = new_store.invoke();
+        parse_with_stax.invoke(file, store);
+        return store;
+    }
+
+    // Parses a file with the DOM fallback parser
+    static Object parse_with_dom(File file) throws Throwable {
+        Object store = new_store.invoke();
+        parse_with_dom.invoke(file, store);
+        return store;
+    }
+
+    static int store_size(Object store) throws Throwable {
+        return (int) store_size.invoke(store);
+    }
+
+    static Object cube_of(Object store) throws Throwable {
+        return cube_of.invoke(store);
+    }
+
+    static Object merge_cubes(Collection<Object> cubes) throws Throwable {
+        return merge_cubes.invoke(cubes);
+    }
+
+    static Object build_date_report(Object cube, List<Object> stores, boolean ascending) throws Throwable {
+        return build_date_report.invoke(cube, stores, ascending);
+    }
+
+    static Object build_card_type_report(Object cube, List<Object> stores) throws Throwable {
+        return build_card_type_report.invoke(cube, stores);
+    }
+
+    static int row_count(Object report) throws Throwable {
+        return (int) row_count.invoke(report);
+    }
+
+    // Reads every cell of a report the way the table and the exporters do; returns a value to sink
+    static int read_all_cells(Object report) throws Throwable {
+        Object cursor = new_cursor.invoke(report);
+        int rows = (int) row_count.invoke(report);
+        int columns = (int) column_count.invoke(report);
+        int hash = 0;
+        for (int row = 0; row < rows; row++) {
+            move_to.invoke(cursor, row);
+            for (int col = 0; col < columns; col++) {
+                hash += System.identityHashCode(get_value.invoke(cursor, col));
+            }
+        }
+        return hash;
+    }
+
+    static void export_excel(Object report, File file) throws Throwable {
+        export_excel.invoke(report, file);
+    }
+
+    static void export_pdf(Object report, File file) throws Throwable {
+        export_pdf.invoke(report, file);
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Application class not found: " + name, e);
+        }
+    }
+
+    // Binds a static or instance method, including package-private ones
+    private static MethodHandle method(String class_name, String name, Class<?>... parameters) {
+        try {
+            Method method = type(class_name).getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Application method not found: " + class_name + "." + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(String class_name) {
+        try {
+            return MethodHandles.lookup().unreflectConstructor(type(class_name).getDeclaredConstructor());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Application constructor not found: " + class_name, e);
+        }
+    }
+}
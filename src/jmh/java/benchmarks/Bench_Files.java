@@ -0,0 +1,38 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+// Generated input files and temp folders shared by the benchmarks
+final class Bench_Files {
+
+    private Bench_Files() {
+    }
+
+    // Generates one file per seed in a new temp folder and parses them into stores
+    static List<Object> generate_and_parse(File folder, int files, int records_per_file) throws Throwable {
+        List<Object> stores = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            File file = new File(folder, "transactions_" + i + ".xml");
+            Naxml_Generator.generate(file, records_per_file, 42 + i);
+            stores.add(App_Calls.parse_with_stax(file));
+        }
+        return stores;
+    }
+
+    static File create_folder() throws IOException {
+        return Files.createTempDirectory("naxml-bench").toFile();
+    }
+
+    // Deletes a temp folder and the files in it
+    static void delete_folder(File folder) {
+        if (folder == null) return;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        folder.delete();
+    }
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+// Exporting a date report of one generated file to Excel and to PDF
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class Export_Benchmark {
+
+    @Param({"10000", "100000"})
+    public int records;
+
+    private File folder;
+    private Object report;
+    private File excel_file;
+    private File pdf_file;
+
+    @Setup(Level.Trial)
+    public void build_report() throws Throwable {
+        folder = Bench_Files.create_folder();
+        Object store = Bench_Files.generate_and_parse(folder, 1, records).get(0);
+        report = App_Calls.build_date_report(App_Calls.cube_of(store), Collections.singletonList(store), false);
+        excel_file = new File(folder, "report.xlsx");
+        pdf_file = new File(folder, "report.pdf");
+    }
+
+    @TearDown(Level.Trial)
+    public void delete_files() {
+        Bench_Files.delete_folder(folder);
+    }
+
+    @Benchmark
+    public long export_excel() throws Throwable {
+        App_Calls.export_excel(report, excel_file);
+        return excel_file.length();
+    }
+
+    @Benchmark
+    public long export_pdf() throws Throwable {
+        App_Calls.export_pdf(report, pdf_file);
+        return pdf_file.length();
+    }
+}
@@ -0,0 +1,128 @@
+package benchmarks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Random;
+// Writes synthetic NAXML credit card files shaped like xml_files/transactions_*.xml, at any size
+public class Naxml_Generator {
+
+    private static final String[] card_types = {
+            "VISA", "MASTERCARD", "AMEX", "DISCOVER", "DEBIT CARD", "WEX FLEET", "VOYAGER", "EBT FOOD STAMP"
+    };
+
+    private static final int batches_per_account = 50;
+    private static final int max_cards_per_batch = 12;
+    private static final int date_range_days = 90;
+    private static final LocalDate first_date = LocalDate.of(2025, 1, 1);
+
+    // Usage: Naxml_Generator <output file> <CardType records> [seed]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: Naxml_Generator <output.xml> <records> [seed]");
+            return;
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        generate(new File(args[0]), Integer.parseInt(args[1]), seed);
+    }
+
+    // Writes a file with exactly the given number of CardType records; totals in the file are exact sums
+    public static void generate(File file, int records, long seed) throws IOException {
+        // The document starts with the grand total, so a first pass over the same random sequence computes it
+        long[] account_totals = new long[(records + batches_per_account - 1) / batches_per_account + 1];
+        long grand_total = 0;
+        Batch_Source totals_pass = new Batch_Source(seed, records);
+        while (totals_pass.next_batch()) {
+            account_totals[totals_pass.account] += totals_pass.batch_net;
+            grand_total += totals_pass.batch_net;
+        }
+
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("<?xml version='1.0' encoding='utf-8'?>\n");
+            out.write("<NAXML-FuelsDoc><TransmissionHeader><TransmissionId>0001</TransmissionId>"
+                    + "<TransmissionDate>" + first_date + "</TransmissionDate><TransmissionTime>00:00:00-05:00</TransmissionTime>"
+                    + "<TransmissionStatus actionType=\"original\" /></TransmissionHeader><CreditCardsProcessed>");
+            out.write("<TotalCreditCardsNetAmt identType=\"Credit\" amount=\"" + cents(grand_total) + "\" />");
+
+            Batch_Source source = new Batch_Source(seed, records);
+            int open_account = -1;
+            while (source.next_batch()) {
+                if (source.account != open_account) {
+                    if (open_account >= 0) out.write("</Account>");
+                    open_account = source.account;
+                    out.write("<Account identType=\"Location\" ident=\"" + (10000000 + open_account) + "\">"
+                            + "<TotalAccountAmt amount=\"" + cents(account_totals[open_account]) + "\" />");
+                }
+                write_batch(out, source);
+            }
+            if (open_account >= 0) out.write("</Account>");
+            out.write("</CreditCardsProcessed></NAXML-FuelsDoc>\n");
+        }
+    }
+
+    private static void write_batch(Writer out, Batch_Source batch) throws IOException {
+        out.write("<Batch identType=\"Automated\"><BatchNumber>" + batch.batch_number + "</BatchNumber>"
+                + "<TerminalId>" + (batch.batch_number % 20 + 1) + "</TerminalId>"
+                + "<BatchDate>" + batch.date + "</BatchDate>"
+                + "<TotalBatchAmt amount=\"" + cents(batch.batch_net) + "\" quantity=\"" + batch.batch_quantity + "\" />");
+        for (int i = 0; i < batch.card_count; i++) {
+            out.write("<CardType quantity=\"" + batch.quantities[i] + "\" grossAmount=\"" + cents(batch.gross[i])
+                    + "\" netAmount=\"" + cents(batch.gross[i] - batch.fees[i]) + "\" identType=\"" + card_types[batch.types[i]] + "\">"
+                    + "<AllowanceOrCharge><AllowanceOrChargeReason>Processing Fee</AllowanceOrChargeReason>"
+                    + "<ChargeAmt UOMBasis=\"TranAmt\">" + cents(batch.fees[i]) + "</ChargeAmt></AllowanceOrCharge></CardType>");
+        }
+        out.write("</Batch>");
+    }
+
+    // Two decimals from cents, as the source files write amounts
+    private static String cents(long cents) {
+        long abs = Math.abs(cents);
+        return (cents < 0 ? "-" : "") + abs / 100 + "." + (abs % 100 < 10 ? "0" : "") + abs % 100;
+    }
+
+    // Deterministic sequence of batches; the same seed always yields the same file
+    private static final class Batch_Source {
+        final Random random;
+        int remaining;
+        int account = 0;
+        int batch_number = 0;
+        LocalDate date;
+
+        final int[] quantities = new int[max_cards_per_batch];
+        final int[] types = new int[max_cards_per_batch];
+        final long[] gross = new long[max_cards_per_batch];
+        final long[] fees = new long[max_cards_per_batch];
+        int card_count;
+        long batch_net;
+        long batch_quantity;
+
+        Batch_Source(long seed, int records) {
+            this.random = new Random(seed);
+            this.remaining = records;
+        }
+
+        boolean next_batch() {
+            if (remaining == 0) return false;
+            if (batch_number == batches_per_account) {
+                account++;
+                batch_number = 0;
+            }
+            batch_number++;
+            date = first_date.plusDays(random.nextInt(date_range_days));
+
+            card_count = Math.min(remaining, 1 + random.nextInt(max_cards_per_batch));
+            remaining -= card_count;
+            batch_net = 0;
+            batch_quantity = 0;
+            for (int i = 0; i < card_count; i++) {
+                quantities[i] = 1 + random.nextInt(40);
+                types[i] = random.nextInt(card_types.length);
+                gross[i] = quantities[i] * (500L + random.nextInt(6000));
+                fees[i] = gross[i] * (15 + random.nextInt(25)) / 1000;
+                batch_net += gross[i] - fees[i];
+                batch_quantity += quantities[i];
+            }
+            return true;
+        }
+    }
+}
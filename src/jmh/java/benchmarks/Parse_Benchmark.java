@@ -0,0 +1,45 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+// Parsing one generated NAXML file with the streaming parser and with the DOM fallback
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Parse_Benchmark {
+
+    // CardType records in the file (10000 matches xml_files/transactions_10000.xml)
+    @Param({"10000", "100000"})
+    public int records;
+
+    private File folder;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void create_file() throws IOException {
+        folder = Bench_Files.create_folder();
+        file = new File(folder, "transactions_" + records + ".xml");
+        Naxml_Generator.generate(file, records, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete_file() {
+        Bench_Files.delete_folder(folder);
+    }
+
+    @Benchmark
+    public Object parse_stax() throws Throwable {
+        return App_Calls.parse_with_stax(file);
+    }
+
+    @Benchmark
+    public Object parse_dom() throws Throwable {
+        return App_Calls.parse_with_dom(file);
+    }
+}
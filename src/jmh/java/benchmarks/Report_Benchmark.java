@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+// Building the grouped reports from parsed stores: rollup, grouping and reading every cell as the table does
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Report_Benchmark {
+
+    @Param({"10000", "100000"})
+    public int records_per_file;
+
+    // Files merged by the "All Files" benchmark
+    @Param({"4"})
+    public int files;
+
+    private File folder;
+    private List<Object> stores;
+    private List<Object> cubes;
+
+    @Setup(Level.Trial)
+    public void load_files() throws Throwable {
+        folder = Bench_Files.create_folder();
+        stores = Bench_Files.generate_and_parse(folder, files, records_per_file);
+
+        // Per-file cubes are kept by Program_Manager, so "All Files" only merges them
+        cubes = new ArrayList<>(files);
+        for (Object store : stores) cubes.add(App_Calls.cube_of(store));
+    }
+
+    @TearDown(Level.Trial)
+    public void delete_files() {
+        Bench_Files.delete_folder(folder);
+    }
+
+    @Benchmark
+    public int group_by_date() throws Throwable {
+        Object store = stores.get(0);
+        Object report = App_Calls.build_date_report(App_Calls.cube_of(store), Collections.singletonList(store), false);
+        return App_Calls.read_all_cells(report);
+    }
+
+    @Benchmark
+    public int group_by_card_type() throws Throwable {
+        Object store = stores.get(0);
+        Object report = App_Calls.build_card_type_report(App_Calls.cube_of(store), Collections.singletonList(store));
+        return App_Calls.read_all_cells(report);
+    }
+
+    @Benchmark
+    public int all_files_by_date() throws Throwable {
+        Object report = App_Calls.build_date_report(App_Calls.merge_cubes(cubes), stores, false);
+        return App_Calls.read_all_cells(report);
+    }
+
+    @Benchmark
+    public int all_files_by_card_type() throws Throwable {
+        Object report = App_Calls.build_card_type_report(App_Calls.merge_cubes(cubes), stores);
+        return App_Calls.read_all_cells(report);
+    }
+}
@@ -0,0 +1,323 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+// Headless report generation (no Swing): loads a folder of XML files and exports the requested reports in parallel
+public class Batch_Runner {
+
+    // Report groupings as named on the command line
+    private static final String group_date = "date";
+    private static final String group_card_type = "card_type";
+    private static final String group_location = "location";
+    private static final String group_terminal = "terminal";
+    private static final List<String> known_groupings = Arrays.asList(group_date, group_card_type, group_location, group_terminal);
+
+    // Output formats; csv and tsv are the flat (delimited) ones
+    private static final List<String> known_formats = Arrays.asList("pdf", "xlsx", "csv", "tsv");
+
+    // Which selections get reports: every file on its own, "All Files", or both
+    private static final String scope_files = "files";
+    private static final String scope_all = "all";
+    private static final String scope_both = "both";
+
+    // Parsed command line
+    private List<File> input_folders = Program_Manager.get_input_roots();
+    private File output_folder = new File(".");
+    private List<String> groupings = Arrays.asList(group_date, group_card_type);
+    private boolean ascending = false;
+    private Set<String> formats = new LinkedHashSet<>(Arrays.asList("pdf", "xlsx"));
+    private String scope = scope_both;
+    private int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private boolean gzip = false; // Compress csv/tsv output
+    private boolean raw = false; // Also dump every transaction of each selection as csv/tsv
+    private String history = null; // "day" or "month": also write history reports from the rollup ledger
+
+    // Runs from Main when --headless is given; returns the process exit code
+    public static int run(String[] args) {
+        if (Arrays.asList(args).contains("--help")) {
+            print_usage();
+            return 0;
+        }
+
+        Batch_Runner runner = new Batch_Runner();
+        try {
+            runner.parse_args(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            print_usage();
+            return 2;
+        }
+        return runner.generate();
+    }
+
+    private static void print_usage() {
+        System.out.println("Usage: java -jar CardTransactionAnalyzer.jar --headless [options]");
+        System.out.println("  --input <folder,...>    XML folders, one shard each (default xml_files)");
+        System.out.println("  --output <folder>       Folder that gets save_pdf/, save_excel/ and save_csv/ (default .)");
+        System.out.println("  --group date,card_type  Report groupings: date, card_type, location, terminal");
+        System.out.println("                          (default date,card_type)");
+        System.out.println("  --sort desc|asc         Date order of date reports (default desc, newest first)");
+        System.out.println("  --format pdf,xlsx       Output formats: pdf, xlsx, csv, tsv (default pdf,xlsx)");
+        System.out.println("  --gzip                  Write csv/tsv files gzip-compressed (.csv.gz, .tsv.gz)");
+        System.out.println("  --raw                   Also write all transactions of each selection as csv/tsv");
+        System.out.println("  --history day|month     Also write reports over every file ever loaded, from the rollup ledger");
+        System.out.println("  --scope both|files|all  Reports per file, for all files together (and per folder), or both (default both)");
+        System.out.println("  --threads <n>           Reports exported at the same time (default: number of cores)");
+    }
+
+    private void parse_args(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--headless".equals(arg)) continue;
+            if ("--gzip".equals(arg)) {
+                gzip = true;
+                continue;
+            }
+            if ("--raw".equals(arg)) {
+                raw = true;
+                continue;
+            }
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + arg);
+            String value = args[++i];
+
+            switch (arg) {
+                case "--input":
+                    input_folders = new ArrayList<>();
+                    for (String folder : value.split(",")) {
+                        if (!folder.trim().isEmpty()) input_folders.add(new File(folder.trim()));
+                    }
+                    break;
+                case "--output":
+                    output_folder = new File(value);
+                    break;
+                case "--group":
+                    groupings = new ArrayList<>();
+                    for (String group : split_list(value)) {
+                        if (!known_groupings.contains(group)) {
+                            throw new IllegalArgumentException("Unknown grouping: " + group);
+                        }
+                        groupings.add(group);
+                    }
+                    break;
+                case "--sort":
+                    if (!value.equals("asc") && !value.equals("desc")) throw new IllegalArgumentException("Unknown sort order: " + value);
+                    ascending = value.equals("asc");
+                    break;
+                case "--format":
+                    formats = new LinkedHashSet<>();
+                    for (String format : split_list(value)) {
+                        if (format.equals("excel")) format = "xlsx";
+                        if (!known_formats.contains(format)) throw new IllegalArgumentException("Unknown format: " + format);
+                        formats.add(format);
+                    }
+                    break;
+                case "--scope":
+                    if (!value.equals(scope_both) && !value.equals(scope_files) && !value.equals(scope_all)) {
+                        throw new IllegalArgumentException("Unknown scope: " + value);
+                    }
+                    scope = value;
+                    break;
+                case "--history":
+                    if (!value.equals("day") && !value.equals("month")) throw new IllegalArgumentException("Unknown history period: " + value);
+                    history = value;
+                    break;
+                case "--threads":
+                    threads = Math.max(1, Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (groupings.isEmpty() || formats.isEmpty()) throw new IllegalArgumentException("Nothing to generate");
+        if (raw && !formats.contains("csv") && !formats.contains("tsv")) throw new IllegalArgumentException("--raw needs --format csv or tsv");
+    }
+
+    // Loads the files, then builds and exports every (selection x grouping x format) report; 0 when all succeeded
+    private int generate() {
+        long start = System.nanoTime();
+
+        Program_Manager.set_input_roots(input_folders);
+        List<File> xml_files = Program_Manager.get_all_files();
+        if (xml_files.isEmpty()) {
+            System.out.println("No XML files found in " + input_folders);
+            return 1;
+        }
+
+        System.out.println("Loading " + xml_files.size() + " file(s) from " + input_folders.size() + " folder(s)");
+        List<File> failed_files = Program_Manager.load_files(xml_files, new Program_Manager.Load_Listener() {
+            @Override
+            public void file_loaded(File file, int record_count, long elapsed_ms, int completed, int total) {
+                System.out.println("  loaded " + file.getName() + " (" + record_count + " records, " + elapsed_ms
+                        + " ms) [" + completed + "/" + total + "]");
+            }
+
+            @Override
+            public void file_failed(File file, Exception error, int completed, int total) {
+                System.out.println("  failed " + file.getName() + " (" + error + ") [" + completed + "/" + total + "]");
+            }
+        });
+        long load_ms = elapsed_ms(start);
+
+        List<String> selections = new ArrayList<>();
+        if (!scope.equals(scope_files)) {
+            selections.add("All Files");
+            selections.addAll(Program_Manager.get_shard_selections());
+        }
+        if (!scope.equals(scope_all)) {
+            for (File file : xml_files) selections.add(Program_Manager.key_of(file));
+        }
+
+        File pdf_folder = new File(output_folder, "save_pdf");
+        File excel_folder = new File(output_folder, "save_excel");
+        File csv_folder = new File(output_folder, "save_csv");
+        if (formats.contains("pdf")) pdf_folder.mkdirs();
+        if (formats.contains("xlsx")) excel_folder.mkdirs();
+        if (formats.contains("csv") || formats.contains("tsv")) csv_folder.mkdirs();
+
+        ExecutorService report_pool = Executors.newFixedThreadPool(threads);
+        List<Future<String>> tasks = new ArrayList<>();
+        AtomicInteger failed_reports = new AtomicInteger();
+        long report_start = System.nanoTime();
+
+        for (String selection : selections) {
+            for (String grouping : groupings) {
+                for (String format : formats) {
+                    File folder = format.equals("pdf") ? pdf_folder : format.equals("xlsx") ? excel_folder : csv_folder;
+                    File output = new File(folder, report_file_name(selection, grouping, format) + gzip_suffix(format));
+                    tasks.add(report_pool.submit(() -> export_report(selection, grouping, format, output)));
+                }
+            }
+            if (!raw) continue;
+            for (String format : formats) {
+                if (!is_delimited(format)) continue;
+                File output = new File(csv_folder, "Transactions_" + file_base(selection) + "." + format + gzip_suffix(format));
+                tasks.add(report_pool.submit(() -> export_transactions(selection, output)));
+            }
+        }
+
+        if (history != null) {
+            for (String grouping : groupings) {
+                if (grouping.equals(group_terminal)) continue; // The ledger keeps no terminals
+                for (String format : formats) {
+                    File folder = format.equals("pdf") ? pdf_folder : format.equals("xlsx") ? excel_folder : csv_folder;
+                    File output = new File(folder, report_file_name("History_" + history, grouping, format) + gzip_suffix(format));
+                    tasks.add(report_pool.submit(() -> export_history_report(grouping, format, output)));
+                }
+            }
+        }
+
+        for (Future<String> task : tasks) {
+            try {
+                System.out.println("  " + task.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                failed_reports.incrementAndGet();
+                System.out.println("  report failed: " + e.getCause());
+            }
+        }
+        report_pool.shutdown();
+        Rollup_Ledger.flush(); // The process exits right after this, before a background write could finish
+
+        System.out.println("Loaded " + xml_files.size() + " file(s) in " + load_ms + " ms (" + failed_files.size() + " failed)");
+        System.out.println("Wrote " + (tasks.size() - failed_reports.get()) + " of " + tasks.size() + " report(s) in "
+                + elapsed_ms(report_start) + " ms using " + threads + " thread(s)");
+        System.out.println("Total " + elapsed_ms(start) + " ms");
+        System.out.println(Store_Cache.describe());
+        for (String line : Metrics.describe_histograms()) System.out.println("  " + line);
+        return failed_files.isEmpty() && failed_reports.get() == 0 ? 0 : 1;
+    }
+
+    // Builds one report and writes it in one format; returns a timing line
+    private String export_report(String selection, String grouping, String format, File output) throws IOException {
+        long start = System.nanoTime();
+        List<Transaction_Store> stores = Program_Manager.get_stores(selection);
+        Rollup_Cube cube = Program_Manager.get_cube(selection);
+        Report_Data report;
+        switch (grouping) {
+            case group_card_type:
+                report = Report_Analyzer.build_card_type_report(cube, stores);
+                break;
+            case group_location:
+                report = Report_Analyzer.build_location_report(stores, Transaction_Filter.none);
+                break;
+            case group_terminal:
+                report = Report_Analyzer.build_terminal_report(stores, Transaction_Filter.none);
+                break;
+            default:
+                report = Report_Analyzer.build_date_report(cube, stores, ascending);
+        }
+        long built_ms = elapsed_ms(start);
+
+        write_report(report, format, output);
+        return output.getName() + ": " + report.get_row_count() + " rows, built in " + built_ms + " ms, total "
+                + elapsed_ms(start) + " ms";
+    }
+
+    // Builds one history report from the rollup ledger and writes it; returns a timing line
+    private String export_history_report(String grouping, String format, File output) throws IOException {
+        long start = System.nanoTime();
+        Report_Data report = Report_Analyzer.build_history_report(grouping, Transaction_Filter.none,
+                history.equals("month"), ascending);
+        long built_ms = elapsed_ms(start);
+
+        write_report(report, format, output);
+        return output.getName() + ": " + report.get_row_count() + " rows, built in " + built_ms + " ms, total "
+                + elapsed_ms(start) + " ms";
+    }
+
+    private static void write_report(Report_Data report, String format, File output) throws IOException {
+        if (format.equals("pdf")) {
+            PDF_Exporter.export_report(report, output);
+        } else if (format.equals("xlsx")) {
+            Excel_Exporter.export_report(report, output);
+        } else {
+            Delimited_Exporter.export_report(report, output);
+        }
+    }
+
+    // Writes every transaction of a selection as csv/tsv; returns a timing line
+    private String export_transactions(String selection, File output) throws IOException {
+        long start = System.nanoTime();
+        List<Transaction_Store> stores = Program_Manager.get_stores(selection);
+        Delimited_Exporter.export_transactions(stores, output);
+        int rows = 0;
+        for (Transaction_Store store : stores) rows += store.size();
+        return output.getName() + ": " + rows + " transactions, total " + elapsed_ms(start) + " ms";
+    }
+
+    // e.g. Report_transactions_100_date.pdf or Report_All_Files_card_type.xlsx
+    private static String report_file_name(String selection, String grouping, String format) {
+        return "Report_" + file_base(selection) + "_" + grouping + "." + format;
+    }
+
+    // Selection as part of a file name. Only plain .xml is stripped, so a.xml and a.xml.gz in one folder do not
+    // overwrite each other's reports
+    private static String file_base(String selection) {
+        String base = selection.toLowerCase().endsWith(".xml") ? selection.substring(0, selection.length() - 4) : selection;
+        return base.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static boolean is_delimited(String format) {
+        return format.equals("csv") || format.equals("tsv");
+    }
+
+    // ".gz" for delimited formats when --gzip is given
+    private String gzip_suffix(String format) {
+        return gzip && is_delimited(format) ? ".gz" : "";
+    }
+
+    private static List<String> split_list(String value) {
+        List<String> values = new ArrayList<>();
+        for (String part : value.split(",")) {
+            if (!part.trim().isEmpty()) values.add(part.trim().toLowerCase());
+        }
+        return values;
+    }
+
+    private static long elapsed_ms(long start_nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start_nanos);
+    }
+}
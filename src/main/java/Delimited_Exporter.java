@@ -0,0 +1,310 @@
+import javax.swing.JTable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+// Writes reports and raw transactions as flat CSV or TSV files for warehouse loaders. Rows are encoded straight
+// into a reused byte buffer (numbers digit by digit, dictionary strings encoded once per store) and written through
+// a FileChannel. The file name picks the format: .csv or .tsv, with a trailing .gz for gzip output
+public class Delimited_Exporter {
+
+    // Size of the write buffer; one buffer per thread is kept and reused across exports
+    private static final int buffer_size = 1 << 20;
+
+    // Write buffers, direct so that FileChannel writes do not copy them again
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(buffer_size));
+
+    // Columns of the raw transaction export
+    private static final String[] transaction_columns = {
+            "Batch Date", "Card Type", "Location", "Terminal", "Batch Number", "Quantity", "Gross Amount", "Net Amount", "Fee"
+    };
+
+    // True for .tsv and .tsv.gz file names
+    public static boolean is_tsv(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".tsv") || name.endsWith(".tsv.gz");
+    }
+
+    // True for file names ending in .gz
+    public static boolean is_gzip(File file) {
+        return file.getName().toLowerCase().endsWith(".gz");
+    }
+
+    // Exports the shown table; report tables are written from their report, others cell by cell
+    public static void export_to_file(JTable table, File file) throws IOException {
+        if (table.getModel() instanceof Report_Table_Model) {
+            export_report(((Report_Table_Model) table.getModel()).get_report(), file);
+            return;
+        }
+        Metrics.Span span = Metrics.begin_export();
+        boolean failed = true;
+        try (Row_Writer out = new Row_Writer(file)) {
+            for (int col = 0; col < table.getColumnCount(); col++) out.text(table.getColumnName(col));
+            out.end_row();
+            for (int row = 0; row < table.getRowCount(); row++) {
+                for (int col = 0; col < table.getColumnCount(); col++) {
+                    Object value = table.getValueAt(row, col);
+                    out.text(value != null ? value.toString() : "");
+                }
+                out.end_row();
+            }
+            failed = false;
+        } finally {
+            Metrics.end_export(span, format_of(file), table.getRowCount(), file, failed);
+        }
+    }
+
+    // Writes the rows of a report: a header, one line per transaction and one per subtotal and grand total
+    // (the empty separator rows of the table are left out). Amounts are exact two-decimal cents
+    public static void export_report(Report_Data report, File file) throws IOException {
+        export_report(report, file, Export_Progress.none);
+    }
+
+    // As above, reporting the rows written every Export_Progress.rows_per_update rows
+    public static void export_report(Report_Data report, File file, Export_Progress progress) throws IOException {
+        Metrics.Span span = Metrics.begin_export();
+        boolean failed = true;
+        try (Row_Writer out = new Row_Writer(file)) {
+            int column_count = report.get_column_count();
+            for (int col = 0; col < column_count; col++) out.text(report.get_column_name(col));
+            out.end_row();
+
+            Map<String_Dictionary, byte[][]> encoded = new IdentityHashMap<>();
+            Report_Data.Row_Cursor cursor = report.new_cursor();
+            for (int row = 0; row < report.get_row_count(); row++) {
+                if (row % Export_Progress.rows_per_update == 0) progress.update(row, report.get_row_count());
+                cursor.move_to(row);
+                switch (cursor.get_kind()) {
+                    case DETAIL: {
+                        Transaction_Store store = cursor.get_store();
+                        int store_row = cursor.get_store_row();
+                        out.encoded(encoded_values(encoded, store.get_dates(), out), store.get_date_id(store_row));
+                        out.encoded(encoded_values(encoded, store.get_card_types(), out), store.get_card_type_id(store_row));
+                        out.number(store.get_quantity(store_row));
+                        out.cents(store.get_gross_cents(store_row));
+                        out.cents(store.get_net_cents(store_row));
+                        out.cents(store.get_fee_cents(store_row));
+                        out.end_row();
+                        break;
+                    }
+                    case SUBTOTAL:
+                    case GRAND_TOTAL: {
+                        Totals totals = cursor.get_totals();
+                        out.text("");
+                        out.text(cursor.get_total_label());
+                        out.number(totals.get_quantity());
+                        out.cents(totals.get_gross_cents());
+                        out.cents(totals.get_net_cents());
+                        out.cents(totals.get_fee_cents());
+                        out.end_row();
+                        break;
+                    }
+                    default:
+                        break;
+                }
+            }
+            failed = false;
+        } finally {
+            Metrics.end_export(span, format_of(file), report.get_row_count(), file, failed);
+        }
+    }
+
+    // Writes every transaction of the stores in file order, with location, terminal and batch number
+    public static void export_transactions(List<Transaction_Store> stores, File file) throws IOException {
+        Metrics.Span span = Metrics.begin_export();
+        boolean failed = true;
+        int rows = 0;
+        try (Row_Writer out = new Row_Writer(file)) {
+            for (String column : transaction_columns) out.text(column);
+            out.end_row();
+
+            Map<String_Dictionary, byte[][]> encoded = new IdentityHashMap<>();
+            for (Transaction_Store store : stores) {
+                byte[][] dates = encoded_values(encoded, store.get_dates(), out);
+                byte[][] card_types = encoded_values(encoded, store.get_card_types(), out);
+                byte[][] locations = encoded_values(encoded, store.get_locations(), out);
+                byte[][] terminals = encoded_values(encoded, store.get_terminals(), out);
+                byte[][] batch_numbers = encoded_values(encoded, store.get_batch_numbers(), out);
+                for (int row = 0; row < store.size(); row++) {
+                    out.encoded(dates, store.get_date_id(row));
+                    out.encoded(card_types, store.get_card_type_id(row));
+                    out.encoded(locations, store.get_location_id(row));
+                    out.encoded(terminals, store.get_terminal_id(row));
+                    out.encoded(batch_numbers, store.get_batch_number_id(row));
+                    out.number(store.get_quantity(row));
+                    out.cents(store.get_gross_cents(row));
+                    out.cents(store.get_net_cents(row));
+                    out.cents(store.get_fee_cents(row));
+                    out.end_row();
+                }
+                rows += store.size();
+            }
+            failed = false;
+        } finally {
+            Metrics.end_export(span, format_of(file), rows, file, failed);
+        }
+    }
+
+    // "csv" or "tsv", for the metrics
+    private static String format_of(File file) {
+        return is_tsv(file) ? "tsv" : "csv";
+    }
+
+    // Field bytes of every value of a dictionary, escaped for the writer's format; built once per dictionary
+    private static byte[][] encoded_values(Map<String_Dictionary, byte[][]> cache, String_Dictionary dictionary, Row_Writer out) {
+        byte[][] values = cache.get(dictionary);
+        if (values == null || values.length < dictionary.size()) {
+            values = new byte[dictionary.size()][];
+            for (int id = 0; id < values.length; id++) values[id] = out.escape(dictionary.value_of(id));
+            cache.put(dictionary, values);
+        }
+        return values;
+    }
+
+    // Gzip at the fastest level: for bulk dumps the output is still several times smaller than plain text, and
+    // the default level would make compression, not the disk, the bottleneck
+    private static final class Fast_Gzip_Stream extends GZIPOutputStream {
+        Fast_Gzip_Stream(OutputStream out) throws IOException {
+            super(out, 1 << 16);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+
+    // Encodes fields into the thread's buffer and drains it to the file (through gzip when asked) when it fills up
+    private static final class Row_Writer implements AutoCloseable {
+        private final FileChannel file_channel;
+        private final OutputStream gzip; // null for plain output
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+        private final byte delimiter;
+        private final byte[] digits = new byte[20];
+        private boolean first_field = true;
+
+        Row_Writer(File file) throws IOException {
+            file_channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            try {
+                gzip = is_gzip(file) ? new Fast_Gzip_Stream(Channels.newOutputStream(file_channel)) : null;
+            } catch (IOException e) {
+                file_channel.close();
+                throw e;
+            }
+            channel = gzip != null ? Channels.newChannel(gzip) : file_channel;
+            buffer = buffers.get();
+            buffer.clear();
+            delimiter = (byte) (is_tsv(file) ? '\t' : ',');
+        }
+
+        // Field bytes of a string: CSV quotes fields with delimiters, quotes or line breaks (doubling quotes);
+        // TSV has no quoting, so tabs and line breaks become spaces
+        byte[] escape(String value) {
+            if (delimiter == '\t') {
+                return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ').getBytes(StandardCharsets.UTF_8);
+            }
+            boolean quote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+            if (!quote) return value.getBytes(StandardCharsets.UTF_8);
+            return ("\"" + value.replace("\"", "\"\"") + "\"").getBytes(StandardCharsets.UTF_8);
+        }
+
+        void text(String value) throws IOException {
+            bytes(escape(value));
+        }
+
+        // Writes a pre-escaped dictionary value
+        void encoded(byte[][] values, int id) throws IOException {
+            bytes(values[id]);
+        }
+
+        void number(long value) throws IOException {
+            separate(21);
+            put_long(value);
+        }
+
+        // Cents as an exact two-decimal amount, e.g. -1234 -> -12.34
+        void cents(long value) throws IOException {
+            separate(23);
+            if (value < 0) {
+                buffer.put((byte) '-');
+                value = -value;
+            }
+            put_long(value / 100);
+            long fraction = value % 100;
+            buffer.put((byte) '.');
+            buffer.put((byte) ('0' + fraction / 10));
+            buffer.put((byte) ('0' + fraction % 10));
+        }
+
+        void end_row() throws IOException {
+            reserve(1);
+            buffer.put((byte) '\n');
+            first_field = true;
+        }
+
+        private void bytes(byte[] value) throws IOException {
+            separate(value.length);
+            if (value.length > buffer.remaining()) {
+                drain();
+                if (value.length > buffer.remaining()) {
+                    channel_write(ByteBuffer.wrap(value)); // Longer than the whole buffer
+                    return;
+                }
+            }
+            buffer.put(value);
+        }
+
+        // Writes the delimiter before every field but the first, making room for the field first
+        private void separate(int field_length) throws IOException {
+            reserve(Math.min(field_length, buffer_size / 2) + 1);
+            if (!first_field) buffer.put(delimiter);
+            first_field = false;
+        }
+
+        // Non-negative or negative long, digit by digit (Long.MIN_VALUE does not occur: amounts are cents)
+        private void put_long(long value) {
+            if (value < 0) {
+                buffer.put((byte) '-');
+                value = -value;
+            }
+            int length = 0;
+            do {
+                digits[length++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            while (length > 0) buffer.put(digits[--length]);
+        }
+
+        private void reserve(int length) throws IOException {
+            if (buffer.remaining() < length) drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            channel_write(buffer);
+            buffer.clear();
+        }
+
+        private void channel_write(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) channel.write(source);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+                if (gzip != null) gzip.close(); // Writes the gzip trailer and closes the file channel
+            } finally {
+                file_channel.close();
+            }
+        }
+    }
+}
@@ -1,11 +1,15 @@
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 import javax.swing.JTable;
 import java.io.*;
-import java.text.ParseException;
+import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 // Utility class to export JTable data into an Excel (.xlsx) file using Apache POI
 public class Excel_Exporter {
 
@@ -14,131 +18,286 @@ public class Excel_Exporter {
             "yyyy-MM-dd", "MM/dd/yyyy", "dd-MM-yyyy", "dd/MM/yyyy"
     };
 
-    // Exports the given JTable data to an Excel file
+    // Rows kept in memory by the streaming workbook; older rows are flushed to a temp file
+    private static final int row_window = 100;
+
+    // Cap on column width to avoid extreme stretch (in 1/256 character units)
+    private static final int max_column_width = 10000;
+
+    // Exports the given JTable data to an Excel file (no dialogs; the caller reports the result)
     public static void export_to_excel(JTable table, File file) throws IOException {
-        Workbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("Report");
+        if (table.getModel() instanceof Report_Table_Model) {
+            export_report(((Report_Table_Model) table.getModel()).get_report(), file);
+        } else {
+            Metrics.Span span = Metrics.begin_export();
+            boolean failed = true;
+            try {
+                export_table(table, file);
+                failed = false;
+            } finally {
+                Metrics.end_export(span, "xlsx", table.getRowCount(), file, failed);
+            }
+        }
+    }
 
-        CreationHelper create_helper = workbook.getCreationHelper();
+    // Streams a report to an Excel file; cell types come from the report's column schema
+    public static void export_report(Report_Data report, File file) throws IOException {
+        export_report(report, file, Export_Progress.none);
+    }
 
-        // Cell style for date formatting
-        CellStyle date_cell_style = workbook.createCellStyle();
-        date_cell_style.setDataFormat(create_helper.createDataFormat().getFormat("yyyy-mm-dd"));
+    // As above, reporting the rows written every Export_Progress.rows_per_update rows
+    public static void export_report(Report_Data report, File file, Export_Progress progress) throws IOException {
+        Metrics.Span span = Metrics.begin_export();
+        boolean failed = true;
+        try {
+            write_report(report, file, progress);
+            failed = false;
+        } finally {
+            Metrics.end_export(span, "xlsx", report.get_row_count(), file, failed);
+        }
+    }
 
-        // Bold font style for header
-        Font bold_font = workbook.createFont();
-        bold_font.setBold(true);
-        CellStyle bold_style = workbook.createCellStyle();
-        bold_style.setFont(bold_font);
+    // Writes the report (see export_report)
+    private static void write_report(Report_Data report, File file, Export_Progress progress) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(row_window);
+        try {
+            Sheet sheet = workbook.createSheet("Report");
+            CellStyle date_cell_style = create_date_style(workbook);
 
-        int row_index = 0;
-        int column_count = table.getColumnCount();
-        int[] max_column_widths = new int[column_count]; // Track max width per column
+            int column_count = report.get_column_count();
+            int[] max_column_widths = write_header(workbook, sheet, report, column_count);
 
-        // Create and style header row
-        Row header_row = sheet.createRow(row_index++);
-        for (int col = 0; col < column_count; col++) {
-            String header = table.getColumnName(col);
-            max_column_widths[col] = header.length(); // track width
+            // Excel serial number per distinct date string (dates repeat on every row of a group)
+            Map<String, Double> excel_dates = new HashMap<>();
 
-            Cell cell = header_row.createCell(col);
-            cell.setCellValue(header);
-            cell.setCellStyle(bold_style);
+            Report_Data.Row_Cursor cursor = report.new_cursor();
+            int row_index = 1;
+            for (int row = 0; row < report.get_row_count(); row++) {
+                if (row % Export_Progress.rows_per_update == 0) progress.update(row, report.get_row_count());
+                cursor.move_to(row);
+                Row excel_row = sheet.createRow(row_index++);
+
+                switch (cursor.get_kind()) {
+                    case DETAIL:
+                        write_detail_row(excel_row, cursor.get_store(), cursor.get_store_row(), report,
+                                date_cell_style, excel_dates, max_column_widths);
+                        break;
+                    case SUBTOTAL:
+                    case GRAND_TOTAL:
+                        write_total_row(excel_row, cursor.get_total_label(), cursor.get_totals(), column_count, max_column_widths);
+                        break;
+                    default:
+                        for (int col = 0; col < column_count; col++) excel_row.createCell(col).setCellValue("");
+                }
+            }
+
+            set_column_widths(sheet, max_column_widths);
+
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        } finally {
+            workbook.close();
+            workbook.dispose(); // Delete the temp files holding flushed rows
         }
+    }
 
-        // Write data rows to Excel sheet
-        for (int row = 0; row < table.getRowCount(); row++) {
-            Row excel_row = sheet.createRow(row_index++);
-            for (int col = 0; col < column_count; col++) {
-                Cell cell = excel_row.createCell(col);
-                Object value = table.getValueAt(row, col);
-
-                String string_value = "";
-
-                if (value == null) {
-                    cell.setCellValue("");
-                } else if (value instanceof Number) {
-                    cell.setCellValue(((Number) value).doubleValue());
-                    string_value = value.toString();
-                } else if (value instanceof String && is_likely_date((String) value)) {
-                    Date parsed_date = parse_date((String) value);
-                    if (parsed_date != null) {
-                        cell.setCellValue(parsed_date);
+    // Writes one transaction row using the column schema (no type guessing)
+    private static void write_detail_row(Row excel_row, Transaction_Store store, int row, Report_Data report,
+                                         CellStyle date_cell_style, Map<String, Double> excel_dates, int[] widths) {
+        for (int col = 0; col < report.get_column_count(); col++) {
+            Cell cell = excel_row.createCell(col);
+            switch (col) {
+                case 0: {
+                    String date = store.get_batch_date(row);
+                    Double serial = excel_dates.computeIfAbsent(date, Excel_Exporter::to_excel_date);
+                    if (serial != null && report.get_column_type(col) == Report_Data.Column_Type.DATE) {
+                        cell.setCellValue(serial);
                         cell.setCellStyle(date_cell_style);
-                        string_value = value.toString();
                     } else {
-                        cell.setCellValue(value.toString());
-                        string_value = value.toString();
+                        cell.setCellValue(date);
                     }
-                } else {
-                    try {
-                        double num = Double.parseDouble(value.toString());
-                        cell.setCellValue(num);
+                    widths[col] = Math.max(widths[col], date.length());
+                    break;
+                }
+                case 1: {
+                    String card_type = store.get_card_type(row);
+                    cell.setCellValue(card_type);
+                    widths[col] = Math.max(widths[col], card_type.length());
+                    break;
+                }
+                case 2: {
+                    long quantity = store.get_quantity(row);
+                    cell.setCellValue(quantity);
+                    widths[col] = Math.max(widths[col], digit_count(quantity));
+                    break;
+                }
+                default: {
+                    double amount = col == 3 ? store.get_gross_amount(row)
+                            : col == 4 ? store.get_net_amount(row) : store.get_fee(row);
+                    cell.setCellValue(amount);
+                    widths[col] = Math.max(widths[col], money_width(amount));
+                }
+            }
+        }
+    }
+
+    // Writes a subtotal or grand total row; amounts are exact cents as shown in the table
+    private static void write_total_row(Row excel_row, String label, Totals totals, int column_count, int[] widths) {
+        long[] cents = {totals.get_gross_cents(), totals.get_net_cents(), totals.get_fee_cents()};
+
+        excel_row.createCell(0).setCellValue("");
+        excel_row.createCell(1).setCellValue(label);
+        excel_row.createCell(2).setCellValue(totals.get_quantity());
+        widths[1] = Math.max(widths[1], label.length());
+        widths[2] = Math.max(widths[2], Long.toString(totals.get_quantity()).length());
+
+        for (int col = 3; col < column_count; col++) {
+            excel_row.createCell(col).setCellValue(Fixed_Point.to_amount(cents[col - 3]));
+            widths[col] = Math.max(widths[col], money_width(Fixed_Point.to_amount(cents[col - 3])));
+        }
+    }
+
+    // Excel date serial for an ISO (yyyy-MM-dd) batch date, or null if it is not a date
+    private static Double to_excel_date(String value) {
+        try {
+            return DateUtil.getExcelDate(LocalDate.parse(value));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // Approximate display width of an amount with two decimals, without formatting it
+    private static int money_width(double amount) {
+        return digit_count((int) Math.min(Integer.MAX_VALUE, Math.abs(amount))) + (amount < 0 ? 4 : 3);
+    }
+
+    // Number of characters of a non-negative or negative number
+    private static int digit_count(long value) {
+        int digits = value < 0 ? 2 : 1;
+        long remaining = value;
+        while (remaining >= 10 || remaining <= -10) {
+            remaining /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    // Streams an arbitrary JTable, guessing cell types from the values (used for tables without a report)
+    private static void export_table(JTable table, File file) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(row_window);
+        try {
+            Sheet sheet = workbook.createSheet("Report");
+            CellStyle date_cell_style = create_date_style(workbook);
+
+            // Parsers are created once per export instead of once per cell
+            SimpleDateFormat[] parsers = new SimpleDateFormat[date_formats.length];
+            for (int i = 0; i < parsers.length; i++) parsers[i] = new SimpleDateFormat(date_formats[i]);
+
+            int column_count = table.getColumnCount();
+            Row header_row = sheet.createRow(0);
+            CellStyle bold_style = create_bold_style(workbook);
+            int[] max_column_widths = new int[column_count];
+            for (int col = 0; col < column_count; col++) {
+                String header = table.getColumnName(col);
+                max_column_widths[col] = header.length();
+                Cell cell = header_row.createCell(col);
+                cell.setCellValue(header);
+                cell.setCellStyle(bold_style);
+            }
+
+            int row_index = 1;
+            for (int row = 0; row < table.getRowCount(); row++) {
+                Row excel_row = sheet.createRow(row_index++);
+                for (int col = 0; col < column_count; col++) {
+                    Cell cell = excel_row.createCell(col);
+                    Object value = table.getValueAt(row, col);
+
+                    String string_value = "";
+
+                    if (value == null) {
+                        cell.setCellValue("");
+                    } else if (value instanceof Number) {
+                        cell.setCellValue(((Number) value).doubleValue());
                         string_value = value.toString();
-                    } catch (Exception e) {
-                        cell.setCellValue(value.toString());
+                    } else {
                         string_value = value.toString();
+                        Date parsed_date = parse_date(parsers, string_value);
+                        if (parsed_date != null) {
+                            cell.setCellValue(parsed_date);
+                            cell.setCellStyle(date_cell_style);
+                        } else {
+                            try {
+                                cell.setCellValue(Double.parseDouble(string_value));
+                            } catch (NumberFormatException e) {
+                                cell.setCellValue(string_value);
+                            }
+                        }
                     }
-                }
 
-                // Track max column width
-                if (string_value != null) {
+                    // Track max column width
                     max_column_widths[col] = Math.max(max_column_widths[col], string_value.length());
                 }
             }
+
+            set_column_widths(sheet, max_column_widths);
+
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                workbook.write(out);
+            }
+        } finally {
+            workbook.close();
+            workbook.dispose();
         }
+    }
+
+    // Creates the bold header row and returns the initial column widths (header lengths)
+    private static int[] write_header(Workbook workbook, Sheet sheet, Report_Data report, int column_count) {
+        CellStyle bold_style = create_bold_style(workbook);
+        int[] max_column_widths = new int[column_count];
 
-        // Resize columns based on maximum content width
+        Row header_row = sheet.createRow(0);
         for (int col = 0; col < column_count; col++) {
-            int width = (max_column_widths[col] + 2) * 256; // add padding
-            sheet.setColumnWidth(col, Math.min(width, 10000)); // cap width to avoid extreme stretch
-        }
+            String header = report.get_column_name(col);
+            max_column_widths[col] = header.length();
 
-        // Write workbook to file
-        try (FileOutputStream out = new FileOutputStream(file)) {
-            workbook.write(out);
+            Cell cell = header_row.createCell(col);
+            cell.setCellValue(header);
+            cell.setCellStyle(bold_style);
         }
+        return max_column_widths;
+    }
 
-        workbook.close(); // Clean up
-        workbook.close(); // Clean up
-
-        // Ask user if they want to open the file now
-        int option = javax.swing.JOptionPane.showConfirmDialog(null,
-                "Export complete. Do you want to open the file now?", "Open File",
-                javax.swing.JOptionPane.YES_NO_OPTION);
-        if (option == javax.swing.JOptionPane.YES_OPTION) {
-            if (java.awt.Desktop.isDesktopSupported()) {
-                try {
-                    java.awt.Desktop.getDesktop().open(file);
-                } catch (IOException e) {
-                    javax.swing.JOptionPane.showMessageDialog(null, "Unable to open the file: " + e.getMessage());
-                }
-            } else {
-                javax.swing.JOptionPane.showMessageDialog(null, "Desktop not supported on this system.");
-            }
+    // Resize columns based on maximum content width
+    private static void set_column_widths(Sheet sheet, int[] max_column_widths) {
+        for (int col = 0; col < max_column_widths.length; col++) {
+            int width = (max_column_widths[col] + 2) * 256; // add padding
+            sheet.setColumnWidth(col, Math.min(width, max_column_width));
         }
+    }
 
+    // Cell style for date formatting
+    private static CellStyle create_date_style(Workbook workbook) {
+        CellStyle date_cell_style = workbook.createCellStyle();
+        date_cell_style.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+        return date_cell_style;
     }
 
-    // Check if a string is likely to be a date
-    private static boolean is_likely_date(String value) {
-        for (String format : date_formats) {
-            try {
-                new SimpleDateFormat(format).parse(value);
-                return true;
-            } catch (ParseException ignored) {
-            }
-        }
-        return false;
+    // Bold font style for header
+    private static CellStyle create_bold_style(Workbook workbook) {
+        Font bold_font = workbook.createFont();
+        bold_font.setBold(true);
+        CellStyle bold_style = workbook.createCellStyle();
+        bold_style.setFont(bold_font);
+        return bold_style;
     }
 
-    // Attempt to parse a date string using supported formats
-    private static Date parse_date(String value) {
-        for (String format : date_formats) {
-            try {
-                return new SimpleDateFormat(format).parse(value);
-            } catch (ParseException ignored) {
-            }
+    // Attempt to parse a whole string with the supported formats (one attempt per format)
+    private static Date parse_date(SimpleDateFormat[] parsers, String value) {
+        for (SimpleDateFormat parser : parsers) {
+            ParsePosition position = new ParsePosition(0);
+            Date date = parser.parse(value, position);
+            if (date != null) return date;
         }
         return null;
     }
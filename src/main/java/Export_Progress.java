@@ -0,0 +1,13 @@
+// Progress callback of a long export: exporters report the rows written so far every rows_per_update rows.
+// The callback of a cancelled export throws CancellationException, which ends the export where it is
+public interface Export_Progress {
+
+    // How often exporters report (and so how soon they notice a cancellation)
+    int rows_per_update = 4096;
+
+    // Progress that ignores every update, for exports nobody watches
+    Export_Progress none = (rows_done, rows_total) -> { };
+
+    // Rows written so far out of rows_total
+    void update(int rows_done, int rows_total);
+}
@@ -0,0 +1,179 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+// Runs exports on a small fixed pool with a bounded queue, so a few exports in a row neither compete for every core
+// and the heap at once nor pile up without limit. Jobs work from immutable report snapshots, report their progress
+// and can be cancelled while queued or running; the partial file of a cancelled or failed export is deleted
+public class Export_Scheduler {
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    // The work of one export: writes the file, reporting progress as it goes
+    public interface Export_Task {
+        void run(Export_Progress progress) throws Exception;
+    }
+
+    // Told about every state change and every new percent of a job; called on the export thread (or on the
+    // cancelling thread for a job that was still queued)
+    public interface Listener {
+        void changed(Export_Job job, State state);
+    }
+
+    // One submitted export
+    public final class Export_Job {
+        private final String description;
+        private final File file;
+        private final Listener listener;
+        private volatile State state = State.QUEUED;
+        private volatile int rows_done;
+        private volatile int rows_total = -1;
+        private volatile boolean cancel_requested;
+        private volatile Exception error;
+        private volatile Future<?> future;
+
+        Export_Job(String description, File file, Listener listener) {
+            this.description = description;
+            this.file = file;
+            this.listener = listener;
+        }
+
+        public String get_description() {
+            return description;
+        }
+
+        public File get_file() {
+            return file;
+        }
+
+        public State get_state() {
+            return state;
+        }
+
+        // Why the export failed, or null
+        public Exception get_error() {
+            return error;
+        }
+
+        // Percent of rows written, or -1 while the exporter has not reported a row count
+        public int get_percent() {
+            int total = rows_total;
+            if (total < 0) return -1;
+            return total == 0 ? 100 : (int) (100L * rows_done / total);
+        }
+
+        // A queued job is dropped right away; a running one stops at its next progress update
+        public void cancel() {
+            cancel_requested = true;
+            Future<?> queued = future;
+            if (state == State.QUEUED && queued != null && queued.cancel(false)) {
+                pool.remove((Runnable) queued);
+                finish(this, State.CANCELLED, null);
+            }
+        }
+
+        // Progress callback handed to the exporter
+        void update(int done, int total) {
+            if (cancel_requested) throw new CancellationException("Export cancelled");
+            int before = get_percent();
+            rows_done = done;
+            rows_total = total;
+            if (get_percent() != before) listener.changed(this, state);
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+
+    // Queued and running jobs in submission order; guarded by itself
+    private final List<Export_Job> jobs = new ArrayList<>();
+
+    // At most max_concurrent exports run at once and max_queued more wait; further submissions are rejected
+    public Export_Scheduler(int max_concurrent, int max_queued) {
+        AtomicInteger counter = new AtomicInteger();
+        pool = new ThreadPoolExecutor(max_concurrent, max_concurrent, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, max_queued)), task -> {
+                    Thread thread = new Thread(task, "export-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true); // No idle threads between exports
+    }
+
+    // Scheduler sized by -Dexport.max_concurrent (default: 1, or 2 from four cores on; the exporters are themselves
+    // parallel) and -Dexport.max_queued (default 8)
+    public static Export_Scheduler from_settings() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int max_concurrent = Integer.getInteger("export.max_concurrent", cores >= 4 ? 2 : 1);
+        int max_queued = Integer.getInteger("export.max_queued", 8);
+        return new Export_Scheduler(Math.max(1, max_concurrent), max_queued);
+    }
+
+    // Queues an export; throws RejectedExecutionException when the queue is full
+    public Export_Job submit(String description, File file, Export_Task task, Listener listener) {
+        Export_Job job = new Export_Job(description, file, listener);
+        synchronized (jobs) {
+            jobs.add(job);
+        }
+        try {
+            job.future = pool.submit(() -> run(job, task));
+        } catch (RejectedExecutionException e) {
+            synchronized (jobs) {
+                jobs.remove(job);
+            }
+            throw e;
+        }
+        return job;
+    }
+
+    // Queued and running jobs, oldest first
+    public List<Export_Job> get_jobs() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs);
+        }
+    }
+
+    public void cancel_all() {
+        for (Export_Job job : get_jobs()) job.cancel();
+    }
+
+    // Cancels every job and lets the threads end
+    public void shutdown() {
+        cancel_all();
+        pool.shutdown();
+    }
+
+    // Runs one job on an export thread
+    private void run(Export_Job job, Export_Task task) {
+        if (job.cancel_requested) {
+            finish(job, State.CANCELLED, null);
+            return;
+        }
+        job.state = State.RUNNING;
+        job.listener.changed(job, State.RUNNING);
+        try {
+            task.run(job::update);
+            finish(job, State.DONE, null);
+        } catch (CancellationException e) {
+            job.file.delete();
+            finish(job, State.CANCELLED, null);
+        } catch (Exception e) {
+            job.file.delete();
+            finish(job, State.FAILED, e);
+        }
+    }
+
+    private void finish(Export_Job job, State state, Exception error) {
+        job.error = error;
+        job.state = state;
+        synchronized (jobs) {
+            jobs.remove(job);
+        }
+        job.listener.changed(job, state);
+    }
+}
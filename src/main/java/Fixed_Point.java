@@ -0,0 +1,182 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+// Money helpers: amounts are kept as long cents so sums are exact, and parsed/formatted without temporary objects
+public class Fixed_Point {
+
+    // Parses a decimal amount ("246.15", "-3.5", " 12 ") into cents, rounding half up beyond two decimals
+    public static long parse_cents(CharSequence text) {
+        return parse_cents(text, 0, text.length());
+    }
+
+    // Parses chars [start, end) of a decimal amount into cents
+    public static long parse_cents(CharSequence text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+        if (start == end) throw new NumberFormatException("Empty amount");
+
+        int i = start;
+        boolean negative = false;
+        char first = text.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+
+        long units = 0;
+        int digits = 0;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') break;
+            if (++digits > 16) return parse_cents_slow(text.subSequence(start, end).toString()); // Would overflow the fast path
+            units = units * 10 + (c - '0');
+        }
+
+        long fraction = 0;
+        int fraction_digits = 0;
+        boolean round_up = false;
+        if (i < end && text.charAt(i) == '.') {
+            for (i++; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') break;
+                if (fraction_digits < 2) {
+                    fraction = fraction * 10 + (c - '0');
+                } else if (fraction_digits == 2) {
+                    round_up = c >= '5';
+                }
+                fraction_digits++;
+            }
+            if (fraction_digits == 0 && digits == 0) throw new NumberFormatException("Invalid amount: " + text.subSequence(start, end));
+        } else if (digits == 0) {
+            throw new NumberFormatException("Invalid amount: " + text.subSequence(start, end));
+        }
+
+        if (i < end) return parse_cents_slow(text.subSequence(start, end).toString()); // Exponents and other rare forms
+        if (fraction_digits == 1) fraction *= 10;
+
+        long cents = units * 100 + fraction + (round_up ? 1 : 0);
+        return negative ? -cents : cents;
+    }
+
+    // Parses chars [start, end) of a char array (e.g. a parser's text buffer) into cents. Same loop as above over
+    // the array itself, so the per-amount hot path does not wrap it
+    public static long parse_cents(char[] chars, int start, int end) {
+        while (start < end && chars[start] <= ' ') start++;
+        while (end > start && chars[end - 1] <= ' ') end--;
+        if (start == end) throw new NumberFormatException("Empty amount");
+
+        int i = start;
+        boolean negative = false;
+        char first = chars[i];
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+
+        long units = 0;
+        int digits = 0;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c < '0' || c > '9') break;
+            if (++digits > 16) return parse_cents_slow(new String(chars, start, end - start)); // Would overflow the fast path
+            units = units * 10 + (c - '0');
+        }
+
+        long fraction = 0;
+        int fraction_digits = 0;
+        boolean round_up = false;
+        if (i < end && chars[i] == '.') {
+            for (i++; i < end; i++) {
+                char c = chars[i];
+                if (c < '0' || c > '9') break;
+                if (fraction_digits < 2) {
+                    fraction = fraction * 10 + (c - '0');
+                } else if (fraction_digits == 2) {
+                    round_up = c >= '5';
+                }
+                fraction_digits++;
+            }
+            if (fraction_digits == 0 && digits == 0) throw new NumberFormatException("Invalid amount: " + new String(chars, start, end - start));
+        } else if (digits == 0) {
+            throw new NumberFormatException("Invalid amount: " + new String(chars, start, end - start));
+        }
+
+        if (i < end) return parse_cents_slow(new String(chars, start, end - start)); // Exponents and other rare forms
+        if (fraction_digits == 1) fraction *= 10;
+
+        long cents = units * 100 + fraction + (round_up ? 1 : 0);
+        return negative ? -cents : cents;
+    }
+
+    // Parses chars [start, end) of a whole number (quantities) without creating a String
+    public static int parse_int(CharSequence text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') start++;
+        while (end > start && text.charAt(end - 1) <= ' ') end--;
+        if (start == end) throw new NumberFormatException("Empty number");
+
+        int i = start;
+        boolean negative = false;
+        char first = text.charAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+        if (i == end) throw new NumberFormatException("Invalid number: " + text.subSequence(start, end));
+
+        long value = 0;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') throw new NumberFormatException("Invalid number: " + text.subSequence(start, end));
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) throw new NumberFormatException("Number too large: " + text.subSequence(start, end));
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) throw new NumberFormatException("Number too large: " + text.subSequence(start, end));
+        return (int) value;
+    }
+
+    // Parses a whole number (quantities)
+    public static int parse_int(CharSequence text) {
+        return parse_int(text, 0, text.length());
+    }
+
+    // Exact fallback for inputs the fast path does not handle (exponents, very long numbers)
+    private static long parse_cents_slow(String text) {
+        return new BigDecimal(text)
+                .setScale(2, RoundingMode.HALF_UP)
+                .unscaledValue()
+                .longValueExact();
+    }
+
+    // Converts a double amount to cents (used where amounts still arrive as doubles)
+    public static long to_cents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    // Converts cents back to a double amount for display or APIs that expect doubles
+    public static double to_amount(long cents) {
+        return cents / 100.0;
+    }
+
+    // Formats cents with exactly two decimals ("1234.50", "-0.05"), like String.format("%.2f") but exact
+    public static String format_cents(long cents) {
+        StringBuilder out = new StringBuilder(24);
+        append_cents(out, cents);
+        return out.toString();
+    }
+
+    // Appends cents with exactly two decimals
+    public static void append_cents(StringBuilder out, long cents) {
+        if (cents < 0) {
+            out.append('-');
+            if (cents == Long.MIN_VALUE) { // Cannot be negated
+                out.append(BigDecimal.valueOf(cents, 2).negate().toPlainString());
+                return;
+            }
+            cents = -cents;
+        }
+        out.append(cents / 100).append('.');
+        long fraction = cents % 100;
+        if (fraction < 10) out.append('0');
+        out.append(fraction);
+    }
+}
@@ -0,0 +1,175 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+// Watches an input folder (xml_files by default) and ingests files that are added, replaced or deleted while the
+// app is running
+public class Folder_Watcher {
+
+    // Callback after a set of changes was applied to Program_Manager (invoked on the watcher thread); files are
+    // reported by their Program_Manager selection key
+    public interface Change_Listener {
+        void files_changed(List<String> updated, List<String> removed);
+    }
+
+    // A file is ingested once no event arrived for it for this long, so half-copied files are not parsed
+    private static final long quiet_period_ms = 750;
+
+    private final Path folder;
+    private final Change_Listener listener;
+
+    // Last event time per changed path, waiting for the quiet period
+    private final Map<Path, Long> pending = new HashMap<>();
+
+    // Size and modification time of every file as it was ingested, to skip events that changed nothing
+    private final Map<String, long[]> ingested = new HashMap<>();
+
+    private WatchService watch_service;
+    private Thread thread;
+    private volatile boolean running;
+
+    public Folder_Watcher(File folder, Change_Listener listener) {
+        this.folder = folder.toPath().toAbsolutePath();
+        this.listener = listener;
+    }
+
+    // Starts watching; files already in the folder are assumed to be loaded
+    public synchronized void start() throws IOException {
+        if (running) return;
+        Files.createDirectories(folder);
+
+        for (File file : list_xml_files()) {
+            ingested.put(file.getName(), file_state(file));
+        }
+
+        watch_service = folder.getFileSystem().newWatchService();
+        folder.register(watch_service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+        running = true;
+        thread = new Thread(this::run, "xml-folder-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Stops the watcher thread
+    public synchronized void stop() {
+        running = false;
+        if (watch_service != null) {
+            try {
+                watch_service.close(); // Wakes up the watcher thread
+            } catch (IOException e) {
+                System.out.println("Could not close folder watcher: " + e.getMessage());
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            boolean rescan = false;
+            while (running) {
+                WatchKey key = pending.isEmpty() ? watch_service.take()
+                        : watch_service.poll(quiet_period_ms, TimeUnit.MILLISECONDS);
+
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            rescan = true; // Events were lost, compare the whole folder instead
+                            continue;
+                        }
+                        Path name = (Path) event.context();
+                        if (is_xml(name.toString())) pending.put(folder.resolve(name), System.currentTimeMillis());
+                    }
+                    if (!key.reset()) {
+                        System.out.println("Stopped watching " + folder + " (folder is no longer accessible)");
+                        running = false;
+                    }
+                }
+
+                Set<Path> ready = take_quiet_paths();
+                if (rescan) {
+                    ready.addAll(all_known_paths());
+                    rescan = false;
+                }
+                if (!ready.isEmpty()) apply(ready);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // stop() was called
+        }
+    }
+
+    // Removes and returns the pending paths whose last event is older than the quiet period
+    private Set<Path> take_quiet_paths() {
+        Set<Path> ready = new HashSet<>();
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<Path, Long>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Path, Long> entry = it.next();
+            if (now - entry.getValue() >= quiet_period_ms) {
+                ready.add(entry.getKey());
+                it.remove();
+            }
+        }
+        return ready;
+    }
+
+    // Every file on disk plus every file that was ingested (deleted ones are found by the comparison)
+    private Set<Path> all_known_paths() {
+        Set<Path> paths = new HashSet<>();
+        for (File file : list_xml_files()) paths.add(file.toPath().toAbsolutePath());
+        for (String name : ingested.keySet()) paths.add(folder.resolve(name));
+        return paths;
+    }
+
+    // Re-parses added or modified files and evicts deleted ones, then notifies the listener
+    private void apply(Set<Path> paths) {
+        List<File> changed = new ArrayList<>();
+        Map<String, long[]> states = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+
+        for (Path path : paths) {
+            File file = path.toFile();
+            String name = file.getName();
+
+            if (file.isFile()) {
+                long[] state = file_state(file); // Taken before parsing, so a change during parsing is seen again
+                if (Arrays.equals(state, ingested.get(name))) continue;
+                changed.add(file);
+                states.put(name, state);
+            } else if (ingested.remove(name) != null) {
+                Program_Manager.remove_file(file);
+                removed.add(Program_Manager.key_of(file));
+            }
+        }
+
+        List<String> updated = new ArrayList<>();
+        if (!changed.isEmpty()) {
+            List<File> failed = Program_Manager.reload_files(changed);
+            for (File file : changed) {
+                if (failed.contains(file)) continue; // Retried on the file's next change
+                ingested.put(file.getName(), states.get(file.getName()));
+                updated.add(Program_Manager.key_of(file));
+            }
+        }
+
+        if (!updated.isEmpty() || !removed.isEmpty()) {
+            System.out.println("Folder changes: " + updated.size() + " file(s) updated, " + removed.size() + " removed");
+            listener.files_changed(updated, removed);
+        }
+    }
+
+    private List<File> list_xml_files() {
+        File[] files = folder.toFile().listFiles((dir, name) -> is_xml(name));
+        return files != null ? Arrays.asList(files) : Collections.emptyList();
+    }
+
+    private static boolean is_xml(String name) {
+        return XML_Parser.is_input_file(name);
+    }
+
+    private static long[] file_state(File file) {
+        return new long[]{file.length(), file.lastModified()};
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.File;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+// One input root (usually one location's folder) with its own parser pool, loaded files and "All Files" rollup,
+// so a large or slow root never holds up the others. Program_Manager routes files and selections to their shard
+public class Input_Shard {
+
+    // Selection of the rollup of one shard, after the shard's key prefix (e.g. "site_12/All Files")
+    public static final String all_files = "All Files";
+
+    // A loaded file: its (date x card type) rollup and the file state it was computed from. The transactions
+    // themselves live in the size-bounded Store_Cache and are reloaded (usually from the snapshot) after eviction
+    private static final class Loaded_File {
+        final File file;
+        final long size;
+        final long mtime;
+        final Rollup_Cube cube;
+        final boolean failed;
+
+        Loaded_File(File file, long size, long mtime, Rollup_Cube cube, boolean failed) {
+            this.file = file;
+            this.size = size;
+            this.mtime = mtime;
+            this.cube = cube;
+            this.failed = failed;
+        }
+
+        boolean is_current() {
+            return file.length() == size && file.lastModified() == mtime;
+        }
+    }
+
+    private final String name;
+    private final File root;
+    private final String prefix; // Prepended to file names to form selection keys; empty for a single root
+
+    // Loaded files by file name (filled concurrently by the loader pool)
+    private final Map<String, Loaded_File> loaded_files = new ConcurrentHashMap<>();
+
+    // Rollup of all loaded files of the shard, updated as files are added, replaced or removed; guarded by itself
+    private final Rollup_Cube cube = new Rollup_Cube();
+
+    // Copy of cube handed to readers; rebuilt only after a change
+    private volatile Rollup_Cube view;
+
+    // Stamp of the last change of the rollup, so merged views across shards and cached reports know when to
+    // rebuild; stamps are unique across all shards and only grow
+    private final AtomicLong version = new AtomicLong();
+
+    // Source of the change stamps
+    private static final AtomicLong change_stamps = new AtomicLong();
+
+    // Parser pool of this shard only
+    private final ExecutorService loader_pool;
+
+    public Input_Shard(String name, File root, String prefix, int threads) {
+        this.name = name;
+        this.root = root.getAbsoluteFile();
+        this.prefix = prefix;
+        AtomicInteger counter = new AtomicInteger();
+        this.loader_pool = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+            Thread thread = new Thread(task, "xml-loader-" + name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true); // An idle pool never keeps the app alive
+            return thread;
+        });
+    }
+
+    public String get_name() {
+        return name;
+    }
+
+    public File get_root() {
+        return root;
+    }
+
+    public String get_prefix() {
+        return prefix;
+    }
+
+    // Selection key of a file of this shard
+    public String key_of(File file) {
+        return prefix + file.getName();
+    }
+
+    // True when the file lies directly in this shard's root folder
+    public boolean contains(File file) {
+        File parent = file.getAbsoluteFile().getParentFile();
+        return parent != null && parent.toPath().normalize().equals(root.toPath().normalize());
+    }
+
+    // Input files (.xml, .xml.gz, .zip) in the root folder
+    public List<File> list_files() {
+        File[] files = root.listFiles((dir, file_name) -> XML_Parser.is_input_file(file_name));
+        return files != null ? Arrays.asList(files) : new ArrayList<>();
+    }
+
+    // Runs a parse task on this shard's pool
+    Future<?> submit(Runnable task) {
+        return loader_pool.submit(task);
+    }
+
+    void shutdown() {
+        loader_pool.shutdown();
+    }
+
+    // Forgets every loaded file
+    void clear() {
+        synchronized (cube) {
+            loaded_files.clear();
+            cube.clear();
+            view = null;
+            version.set(change_stamps.incrementAndGet());
+        }
+    }
+
+    // Registers a parsed file, computes its rollup cube and folds it into the shard rollup (replacing the
+    // previous version of the file, if any); the store itself is kept by Store_Cache. Files that were read
+    // are also handed to the rollup ledger, which writes them in the background
+    void put_file(File file, long size, long mtime, Transaction_Store store, boolean failed) {
+        if (!failed) Rollup_Ledger.record(file, size, mtime, store);
+        Loaded_File loaded = new Loaded_File(file, size, mtime, Rollup_Cube.of(store), failed);
+        synchronized (cube) {
+            Loaded_File previous = loaded_files.put(file.getName(), loaded);
+            if (previous != null) cube.subtract_all(previous.cube);
+            cube.add_all(loaded.cube);
+            view = null;
+            version.set(change_stamps.incrementAndGet());
+        }
+    }
+
+    // Drops a file that was deleted from disk
+    void remove_file(File file) {
+        synchronized (cube) {
+            Loaded_File removed = loaded_files.remove(file.getName());
+            if (removed != null) {
+                cube.subtract_all(removed.cube);
+                view = null;
+                version.set(change_stamps.incrementAndGet());
+            }
+        }
+    }
+
+    boolean has_file(String file_name) {
+        return loaded_files.containsKey(file_name);
+    }
+
+    // Selection keys of the loaded files
+    List<String> get_keys() {
+        List<String> keys = new ArrayList<>(loaded_files.size());
+        for (String file_name : loaded_files.keySet()) keys.add(prefix + file_name);
+        return keys;
+    }
+
+    // Transactions of one file (empty if unknown or unreadable), re-read first if it changed on disk
+    List<Transaction_Store> get_stores(String file_name) {
+        Loaded_File loaded = current(file_name);
+        return loaded != null ? Collections.singletonList(store_of(loaded)) : Collections.emptyList();
+    }
+
+    // Transactions of every file of the shard
+    List<Transaction_Store> get_all_stores() {
+        List<Transaction_Store> stores = new ArrayList<>(loaded_files.size());
+        for (String file_name : loaded_files.keySet()) {
+            Loaded_File loaded = current(file_name);
+            if (loaded != null) stores.add(store_of(loaded));
+        }
+        return stores;
+    }
+
+    // Rollup of one file, or null if the file is not loaded
+    Rollup_Cube get_cube(String file_name) {
+        Loaded_File loaded = current(file_name);
+        return loaded != null ? loaded.cube : null;
+    }
+
+    // Read-only copy of the shard rollup; copied once per change, not per request
+    Rollup_Cube get_all_files_cube() {
+        Rollup_Cube current_view = view;
+        if (current_view != null) return current_view;
+        synchronized (cube) {
+            if (view == null) view = Rollup_Cube.merge(Collections.singletonList(cube));
+            return view;
+        }
+    }
+
+    long get_version() {
+        return version.get();
+    }
+
+    Set<String> get_file_names() {
+        return loaded_files.keySet();
+    }
+
+    // Returns the entry of a file, re-reading the file first if it changed on disk since it was loaded. A read
+    // cut short by an interrupt (a cancelled report build) throws CancellationException and leaves the entry as is
+    private Loaded_File current(String file_name) {
+        Loaded_File loaded = loaded_files.get(file_name);
+        if (loaded == null || loaded.is_current()) return loaded;
+
+        long size = loaded.file.length();
+        long mtime = loaded.file.lastModified();
+        try {
+            put_file(loaded.file, size, mtime, XML_Parser.parse_file_or_throw(loaded.file), false);
+        } catch (Exception e) {
+            if (is_interrupt(e)) throw cancelled(e);
+            System.out.println("Error reading file: " + loaded.file.getName() + " (" + e + ")");
+            put_file(loaded.file, size, mtime, new Transaction_Store(0), true);
+        }
+        return loaded_files.get(file_name);
+    }
+
+    // Transactions of a loaded file, from the shared cache or re-read after eviction (interrupts as in current)
+    private static Transaction_Store store_of(Loaded_File loaded) {
+        if (loaded.failed) return new Transaction_Store(0);
+        try {
+            return XML_Parser.parse_file_or_throw(loaded.file);
+        } catch (Exception e) {
+            if (is_interrupt(e)) throw cancelled(e);
+            System.out.println("Error reading file: " + loaded.file.getName() + " (" + e + ")");
+            return new Transaction_Store(0);
+        }
+    }
+
+    // True when a read failed because its thread was interrupted rather than because of the file: an interrupt
+    // closes the FileChannel being read, which surfaces as ClosedByInterruptException
+    private static boolean is_interrupt(Exception e) {
+        return e instanceof ClosedByInterruptException || e instanceof InterruptedIOException
+                || e instanceof InterruptedException || Thread.currentThread().isInterrupted();
+    }
+
+    private static CancellationException cancelled(Exception cause) {
+        Thread.currentThread().interrupt(); // Keep the interrupt for the caller
+        CancellationException cancelled = new CancellationException("Read interrupted");
+        cancelled.initCause(cause);
+        return cancelled;
+    }
+}
@@ -0,0 +1,106 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+// Custom Flight Recorder events. Only touched through Metrics, and only when jdk.jfr exists (Java 11+),
+// so the app still runs on Java 8
+final class Jfr_Events {
+
+    private Jfr_Events() {
+    }
+
+    @Name("cardtx.FileLoaded")
+    @Label("XML File Loaded")
+    @Description("One XML file parsed or read from its snapshot")
+    @Category("Card Transactions")
+    static final class File_Loaded extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Records")
+        int records;
+
+        @Label("Bytes")
+        long bytes;
+
+        @Label("From Snapshot")
+        boolean from_snapshot;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("cardtx.ReportBuilt")
+    @Label("Report Built")
+    @Category("Card Transactions")
+    static final class Report_Built extends Event {
+        @Label("Grouping")
+        String grouping;
+
+        @Label("Rows")
+        int rows;
+    }
+
+    @Name("cardtx.ReportExported")
+    @Label("Report Exported")
+    @Category("Card Transactions")
+    static final class Report_Exported extends Event {
+        @Label("Format")
+        String format;
+
+        @Label("Rows")
+        int rows;
+
+        @Label("File")
+        String file;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    // Events are begun when an operation starts so their duration matches the measured time
+    static Object begin_file_loaded() {
+        File_Loaded event = new File_Loaded();
+        event.begin();
+        return event;
+    }
+
+    static void commit_file_loaded(Object begun, String file, int records, long bytes, boolean from_snapshot, boolean failed) {
+        File_Loaded event = (File_Loaded) begun;
+        event.file = file;
+        event.records = records;
+        event.bytes = bytes;
+        event.from_snapshot = from_snapshot;
+        event.failed = failed;
+        event.commit();
+    }
+
+    static Object begin_report_built() {
+        Report_Built event = new Report_Built();
+        event.begin();
+        return event;
+    }
+
+    static void commit_report_built(Object begun, String grouping, int rows) {
+        Report_Built event = (Report_Built) begun;
+        event.grouping = grouping;
+        event.rows = rows;
+        event.commit();
+    }
+
+    static Object begin_report_exported() {
+        Report_Exported event = new Report_Exported();
+        event.begin();
+        return event;
+    }
+
+    static void commit_report_exported(Object begun, String format, int rows, String file, boolean failed) {
+        Report_Exported event = (Report_Exported) begun;
+        event.format = format;
+        event.rows = rows;
+        event.file = file;
+        event.failed = failed;
+        event.commit();
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+// Lock-free latency histogram with power-of-two microsecond buckets (percentiles are accurate to a factor of 2)
+public class Latency_Histogram {
+
+    // Bucket i counts durations in [2^(i-1), 2^i) microseconds; bucket 0 counts durations under 1 microsecond
+    private static final int bucket_count = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(bucket_count);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total_nanos = new LongAdder();
+    private final AtomicLong max_nanos = new AtomicLong();
+
+    // Records one duration
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        long micros = nanos / 1000;
+        int bucket = Math.min(bucket_count - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        total_nanos.add(nanos);
+        max_nanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long get_count() {
+        return count.sum();
+    }
+
+    public long get_total_nanos() {
+        return total_nanos.sum();
+    }
+
+    public double get_mean_ms() {
+        long n = count.sum();
+        return n == 0 ? 0 : total_nanos.sum() / 1e6 / n;
+    }
+
+    public double get_max_ms() {
+        return max_nanos.get() / 1e6;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100), capped at the largest recorded duration
+    public double get_percentile_ms(double percentile) {
+        long n = 0;
+        long[] snapshot = new long[bucket_count];
+        for (int i = 0; i < bucket_count; i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) return 0;
+
+        long rank = (long) Math.ceil(percentile / 100.0 * n);
+        long seen = 0;
+        for (int i = 0; i < bucket_count; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                double upper_ms = (1L << i) / 1000.0;
+                return Math.min(upper_ms, get_max_ms());
+            }
+        }
+        return get_max_ms();
+    }
+
+    public void reset() {
+        for (int i = 0; i < bucket_count; i++) buckets.set(i, 0);
+        count.reset();
+        total_nanos.reset();
+        max_nanos.set(0);
+    }
+
+    // e.g. "12 x, mean 3.1 ms, p50 2.0 ms, p95 8.2 ms, max 9.7 ms"
+    public String describe() {
+        return String.format("%d x, mean %.1f ms, p50 %.1f ms, p95 %.1f ms, max %.1f ms",
+                get_count(), get_mean_ms(), get_percentile_ms(50), get_percentile_ms(95), get_max_ms());
+    }
+}
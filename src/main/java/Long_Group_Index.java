@@ -0,0 +1,85 @@
+import java.util.Arrays;
+// Open-addressing hash map from a primitive long key to a dense group number (0, 1, 2, ... in first-seen order),
+// so rows can be grouped by packed dictionary ids without creating a key object per row
+public class Long_Group_Index {
+
+    // Linear-probing table: keys and group number + 1 (0 marks an empty slot); the length is a power of two
+    private long[] slot_keys;
+    private int[] slot_groups;
+
+    // Key of every group, by group number
+    private long[] group_keys;
+    private int size;
+
+    // Creates an index sized for the expected number of distinct keys
+    public Long_Group_Index(int expected_keys) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected_keys * 2 - 1)) << 1;
+        slot_keys = new long[capacity];
+        slot_groups = new int[capacity];
+        group_keys = new long[Math.max(16, expected_keys)];
+    }
+
+    // Group number of a key, adding it as a new group when it was not seen before
+    public int group_of(long key) {
+        int mask = slot_keys.length - 1;
+        int slot = hash(key) & mask;
+        while (slot_groups[slot] != 0) {
+            if (slot_keys[slot] == key) return slot_groups[slot] - 1;
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == group_keys.length) group_keys = Arrays.copyOf(group_keys, size * 2);
+        group_keys[size] = key;
+        slot_keys[slot] = key;
+        slot_groups[slot] = ++size;
+        if (size * 2 > slot_keys.length) rehash(); // Keep the load factor at or below 1/2
+        return size - 1;
+    }
+
+    // Group number of a key, or -1 if it was never added
+    public int find(long key) {
+        int mask = slot_keys.length - 1;
+        int slot = hash(key) & mask;
+        while (slot_groups[slot] != 0) {
+            if (slot_keys[slot] == key) return slot_groups[slot] - 1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // Number of distinct keys
+    public int size() {
+        return size;
+    }
+
+    // Key of a group number
+    public long key_of(int group) {
+        return group_keys[group];
+    }
+
+    // Packs two non-negative ints (e.g. a location id and a terminal id) into one key
+    public static long pack(int high, int low) {
+        return (long) high << 32 | (low & 0xFFFFFFFFL);
+    }
+
+    // Doubles the table and re-inserts every key
+    private void rehash() {
+        long[] keys = new long[slot_keys.length * 2];
+        int[] groups = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int group = 0; group < size; group++) {
+            int slot = hash(group_keys[group]) & mask;
+            while (groups[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = group_keys[group];
+            groups[slot] = group + 1;
+        }
+        slot_keys = keys;
+        slot_groups = groups;
+    }
+
+    // Spreads the key bits (packed ids differ mostly in their low bits) before masking
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -1,9 +1,13 @@
-
 import javax.swing.*;
 
 public class Main {
     public static void main(String[] args) {
+        Metrics.register_mbean(); // cardtx:type=Metrics in JConsole / VisualVM
+        // --headless generates reports from the command line without opening any window
+        if (args.length > 0 && "--headless".equals(args[0])) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(Batch_Runner.run(args));
+        }
         SwingUtilities.invokeLater(() -> new Transaction_Viewer_UI().setVisible(true));
     }
 }
-
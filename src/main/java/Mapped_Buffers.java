@@ -0,0 +1,56 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+// Releases memory mappings as soon as a file has been read, instead of whenever the garbage collector gets to the
+// buffer. Windows refuses to replace, truncate or delete a file while any part of it is mapped, so every file the
+// app rewrites or lets the user replace is unmapped right after use. A buffer must not be touched once unmapped
+public class Mapped_Buffers {
+
+    // How a mapping is released on this JVM
+    private interface Unmapper {
+        void unmap(ByteBuffer buffer) throws Exception;
+    }
+
+    // null when the JVM offers no way to do it; mappings are then released by the garbage collector as before
+    private static final Unmapper unmapper = find_unmapper();
+
+    // Releases the mapping of a buffer returned by FileChannel.map (not of a slice or duplicate of it); null and
+    // heap buffers are ignored
+    public static void unmap(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || unmapper == null) return;
+        try {
+            unmapper.unmap(buffer);
+        } catch (Exception e) {
+            System.out.println("Could not release mapped buffer (" + e + ")");
+        }
+    }
+
+    // True when mappings can be released before garbage collection
+    public static boolean is_supported() {
+        return unmapper != null;
+    }
+
+    // Java 9 and later: Unsafe.invokeCleaner; Java 8: the buffer's own Cleaner
+    private static Unmapper find_unmapper() {
+        try {
+            Class<?> unsafe_class = Class.forName("sun.misc.Unsafe");
+            Method invoke_cleaner = unsafe_class.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafe_class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            return buffer -> invoke_cleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not Java 9+: try the Java 8 way below
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                Object buffer_cleaner = cleaner.invoke(buffer);
+                if (buffer_cleaner != null) clean.invoke(buffer_cleaner);
+            };
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+// Runtime metrics for loading, reporting and exporting: latency histograms and counters, published through JMX
+// (cardtx:type=Metrics) and as Flight Recorder events
+public class Metrics {
+
+    // Files slower than this are logged to the console as they finish
+    private static final long slow_file_ms = Long.getLong("metrics.slow_file_ms", 2000);
+
+    // Number of slowest files remembered
+    private static final int slowest_file_count = 10;
+
+    // Latencies
+    private static final Latency_Histogram file_load = new Latency_Histogram();
+    private static final Latency_Histogram file_parse = new Latency_Histogram(); // Only files that were really parsed
+    private static final Latency_Histogram load_batch = new Latency_Histogram();
+    private static final Latency_Histogram report_build = new Latency_Histogram();
+    private static final Latency_Histogram pdf_export = new Latency_Histogram();
+    private static final Latency_Histogram excel_export = new Latency_Histogram();
+    private static final Latency_Histogram delimited_export = new Latency_Histogram(); // CSV and TSV
+
+    // Counters
+    private static final LongAdder files_from_snapshot = new LongAdder();
+    private static final LongAdder file_failures = new LongAdder();
+    private static final LongAdder records_loaded = new LongAdder();
+    private static final LongAdder records_parsed = new LongAdder();
+    private static final LongAdder bytes_loaded = new LongAdder();
+    private static final LongAdder export_failures = new LongAdder();
+
+    // Slowest files so far, slowest first; guarded by the list itself
+    private static final List<String[]> slowest_files = new ArrayList<>(); // {millis, name, records}
+
+    // Flight Recorder exists from Java 11 on; without it only the counters are kept
+    private static final boolean jfr_available = class_exists("jdk.jfr.Event");
+
+    // Start of a timed operation: the start time and, when Flight Recorder is available, the begun event
+    public static final class Span {
+        final long start = System.nanoTime();
+        final Object event;
+
+        Span(Object event) {
+            this.event = event;
+        }
+
+        long elapsed_nanos() {
+            return System.nanoTime() - start;
+        }
+    }
+
+    // Called before a file is read (from its snapshot or by parsing)
+    public static Span begin_file() {
+        return new Span(jfr_available ? Jfr_Events.begin_file_loaded() : null);
+    }
+
+    // Called after a file was read
+    public static void end_file(Span span, File file, int records, boolean from_snapshot) {
+        long nanos = span.elapsed_nanos();
+        file_load.record(nanos);
+        records_loaded.add(records);
+        bytes_loaded.add(file.length());
+        if (from_snapshot) {
+            files_from_snapshot.increment();
+        } else {
+            file_parse.record(nanos);
+            records_parsed.add(records);
+        }
+        note_slow_file(file.getName(), nanos, records);
+        if (span.event != null) Jfr_Events.commit_file_loaded(span.event, file.getName(), records, file.length(), from_snapshot, false);
+    }
+
+    // Called when a file could not be read
+    public static void file_failed(Span span, File file) {
+        file_failures.increment();
+        if (span.event != null) Jfr_Events.commit_file_loaded(span.event, file.getName(), 0, file.length(), false, true);
+    }
+
+    // Duration of loading a whole set of files (Program_Manager.load_files / reload_files)
+    public static void record_load_batch(long nanos) {
+        load_batch.record(nanos);
+    }
+
+    public static Span begin_report() {
+        return new Span(jfr_available ? Jfr_Events.begin_report_built() : null);
+    }
+
+    public static void end_report(Span span, String grouping, int rows) {
+        report_build.record(span.elapsed_nanos());
+        if (span.event != null) Jfr_Events.commit_report_built(span.event, grouping, rows);
+    }
+
+    public static Span begin_export() {
+        return new Span(jfr_available ? Jfr_Events.begin_report_exported() : null);
+    }
+
+    // Called after an export finished or failed; format is "pdf", "xlsx", "csv" or "tsv"
+    public static void end_export(Span span, String format, int rows, File file, boolean failed) {
+        if (failed) {
+            export_failures.increment();
+        } else {
+            ("pdf".equals(format) ? pdf_export : "xlsx".equals(format) ? excel_export : delimited_export).record(span.elapsed_nanos());
+        }
+        if (span.event != null) Jfr_Events.commit_report_exported(span.event, format, rows, file.getName(), failed);
+    }
+
+    // Records per second of actual XML parsing (snapshot loads excluded)
+    public static double get_records_per_second() {
+        long nanos = file_parse.get_total_nanos();
+        return nanos == 0 ? 0 : records_parsed.sum() * 1e9 / nanos;
+    }
+
+    // Share of store lookups served from Store_Cache (0-1)
+    public static double get_cache_hit_rate() {
+        long hits = Store_Cache.get_hits();
+        long total = hits + Store_Cache.get_misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public static Latency_Histogram get_file_load() {
+        return file_load;
+    }
+
+    public static Latency_Histogram get_report_build() {
+        return report_build;
+    }
+
+    public static Latency_Histogram get_pdf_export() {
+        return pdf_export;
+    }
+
+    public static Latency_Histogram get_excel_export() {
+        return excel_export;
+    }
+
+    public static Latency_Histogram get_delimited_export() {
+        return delimited_export;
+    }
+
+    public static long get_records_loaded() {
+        return records_loaded.sum();
+    }
+
+    public static long get_file_failures() {
+        return file_failures.sum();
+    }
+
+    // Slowest files as "1234 ms  name (records records)", slowest first
+    public static String[] get_slowest_files() {
+        synchronized (slowest_files) {
+            String[] lines = new String[slowest_files.size()];
+            for (int i = 0; i < lines.length; i++) {
+                String[] entry = slowest_files.get(i);
+                lines[i] = entry[0] + " ms  " + entry[1] + " (" + entry[2] + " records)";
+            }
+            return lines;
+        }
+    }
+
+    // One line per histogram, for JMX and logs
+    public static String[] describe_histograms() {
+        return new String[]{
+                "file load: " + file_load.describe(),
+                "file parse: " + file_parse.describe(),
+                "load batch: " + load_batch.describe(),
+                "report build: " + report_build.describe(),
+                "pdf export: " + pdf_export.describe(),
+                "excel export: " + excel_export.describe(),
+                "csv/tsv export: " + delimited_export.describe()
+        };
+    }
+
+    public static void reset() {
+        for (Latency_Histogram histogram : new Latency_Histogram[]{file_load, file_parse, load_batch, report_build, pdf_export, excel_export, delimited_export}) {
+            histogram.reset();
+        }
+        for (LongAdder counter : new LongAdder[]{files_from_snapshot, file_failures, records_loaded, records_parsed, bytes_loaded, export_failures}) {
+            counter.reset();
+        }
+        synchronized (slowest_files) {
+            slowest_files.clear();
+        }
+        Store_Cache.reset_counters();
+    }
+
+    // Registers the MBean once; failures (e.g. in restricted environments) are only logged
+    public static synchronized void register_mbean() {
+        try {
+            ObjectName name = new ObjectName("cardtx:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), name);
+            }
+        } catch (Exception e) {
+            System.out.println("Could not register metrics MBean: " + e);
+        }
+    }
+
+    private static void note_slow_file(String name, long nanos, int records) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        if (millis >= slow_file_ms) {
+            System.out.println("Slow file: " + name + " took " + millis + " ms (" + records + " records)");
+        }
+
+        synchronized (slowest_files) {
+            int position = 0;
+            while (position < slowest_files.size() && Long.parseLong(slowest_files.get(position)[0]) >= millis) position++;
+            if (position >= slowest_file_count) return;
+            slowest_files.add(position, new String[]{Long.toString(millis), name, Integer.toString(records)});
+            if (slowest_files.size() > slowest_file_count) slowest_files.remove(slowest_file_count);
+        }
+    }
+
+    private static boolean class_exists(String name) {
+        try {
+            Class.forName(name, false, Metrics.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    // JMX view of the metrics
+    private static final class Bean implements Metrics_MXBean {
+        @Override
+        public long getFilesLoaded() {
+            return file_load.get_count();
+        }
+
+        @Override
+        public long getFilesFromSnapshot() {
+            return files_from_snapshot.sum();
+        }
+
+        @Override
+        public long getFileFailures() {
+            return file_failures.sum();
+        }
+
+        @Override
+        public long getRecordsLoaded() {
+            return records_loaded.sum();
+        }
+
+        @Override
+        public double getRecordsPerSecond() {
+            return get_records_per_second();
+        }
+
+        @Override
+        public double getFileLoadMillisP50() {
+            return file_load.get_percentile_ms(50);
+        }
+
+        @Override
+        public double getFileLoadMillisP95() {
+            return file_load.get_percentile_ms(95);
+        }
+
+        @Override
+        public double getFileLoadMillisMax() {
+            return file_load.get_max_ms();
+        }
+
+        @Override
+        public String[] getSlowestFiles() {
+            return get_slowest_files();
+        }
+
+        @Override
+        public long getCacheHits() {
+            return Store_Cache.get_hits();
+        }
+
+        @Override
+        public long getCacheMisses() {
+            return Store_Cache.get_misses();
+        }
+
+        @Override
+        public long getCacheEvictions() {
+            return Store_Cache.get_evictions();
+        }
+
+        @Override
+        public long getCacheInvalidations() {
+            return Store_Cache.get_invalidations();
+        }
+
+        @Override
+        public double getCacheHitRate() {
+            return get_cache_hit_rate();
+        }
+
+        @Override
+        public long getCachedRecords() {
+            return Store_Cache.get_cached_records();
+        }
+
+        @Override
+        public long getReportsBuilt() {
+            return report_build.get_count();
+        }
+
+        @Override
+        public double getReportBuildMillisP95() {
+            return report_build.get_percentile_ms(95);
+        }
+
+        @Override
+        public long getExports() {
+            return pdf_export.get_count() + excel_export.get_count() + delimited_export.get_count();
+        }
+
+        @Override
+        public long getExportFailures() {
+            return export_failures.sum();
+        }
+
+        @Override
+        public double getPdfExportMillisP95() {
+            return pdf_export.get_percentile_ms(95);
+        }
+
+        @Override
+        public double getExcelExportMillisP95() {
+            return excel_export.get_percentile_ms(95);
+        }
+
+        @Override
+        public double getDelimitedExportMillisP95() {
+            return delimited_export.get_percentile_ms(95);
+        }
+
+        @Override
+        public String[] getHistograms() {
+            return describe_histograms();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+// Management interface of the runtime metrics (registered as cardtx:type=Metrics, visible in JConsole/VisualVM).
+// JMX derives attribute names from getXxx methods, so this interface uses Java bean names instead of snake_case
+public interface Metrics_MXBean {
+
+    long getFilesLoaded();
+
+    long getFilesFromSnapshot();
+
+    long getFileFailures();
+
+    long getRecordsLoaded();
+
+    double getRecordsPerSecond();
+
+    double getFileLoadMillisP50();
+
+    double getFileLoadMillisP95();
+
+    double getFileLoadMillisMax();
+
+    String[] getSlowestFiles();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheEvictions();
+
+    long getCacheInvalidations();
+
+    double getCacheHitRate();
+
+    long getCachedRecords();
+
+    long getReportsBuilt();
+
+    double getReportBuildMillisP95();
+
+    long getExports();
+
+    long getExportFailures();
+
+    double getPdfExportMillisP95();
+
+    double getExcelExportMillisP95();
+
+    double getDelimitedExportMillisP95();
+
+    String[] getHistograms();
+
+    void reset();
+}
@@ -0,0 +1,769 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+// Fast path for the NAXML layout XML_Parser reads (Account > Batch > BatchDate / TerminalId / BatchNumber,
+// CardType@identType/quantity/grossAmount/netAmount > ChargeAmt). The file is memory-mapped and scanned as bytes,
+// split at <Batch boundaries, and the pieces are parsed in parallel on the fork-join pool. Anything outside that
+// layout (comments, CDATA, entities, namespaces, nested batches, other encodings) makes the scanner give up, and
+// the caller falls back to the general parser. It is not a validating parser: the input is assumed to be well-formed
+public class Naxml_Scanner {
+
+    // Files are split into pieces of at least this size, at most one piece per core
+    private static final long min_chunk_bytes = 4L * 1024 * 1024;
+
+    // Every piece is mapped on its own and has to stay below the 2 GB mapping limit
+    private static final long max_chunk_bytes = 1L << 30;
+
+    // Element names the scanner reacts to
+    private static final byte[] batch_tag = ascii("Batch");
+    private static final byte[] account_tag = ascii("Account");
+    private static final byte[] batch_date_tag = ascii("BatchDate");
+    private static final byte[] terminal_tag = ascii("TerminalId");
+    private static final byte[] batch_number_tag = ascii("BatchNumber");
+    private static final byte[] card_type_tag = ascii("CardType");
+    private static final byte[] charge_tag = ascii("ChargeAmt");
+
+    // Thrown while scanning when the file departs from the expected layout; the caller then uses the general parser
+    @SuppressWarnings("serial") // Never serialized
+    private static final class Unsupported_Layout extends Exception {
+        Unsupported_Layout(String reason) {
+            super(reason, null, false, false); // No stack trace: this is an expected outcome, not an error
+        }
+    }
+
+    // Parses a file into a store, or returns null if the file does not have the layout this scanner handles
+    public static Transaction_Store parse(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (!has_supported_encoding(channel)) return null;
+
+            long[] bounds = split(channel, size);
+            Chunk[] chunks;
+            if (bounds.length == 2) {
+                chunks = new Chunk[]{scan_chunk(channel, 0, bounds[0], bounds[1])};
+            } else {
+                chunks = ForkJoinPool.commonPool().invoke(new Scan_Task(channel, bounds, 0, bounds.length - 1));
+            }
+
+            for (Chunk chunk : chunks) {
+                if (chunk.unsupported != null) return null;
+            }
+            try {
+                check_nesting(chunks);
+            } catch (Unsupported_Layout e) {
+                return null;
+            }
+            return merge(chunks);
+        }
+    }
+
+    // Splits the file into chunk bounds (first 0, last size); every inner bound is the '<' of a Batch start tag
+    private static long[] split(FileChannel channel, long size) throws IOException {
+        int parallelism = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+        long chunk_count = Math.max(Math.min(parallelism, size / min_chunk_bytes), (size + max_chunk_bytes - 1) / max_chunk_bytes);
+        if (chunk_count <= 1) return new long[]{0, size};
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        for (long i = 1; i < chunk_count; i++) {
+            long bound = next_batch_start(channel, Math.max(size * i / chunk_count, bounds.get(bounds.size() - 1) + 1), size);
+            if (bound < 0) break;
+            if (bound > bounds.get(bounds.size() - 1)) bounds.add(bound);
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+        return result;
+    }
+
+    // Position of the first "<Batch" start tag at or after from, or -1
+    private static long next_batch_start(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(64 * 1024);
+        long position = from;
+        while (position < size) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0) return -1;
+            int limit = read;
+            for (int i = 0; i < limit; i++) {
+                if (window.get(i) != '<') continue;
+                if (i + batch_tag.length + 1 >= limit) {
+                    if (position + limit >= size) return -1;
+                    limit = i; // Tag cut off by the window: read again from here
+                    break;
+                }
+                if (matches(window, i + 1, batch_tag) && ends_name(window.get(i + 1 + batch_tag.length))) return position + i;
+            }
+            position += Math.max(1, limit);
+        }
+        return -1;
+    }
+
+    // Only UTF-8 (or plain ASCII) documents are scanned; everything else goes to the general parser
+    private static boolean has_supported_encoding(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(256);
+        channel.read(head, 0);
+        head.flip();
+        int length = head.limit();
+        if (length >= 2 && ((head.get(0) & 0xFF) == 0xFE || (head.get(0) & 0xFF) == 0xFF)) return false; // UTF-16 BOM
+        if (length >= 1 && head.get(0) == 0) return false;
+
+        String prolog = StandardCharsets.ISO_8859_1.decode(head).toString();
+        if (prolog.startsWith("\u00ef\u00bb\u00bf")) prolog = prolog.substring(3); // UTF-8 BOM
+        if (!prolog.startsWith("<?xml")) return true; // UTF-8 by default
+        int end = prolog.indexOf("?>");
+        String declaration = end >= 0 ? prolog.substring(0, end) : prolog;
+        int encoding = declaration.indexOf("encoding");
+        if (encoding < 0) return true;
+        String value = declaration.substring(encoding + "encoding".length()).replaceAll("(?s)^\\s*=\\s*['\"]([^'\"]*).*$", "$1").trim();
+        return value.equalsIgnoreCase("UTF-8") || value.equalsIgnoreCase("UTF8") || value.equalsIgnoreCase("US-ASCII") || value.equalsIgnoreCase("ASCII");
+    }
+
+    // Scans chunks [first, last) of the bounds, splitting the range in halves
+    @SuppressWarnings("serial") // Never serialized
+    private static final class Scan_Task extends RecursiveTask<Chunk[]> {
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int first;
+        private final int last;
+
+        Scan_Task(FileChannel channel, long[] bounds, int first, int last) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected Chunk[] compute() {
+            if (last - first == 1) {
+                try {
+                    return new Chunk[]{scan_chunk(channel, first, bounds[first], bounds[last])};
+                } catch (IOException e) {
+                    Chunk failed = new Chunk();
+                    failed.unsupported = "Could not map chunk: " + e;
+                    return new Chunk[]{failed};
+                }
+            }
+            int middle = (first + last) >>> 1;
+            Scan_Task left = new Scan_Task(channel, bounds, first, middle);
+            Scan_Task right = new Scan_Task(channel, bounds, middle, last);
+            right.fork();
+            Chunk[] left_chunks = left.compute();
+            Chunk[] right_chunks = right.join();
+
+            Chunk[] all = Arrays.copyOf(left_chunks, left_chunks.length + right_chunks.length);
+            System.arraycopy(right_chunks, 0, all, left_chunks.length, right_chunks.length);
+            return all;
+        }
+    }
+
+    // Maps one chunk and scans it; layout problems are recorded in the chunk instead of being thrown. The chunk
+    // copies every value it keeps, so the mapping is released when the scan ends (a mapped XML file could not be
+    // replaced on Windows until the garbage collector got to it)
+    private static Chunk scan_chunk(FileChannel channel, int index, long start, long end) throws IOException {
+        Chunk chunk = new Chunk();
+        if (end - start > Integer.MAX_VALUE) {
+            chunk.unsupported = "Chunk too large";
+            return chunk;
+        }
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        try {
+            new Chunk_Scanner(buffer, chunk, index == 0).scan();
+        } catch (Unsupported_Layout | NumberFormatException e) {
+            chunk.unsupported = e.getMessage();
+        } finally {
+            Mapped_Buffers.unmap(buffer);
+        }
+        return chunk;
+    }
+
+    // The chunks together must form one complete document: a root element that is closed at the very end of the
+    // file, with nothing opened after it. A truncated file (cut after some batch) would otherwise be read as if it
+    // were complete, while the general parser reports it as broken
+    private static void check_nesting(Chunk[] chunks) throws Unsupported_Layout {
+        if (!chunks[0].has_root) throw new Unsupported_Layout("No root element");
+        int depth = 0;
+        for (int i = 0; i < chunks.length; i++) {
+            Chunk chunk = chunks[i];
+            boolean last = i == chunks.length - 1;
+            if (chunk.min_depth != Integer.MAX_VALUE) {
+                int lowest = depth + chunk.min_depth;
+                if (lowest < 0 || lowest == 0 && (!last || chunk.opened_at_min_depth)) {
+                    throw new Unsupported_Layout("Content after the root element");
+                }
+            }
+            depth += chunk.depth;
+        }
+        if (depth != 0) throw new Unsupported_Layout("Root element not closed");
+    }
+
+    // Rows of one chunk in primitive columns with chunk-local dictionaries. Rows before the chunk's first Account
+    // tag belong to the Account left open by earlier chunks; their location id is -1 until the chunks are merged
+    private static final class Chunk {
+        final String_Dictionary dates = new String_Dictionary();
+        final String_Dictionary card_types = new String_Dictionary();
+        final String_Dictionary locations = new String_Dictionary();
+        final String_Dictionary terminals = new String_Dictionary();
+        final String_Dictionary batch_numbers = new String_Dictionary();
+
+        int[] date_ids = new int[256];
+        int[] card_type_ids = new int[256];
+        int[] location_ids = new int[256];
+        int[] terminal_ids = new int[256];
+        int[] batch_number_ids = new int[256];
+        int[] quantities = new int[256];
+        long[] gross_cents = new long[256];
+        long[] net_cents = new long[256];
+        long[] fee_cents = new long[256];
+        int size;
+
+        // Location open at the end of the chunk; null if the chunk has no Account tag at all
+        String end_location;
+
+        // Why the chunk could not be scanned, or null
+        String unsupported;
+
+        // Element nesting relative to the start of the chunk: the depth at its end, the lowest depth an end tag
+        // left it at (below zero when it closes elements opened by earlier chunks; MAX_VALUE without end tags), and
+        // whether an element was opened again at that depth. has_root is set when the first chunk has an element
+        int depth;
+        int min_depth = Integer.MAX_VALUE;
+        boolean opened_at_min_depth;
+        boolean has_root;
+
+        void add(String date, String card_type, String location, String terminal, String batch_number,
+                 int quantity, long gross, long net, long fee) {
+            if (size == quantities.length) grow();
+            date_ids[size] = dates.id_of(date);
+            card_type_ids[size] = card_types.id_of(card_type);
+            location_ids[size] = location != null ? locations.id_of(location) : -1;
+            terminal_ids[size] = terminals.id_of(terminal);
+            batch_number_ids[size] = batch_numbers.id_of(batch_number);
+            quantities[size] = quantity;
+            gross_cents[size] = gross;
+            net_cents[size] = net;
+            fee_cents[size] = fee;
+            size++;
+        }
+
+        private void grow() {
+            int capacity = quantities.length * 2;
+            date_ids = Arrays.copyOf(date_ids, capacity);
+            card_type_ids = Arrays.copyOf(card_type_ids, capacity);
+            location_ids = Arrays.copyOf(location_ids, capacity);
+            terminal_ids = Arrays.copyOf(terminal_ids, capacity);
+            batch_number_ids = Arrays.copyOf(batch_number_ids, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            gross_cents = Arrays.copyOf(gross_cents, capacity);
+            net_cents = Arrays.copyOf(net_cents, capacity);
+            fee_cents = Arrays.copyOf(fee_cents, capacity);
+        }
+    }
+
+    // Concatenates the chunks in file order, remapping chunk-local dictionary ids. Values get their ids in order
+    // of first appearance, so the result is identical to a sequential parse
+    private static Transaction_Store merge(Chunk[] chunks) {
+        int rows = 0;
+        for (Chunk chunk : chunks) rows += chunk.size;
+
+        String_Dictionary dates = new String_Dictionary();
+        String_Dictionary card_types = new String_Dictionary();
+        String_Dictionary locations = new String_Dictionary();
+        String_Dictionary terminals = new String_Dictionary();
+        String_Dictionary batch_numbers = new String_Dictionary();
+        int[] date_ids = new int[rows];
+        int[] card_type_ids = new int[rows];
+        int[] location_ids = new int[rows];
+        int[] terminal_ids = new int[rows];
+        int[] batch_number_ids = new int[rows];
+        long[] quantities = new long[rows];
+        long[] gross_cents = new long[rows];
+        long[] net_cents = new long[rows];
+        long[] fee_cents = new long[rows];
+
+        String location = "";
+        int offset = 0;
+        for (Chunk chunk : chunks) {
+            // Inherited rows come before any row of the chunk's own Accounts, so their id is assigned first
+            int inherited = chunk.size > 0 && chunk.location_ids[0] < 0 ? locations.id_of(location) : -1;
+            int[] date_map = remap(chunk.dates, dates);
+            int[] card_type_map = remap(chunk.card_types, card_types);
+            int[] location_map = remap(chunk.locations, locations);
+            int[] terminal_map = remap(chunk.terminals, terminals);
+            int[] batch_number_map = remap(chunk.batch_numbers, batch_numbers);
+
+            for (int row = 0; row < chunk.size; row++) {
+                int target = offset + row;
+                date_ids[target] = date_map[chunk.date_ids[row]];
+                card_type_ids[target] = card_type_map[chunk.card_type_ids[row]];
+                location_ids[target] = chunk.location_ids[row] < 0 ? inherited : location_map[chunk.location_ids[row]];
+                terminal_ids[target] = terminal_map[chunk.terminal_ids[row]];
+                batch_number_ids[target] = batch_number_map[chunk.batch_number_ids[row]];
+                quantities[target] = chunk.quantities[row];
+            }
+            System.arraycopy(chunk.gross_cents, 0, gross_cents, offset, chunk.size);
+            System.arraycopy(chunk.net_cents, 0, net_cents, offset, chunk.size);
+            System.arraycopy(chunk.fee_cents, 0, fee_cents, offset, chunk.size);
+
+            offset += chunk.size;
+            if (chunk.end_location != null) location = chunk.end_location;
+        }
+
+        return Transaction_Store.from_columns(values_of(dates), values_of(card_types), values_of(locations),
+                values_of(terminals), values_of(batch_numbers), date_ids, card_type_ids, location_ids, terminal_ids,
+                batch_number_ids, quantities, gross_cents, net_cents, fee_cents);
+    }
+
+    // Id in the merged dictionary of every chunk-local id
+    private static int[] remap(String_Dictionary local, String_Dictionary merged) {
+        int[] map = new int[local.size()];
+        for (int id = 0; id < map.length; id++) map[id] = merged.id_of(local.value_of(id));
+        return map;
+    }
+
+    private static List<String> values_of(String_Dictionary dictionary) {
+        List<String> values = new ArrayList<>(dictionary.size());
+        for (int id = 0; id < dictionary.size(); id++) values.add(dictionary.value_of(id));
+        return values;
+    }
+
+    // Byte-level port of XML_Parser.read_batches for one chunk: walks the tags in order and keeps the same state
+    private static final class Chunk_Scanner {
+        private final ByteBuffer buffer;
+        private final int limit;
+        private final Chunk chunk;
+        private final boolean first_chunk;
+        private final Byte_Chars chars;
+        private final String[] string_cache_values = new String[256];
+        private final byte[][] string_cache_bytes = new byte[256][];
+
+        // Parser state, as in read_batches
+        private String location; // null until the chunk sees an Account tag (inherited from earlier chunks)
+        private String batch_date;
+        private String terminal;
+        private String batch_number;
+        private boolean in_card;
+        private int batch_depth;
+        private boolean seen_element;
+
+        // CardType values of the current batch
+        private String[] card_types = new String[16];
+        private int[] quantities = new int[16];
+        private long[] gross = new long[16];
+        private long[] net = new long[16];
+        private long[] fees = new long[16];
+        private boolean[] has_fee = new boolean[16];
+        private int cards;
+
+        // Attribute value bounds of the current start tag, for the attributes the scanner reads
+        private int ident_start, ident_end, quantity_start, quantity_end, gross_start, gross_end, net_start, net_end;
+
+        Chunk_Scanner(ByteBuffer buffer, Chunk chunk, boolean first_chunk) {
+            this.buffer = buffer;
+            this.limit = buffer.limit();
+            this.chunk = chunk;
+            this.first_chunk = first_chunk;
+            this.chars = new Byte_Chars(buffer);
+        }
+
+        void scan() throws Unsupported_Layout {
+            int position = 0;
+            while (true) {
+                int open = index_of((byte) '<', position);
+                if (open < 0) break;
+                if (open + 1 >= limit) throw new Unsupported_Layout("Truncated tag");
+                byte next = buffer.get(open + 1);
+
+                if (next == '?') {
+                    if (!first_chunk || seen_element) throw new Unsupported_Layout("Processing instruction");
+                    position = index_of_pair((byte) '?', (byte) '>', open + 2) + 2;
+                } else if (next == '!') {
+                    throw new Unsupported_Layout("Comment, CDATA or DOCTYPE");
+                } else if (next == '/') {
+                    int name_end = name_end(open + 2);
+                    int close = skip_whitespace(name_end);
+                    if (close >= limit || buffer.get(close) != '>') throw new Unsupported_Layout("Malformed end tag");
+                    end_element(open + 2, name_end);
+                    close_element();
+                    position = close + 1;
+                } else {
+                    seen_element = true;
+                    position = start_element(open + 1);
+                }
+            }
+
+            if (batch_depth != 0) throw new Unsupported_Layout("Batch crosses a chunk boundary");
+            chunk.end_location = location;
+            chunk.has_root = first_chunk && seen_element;
+        }
+
+        private void open_element() {
+            if (chunk.depth == chunk.min_depth) chunk.opened_at_min_depth = true;
+            chunk.depth++;
+        }
+
+        private void close_element() {
+            chunk.depth--;
+            if (chunk.depth < chunk.min_depth) {
+                chunk.min_depth = chunk.depth;
+                chunk.opened_at_min_depth = false;
+            }
+        }
+
+        // Closes an element whose end tag start_element read along with its text; returns the position after it
+        private int closed(int position) {
+            close_element();
+            return position;
+        }
+
+        // Handles a start tag whose name begins at name_start; returns the position after the tag (or after the
+        // element's text, for elements whose text is read)
+        private int start_element(int name_start) throws Unsupported_Layout {
+            int name_end = name_end(name_start);
+            boolean card = batch_depth > 0 && is(name_start, name_end, card_type_tag);
+            boolean account = batch_depth == 0 && is(name_start, name_end, account_tag);
+            int tag_end = read_attributes(name_end, card, account);
+            boolean empty = buffer.get(tag_end - 1) == '/';
+            int after = tag_end + 1;
+            open_element();
+            if (empty) close_element();
+
+            if (is(name_start, name_end, batch_tag)) {
+                if (batch_depth++ == 0) {
+                    batch_date = null;
+                    terminal = null;
+                    batch_number = null;
+                    cards = 0;
+                } else {
+                    throw new Unsupported_Layout("Nested batch");
+                }
+                if (empty) end_batch();
+            } else if (account) {
+                location = ident_start >= 0 ? string(ident_start, ident_end) : "";
+                if (empty) location = "";
+            } else if (batch_depth > 0) {
+                if (is(name_start, name_end, batch_date_tag)) {
+                    int text_end = element_text_end(after, empty, name_start, name_end);
+                    String text = empty ? "" : string(after, text_end);
+                    if (batch_date == null) batch_date = text;
+                    return empty ? after : closed(close_tag_end(text_end));
+                } else if (is(name_start, name_end, terminal_tag)) {
+                    int text_end = element_text_end(after, empty, name_start, name_end);
+                    String text = empty ? "" : string(after, text_end).trim();
+                    if (terminal == null) terminal = text;
+                    return empty ? after : closed(close_tag_end(text_end));
+                } else if (is(name_start, name_end, batch_number_tag)) {
+                    int text_end = element_text_end(after, empty, name_start, name_end);
+                    String text = empty ? "" : string(after, text_end).trim();
+                    if (batch_number == null) batch_number = text;
+                    return empty ? after : closed(close_tag_end(text_end));
+                } else if (card) {
+                    add_card();
+                    in_card = !empty;
+                } else if (in_card && is(name_start, name_end, charge_tag)) {
+                    if (empty) throw new Unsupported_Layout("Empty amount");
+                    int text_end = element_text_end(after, false, name_start, name_end);
+                    long fee = Fixed_Point.parse_cents(chars.at(after, text_end - after), 0, text_end - after);
+                    if (!has_fee[cards - 1]) {
+                        fees[cards - 1] = fee;
+                        has_fee[cards - 1] = true;
+                    }
+                    return closed(close_tag_end(text_end));
+                }
+            }
+            return after;
+        }
+
+        private void end_element(int name_start, int name_end) throws Unsupported_Layout {
+            if (is(name_start, name_end, card_type_tag)) {
+                in_card = false;
+            } else if (is(name_start, name_end, batch_tag)) {
+                if (batch_depth == 0) throw new Unsupported_Layout("Unbalanced batch");
+                end_batch();
+            } else if (batch_depth == 0 && is(name_start, name_end, account_tag)) {
+                location = "";
+            }
+        }
+
+        // Appends the CardTypes of the finished batch; a card type without ChargeAmt fails the file in the general
+        // parser, so the scanner leaves it to that parser to report
+        private void end_batch() throws Unsupported_Layout {
+            batch_depth--;
+            for (int i = 0; i < cards; i++) {
+                if (!has_fee[i]) throw new Unsupported_Layout("Missing ChargeAmt");
+            }
+            String date = batch_date != null ? batch_date : "";
+            String terminal_value = terminal != null ? terminal : "";
+            String batch_number_value = batch_number != null ? batch_number : "";
+            for (int i = 0; i < cards; i++) {
+                chunk.add(date, card_types[i], location, terminal_value, batch_number_value, quantities[i], gross[i], net[i], fees[i]);
+            }
+            Arrays.fill(card_types, 0, cards, null);
+            cards = 0;
+        }
+
+        // Records a CardType from the attribute bounds found by read_attributes (missing attributes read as "")
+        private void add_card() {
+            if (cards == quantities.length) {
+                int capacity = cards * 2;
+                card_types = Arrays.copyOf(card_types, capacity);
+                quantities = Arrays.copyOf(quantities, capacity);
+                gross = Arrays.copyOf(gross, capacity);
+                net = Arrays.copyOf(net, capacity);
+                fees = Arrays.copyOf(fees, capacity);
+                has_fee = Arrays.copyOf(has_fee, capacity);
+            }
+            card_types[cards] = ident_start >= 0 ? string(ident_start, ident_end) : "";
+            quantities[cards] = Fixed_Point.parse_int(chars.at(quantity_start, quantity_end - quantity_start), 0, Math.max(0, quantity_end - quantity_start));
+            gross[cards] = Fixed_Point.parse_cents(chars.at(gross_start, gross_end - gross_start), 0, Math.max(0, gross_end - gross_start));
+            net[cards] = Fixed_Point.parse_cents(chars.at(net_start, net_end - net_start), 0, Math.max(0, net_end - net_start));
+            has_fee[cards] = false;
+            cards++;
+        }
+
+        // Walks the attributes of a start tag up to its '>' (returned); remembers the values the scanner needs
+        private int read_attributes(int position, boolean card, boolean account) throws Unsupported_Layout {
+            ident_start = ident_end = quantity_start = quantity_end = gross_start = gross_end = net_start = net_end = -1;
+            while (true) {
+                position = skip_whitespace(position);
+                if (position >= limit) throw new Unsupported_Layout("Truncated tag");
+                byte b = buffer.get(position);
+                if (b == '>') return position;
+                if (b == '/') {
+                    if (position + 1 < limit && buffer.get(position + 1) == '>') return position + 1;
+                    throw new Unsupported_Layout("Malformed tag");
+                }
+
+                int attribute_start = position;
+                int attribute_end = name_end(position);
+                position = skip_whitespace(attribute_end);
+                if (position >= limit || buffer.get(position) != '=') throw new Unsupported_Layout("Malformed attribute");
+                position = skip_whitespace(position + 1);
+                if (position >= limit) throw new Unsupported_Layout("Truncated tag");
+                byte quote = buffer.get(position);
+                if (quote != '"' && quote != '\'') throw new Unsupported_Layout("Unquoted attribute");
+                int value_start = position + 1;
+                int value_end = value_start;
+                while (value_end < limit && buffer.get(value_end) != quote) {
+                    if (buffer.get(value_end) == '<') throw new Unsupported_Layout("'<' in attribute value");
+                    value_end++;
+                }
+                if (value_end >= limit) throw new Unsupported_Layout("Truncated attribute");
+                position = value_end + 1;
+
+                if (!card && !account) continue;
+                if (is(attribute_start, attribute_end, "identType") && card || is(attribute_start, attribute_end, "ident") && account) {
+                    if (ident_start < 0) {
+                        check_plain(value_start, value_end, true);
+                        ident_start = value_start;
+                        ident_end = value_end;
+                    }
+                } else if (card && is(attribute_start, attribute_end, "quantity") && quantity_start < 0) {
+                    quantity_start = value_start;
+                    quantity_end = value_end;
+                } else if (card && is(attribute_start, attribute_end, "grossAmount") && gross_start < 0) {
+                    gross_start = value_start;
+                    gross_end = value_end;
+                } else if (card && is(attribute_start, attribute_end, "netAmount") && net_start < 0) {
+                    net_start = value_start;
+                    net_end = value_end;
+                }
+            }
+        }
+
+        // End of the text of an element whose text is read; the text must be followed directly by the end tag
+        private int element_text_end(int text_start, boolean empty, int name_start, int name_end) throws Unsupported_Layout {
+            if (empty) return text_start;
+            int text_end = index_of((byte) '<', text_start);
+            if (text_end < 0 || text_end + 1 >= limit || buffer.get(text_end + 1) != '/') {
+                throw new Unsupported_Layout("Element text with markup");
+            }
+            int close_name_end = name_end(text_end + 2);
+            if (close_name_end - (text_end + 2) != name_end - name_start || !same_bytes(text_end + 2, name_start, name_end - name_start)) {
+                throw new Unsupported_Layout("Unexpected end tag");
+            }
+            check_plain(text_start, text_end, false);
+            return text_end;
+        }
+
+        // Position after the end tag that starts at the given '<'
+        private int close_tag_end(int open) throws Unsupported_Layout {
+            int close = skip_whitespace(name_end(open + 2));
+            if (close >= limit || buffer.get(close) != '>') throw new Unsupported_Layout("Malformed end tag");
+            return close + 1;
+        }
+
+        // Text the general parser would change (entities, line ends, whitespace normalized in attribute values)
+        // is left to that parser
+        private void check_plain(int start, int end, boolean attribute) throws Unsupported_Layout {
+            for (int i = start; i < end; i++) {
+                byte b = buffer.get(i);
+                if (b == '&' || b == '\r' || attribute && (b == '\t' || b == '\n')) {
+                    throw new Unsupported_Layout("Entity or control character");
+                }
+            }
+        }
+
+        // End of an element or attribute name; names with a namespace prefix are not handled
+        private int name_end(int position) throws Unsupported_Layout {
+            int i = position;
+            while (i < limit) {
+                byte b = buffer.get(i);
+                if (b == ':') throw new Unsupported_Layout("Namespace prefix");
+                if (b == '>' || b == '/' || b == '=' || b <= ' ') break;
+                i++;
+            }
+            if (i == position) throw new Unsupported_Layout("Empty name");
+            return i;
+        }
+
+        private int skip_whitespace(int position) {
+            while (position < limit && buffer.get(position) <= ' ' && buffer.get(position) >= 0) position++;
+            return position;
+        }
+
+        private int index_of(byte value, int from) {
+            for (int i = from; i < limit; i++) {
+                if (buffer.get(i) == value) return i;
+            }
+            return -1;
+        }
+
+        private int index_of_pair(byte first, byte second, int from) throws Unsupported_Layout {
+            for (int i = from; i + 1 < limit; i++) {
+                if (buffer.get(i) == first && buffer.get(i + 1) == second) return i;
+            }
+            throw new Unsupported_Layout("Unterminated processing instruction");
+        }
+
+        private boolean is(int start, int end, byte[] name) {
+            return end - start == name.length && matches(buffer, start, name);
+        }
+
+        private boolean is(int start, int end, String name) {
+            if (end - start != name.length()) return false;
+            for (int i = 0; i < name.length(); i++) {
+                if (buffer.get(start + i) != name.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        private boolean same_bytes(int a, int b, int length) {
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(a + i) != buffer.get(b + i)) return false;
+            }
+            return true;
+        }
+
+        // Decodes UTF-8 bytes; repeated values (card types, dates, terminals) come from a small cache
+        private String string(int start, int end) {
+            int length = end - start;
+            int hash = length;
+            for (int i = start; i < end; i++) hash = hash * 31 + buffer.get(i);
+            int slot = (hash ^ hash >>> 16) & 255;
+
+            byte[] cached = string_cache_bytes[slot];
+            if (cached != null && cached.length == length) {
+                boolean same = true;
+                for (int i = 0; i < length && same; i++) same = cached[i] == buffer.get(start + i);
+                if (same) return string_cache_values[slot];
+            }
+
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) bytes[i] = buffer.get(start + i);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            string_cache_bytes[slot] = bytes;
+            string_cache_values[slot] = value;
+            return value;
+        }
+    }
+
+    // ASCII view of a byte range as a CharSequence, so Fixed_Point can parse amounts without creating Strings
+    private static final class Byte_Chars implements CharSequence {
+        private final ByteBuffer buffer;
+        private int offset;
+        private int length;
+
+        Byte_Chars(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        // Points the view at another range and returns it
+        Byte_Chars at(int offset, int length) {
+            this.offset = offset;
+            this.length = Math.max(0, length);
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(offset + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) bytes[i] = buffer.get(offset + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static boolean matches(ByteBuffer buffer, int position, byte[] name) {
+        if (position + name.length > buffer.limit()) return false;
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(position + i) != name[i]) return false;
+        }
+        return true;
+    }
+
+    // True for the bytes that can follow an element name in a start tag
+    private static boolean ends_name(byte b) {
+        return b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Description of the first row or dictionary that differs between two stores, or null if they are identical
+    static String first_difference(Transaction_Store a, Transaction_Store b) {
+        if (a.size() != b.size()) return "row count " + a.size() + " vs " + b.size();
+        String_Dictionary[][] dictionaries = {
+                {a.get_dates(), b.get_dates()}, {a.get_card_types(), b.get_card_types()},
+                {a.get_locations(), b.get_locations()}, {a.get_terminals(), b.get_terminals()},
+                {a.get_batch_numbers(), b.get_batch_numbers()}};
+        for (String_Dictionary[] pair : dictionaries) {
+            if (!values_of(pair[0]).equals(values_of(pair[1]))) return "dictionary " + values_of(pair[0]) + " vs " + values_of(pair[1]);
+        }
+        for (int row = 0; row < a.size(); row++) {
+            if (a.get_date_id(row) != b.get_date_id(row) || a.get_card_type_id(row) != b.get_card_type_id(row)
+                    || a.get_location_id(row) != b.get_location_id(row) || a.get_terminal_id(row) != b.get_terminal_id(row)
+                    || a.get_batch_number_id(row) != b.get_batch_number_id(row) || a.get_quantity(row) != b.get_quantity(row)
+                    || a.get_gross_cents(row) != b.get_gross_cents(row) || a.get_net_cents(row) != b.get_net_cents(row)
+                    || a.get_fee_cents(row) != b.get_fee_cents(row)) {
+                return "row " + row + ": " + a.get(row) + " vs " + b.get(row);
+            }
+        }
+        return null;
+    }
+}
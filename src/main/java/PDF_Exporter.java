@@ -1,106 +1,270 @@
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.*;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.common.PDStream;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.encoding.GlyphList;
+import org.apache.pdfbox.pdmodel.font.encoding.WinAnsiEncoding;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 
 import javax.swing.JTable;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+import java.util.zip.DeflaterOutputStream;
 // Utility class to export JTable data into a PDF file using Apache PDFBox
 public class PDF_Exporter {
 
-    // Main method to export JTable content to a formatted PDF document
+    // Page layout shared by both export paths
+    private static final PDType1Font font = PDType1Font.HELVETICA;
+    private static final float font_size = 10;
+    private static final float line_spacing = 14.5f;
+    private static final float margin = 40;
+    private static final float y_start = 720;
+    private static final int max_lines_per_page = 45; // Header line plus data lines
+    private static final int column_width = 20;
+
+    // Pages whose content is built in parallel before they are added to the document
+    private static final int pages_per_batch = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+
+    // WinAnsi byte for every char Helvetica can show (0 = not encodable); read-only, so safe to share across threads
+    private static final byte[] win_ansi_codes = build_win_ansi_table();
+
+    // Main method to export JTable content to a formatted PDF document (no dialogs; the caller reports the result)
     public static void export_to_pdf(JTable table, File file) throws IOException {
-        PDDocument document = new PDDocument();
-
-        // Font and layout setup
-        PDType1Font font = PDType1Font.HELVETICA;
-        float font_size = 10;
-        float line_spacing = 14.5f;
-        float margin = 40;
-        float y_start = 720;
-        int max_lines_per_page = 45;
-        int line_count = 0;
-
-        // Start first page
-        PDPage page = new PDPage(PDRectangle.LETTER);
-        document.addPage(page);
-
-        PDPageContentStream stream = new PDPageContentStream(document, page);
-        stream.setFont(font, font_size);
-        stream.beginText();
-        stream.setLeading(line_spacing);
-        stream.newLineAtOffset(margin, y_start);
-
-        // Print header row (column names)
-        for (int col = 0; col < table.getColumnCount(); col++) {
-            stream.showText(pad_right(table.getColumnName(col), 20));
+        if (table.getModel() instanceof Report_Table_Model) {
+            export_report(((Report_Table_Model) table.getModel()).get_report(), file);
+        } else {
+            Metrics.Span span = Metrics.begin_export();
+            boolean failed = true;
+            try {
+                export_table(table, file);
+                failed = false;
+            } finally {
+                Metrics.end_export(span, "pdf", table.getRowCount(), file, failed);
+            }
         }
-        stream.newLine();
-        line_count++;
-
-        // Loop through table rows
-        for (int row = 0; row < table.getRowCount(); row++) {
-
-            // Start new page if max lines reached
-            if (line_count >= max_lines_per_page) {
-                stream.endText();
-                stream.close();
-
-                page = new PDPage(PDRectangle.LETTER);
-                document.addPage(page);
-                stream = new PDPageContentStream(document, page);
-                stream.setFont(font, font_size);
-                stream.beginText();
-                stream.setLeading(line_spacing);
-                stream.newLineAtOffset(margin, y_start);
-
-                // Reprint header on new page
-                for (int col = 0; col < table.getColumnCount(); col++) {
-                    stream.showText(pad_right(table.getColumnName(col), 20));
+    }
+
+    // High-volume export: pages are laid out independently and their content streams are built (and compressed)
+    // in parallel; the document keeps its streams in a temp file instead of the heap
+    public static void export_report(Report_Data report, File file) throws IOException {
+        export_report(report, file, Export_Progress.none);
+    }
+
+    // As above, reporting the rows laid out after every batch of pages
+    public static void export_report(Report_Data report, File file, Export_Progress progress) throws IOException {
+        Metrics.Span span = Metrics.begin_export();
+        boolean failed = true;
+        try {
+            write_report(report, file, progress);
+            failed = false;
+        } finally {
+            Metrics.end_export(span, "pdf", report.get_row_count(), file, failed);
+        }
+    }
+
+    // Writes the report (see export_report)
+    private static void write_report(Report_Data report, File file, Export_Progress progress) throws IOException {
+        int rows_per_page = max_lines_per_page - 1;
+        int page_count = Math.max(1, (report.get_row_count() + rows_per_page - 1) / rows_per_page);
+        byte[] header = encode_line(header_line(report));
+
+        try (PDDocument document = new PDDocument(MemoryUsageSetting.setupTempFileOnly())) {
+            PDResources resources = new PDResources();
+            COSName font_name = resources.add(font);
+
+            for (int first = 0; first < page_count; first += pages_per_batch) {
+                progress.update(Math.min(report.get_row_count(), first * rows_per_page), report.get_row_count());
+                int last = Math.min(page_count, first + pages_per_batch);
+
+                // Each page task uses its own cursor; PDFBox objects are only touched on this thread
+                byte[][] contents = IntStream.range(first, last).parallel()
+                        .mapToObj(page -> build_page_content(report, font_name, header,
+                                page * rows_per_page, Math.min(report.get_row_count(), (page + 1) * rows_per_page)))
+                        .toArray(byte[][]::new);
+
+                for (byte[] content : contents) {
+                    PDPage page = new PDPage(PDRectangle.LETTER);
+                    page.setResources(resources);
+
+                    PDStream stream = new PDStream(document);
+                    try (OutputStream out = stream.getCOSObject().createRawOutputStream()) {
+                        out.write(content);
+                    }
+                    stream.getCOSObject().setItem(COSName.FILTER, COSName.FLATE_DECODE);
+                    page.setContents(stream);
+                    document.addPage(page);
                 }
-                stream.newLine();
-                line_count = 1;
             }
 
-            // Print each cell value in the row
-            for (int col = 0; col < table.getColumnCount(); col++) {
-                Object value = table.getValueAt(row, col);
-                String text = (value != null) ? value.toString() : "";
-                stream.showText(pad_right(text, 20));
+            document.save(file);
+        }
+    }
+
+    // Builds the Flate-compressed content stream of one page: the column header, then rows [first_row, end_row)
+    private static byte[] build_page_content(Report_Data report, COSName font_name, byte[] header, int first_row, int end_row) {
+        Report_Data.Row_Cursor cursor = report.new_cursor();
+        StringBuilder line = new StringBuilder(column_width * report.get_column_count());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes)) {
+            write_ascii(out, "/" + font_name.getName() + " " + format_number(font_size) + " Tf\nBT\n"
+                    + format_number(line_spacing) + " TL\n"
+                    + format_number(margin) + " " + format_number(y_start) + " Td\n");
+            write_text_line(out, header);
+
+            for (int row = first_row; row < end_row; row++) {
+                cursor.move_to(row);
+                line.setLength(0);
+                for (int col = 0; col < report.get_column_count(); col++) {
+                    append_padded(line, String.valueOf(cursor.get_value(col)), column_width); // Same text as the table
+                }
+                write_text_line(out, encode_line(line));
+            }
+
+            write_ascii(out, "ET\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Only in-memory streams are involved
+        }
+        return bytes.toByteArray();
+    }
+
+    // Column names padded to the fixed column width
+    private static StringBuilder header_line(Report_Data report) {
+        StringBuilder line = new StringBuilder();
+        for (int col = 0; col < report.get_column_count(); col++) {
+            append_padded(line, report.get_column_name(col), column_width);
+        }
+        return line;
+    }
+
+    // Writes "(text) Tj" followed by a move to the next line
+    private static void write_text_line(OutputStream out, byte[] encoded) throws IOException {
+        out.write('(');
+        for (byte b : encoded) {
+            if (b == '(' || b == ')' || b == '\\') out.write('\\');
+            out.write(b);
+        }
+        write_ascii(out, ") Tj\nT*\n");
+    }
+
+    // Encodes text with the font's WinAnsi encoding, failing like PDFBox does for characters the font cannot show
+    private static byte[] encode_line(CharSequence text) {
+        byte[] encoded = new byte[text.length()];
+        for (int i = 0; i < encoded.length; i++) {
+            char c = text.charAt(i);
+            byte code = win_ansi_codes[c];
+            if (code == 0) {
+                throw new IllegalArgumentException(String.format("U+%04X is not available in this font's encoding: WinAnsiEncoding", (int) c));
             }
+            encoded[i] = code;
+        }
+        return encoded;
+    }
 
+    // Maps every Unicode char to its WinAnsi code (first code wins when several share a glyph)
+    private static byte[] build_win_ansi_table() {
+        byte[] table = new byte[Character.MAX_VALUE + 1];
+        GlyphList glyphs = GlyphList.getAdobeGlyphList();
+        for (int code = 255; code > 0; code--) {
+            String name = WinAnsiEncoding.INSTANCE.getName(code);
+            if (name == null || ".notdef".equals(name)) continue;
+            String unicode = glyphs.toUnicode(name);
+            if (unicode != null && unicode.length() == 1) table[unicode.charAt(0)] = (byte) code;
+        }
+        return table;
+    }
+
+    // Numbers in content streams: integers without a fraction, like PDFBox writes them
+    private static String format_number(float value) {
+        return value == (int) value ? Integer.toString((int) value) : Float.toString(value);
+    }
+
+    private static void write_ascii(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Original single-threaded export for tables that are not backed by a report
+    static void export_table(JTable table, File file) throws IOException {
+        try (PDDocument document = new PDDocument(MemoryUsageSetting.setupTempFileOnly())) {
+            int line_count = 0;
+
+            // Start first page
+            PDPage page = new PDPage(PDRectangle.LETTER);
+            document.addPage(page);
+
+            PDPageContentStream stream = new PDPageContentStream(document, page);
+            stream.setFont(font, font_size);
+            stream.beginText();
+            stream.setLeading(line_spacing);
+            stream.newLineAtOffset(margin, y_start);
+
+            // Print header row (column names)
+            for (int col = 0; col < table.getColumnCount(); col++) {
+                stream.showText(pad_right(table.getColumnName(col), column_width));
+            }
             stream.newLine();
             line_count++;
-        }
 
-        // Finalize stream and document
-        stream.endText();
-        stream.close();
-
-        document.save(file);
-        document.close();
-        // Ask user if they want to open the file now
-        int option = javax.swing.JOptionPane.showConfirmDialog(null,
-                "Export complete. Do you want to open the PDF now?", "Open PDF",
-                javax.swing.JOptionPane.YES_NO_OPTION);
-        if (option == javax.swing.JOptionPane.YES_OPTION) {
-            if (java.awt.Desktop.isDesktopSupported()) {
-                try {
-                    java.awt.Desktop.getDesktop().open(file);
-                } catch (IOException e) {
-                    javax.swing.JOptionPane.showMessageDialog(null, "Unable to open the file: " + e.getMessage());
+            // Loop through table rows
+            for (int row = 0; row < table.getRowCount(); row++) {
+
+                // Start new page if max lines reached
+                if (line_count >= max_lines_per_page) {
+                    stream.endText();
+                    stream.close();
+
+                    page = new PDPage(PDRectangle.LETTER);
+                    document.addPage(page);
+                    stream = new PDPageContentStream(document, page);
+                    stream.setFont(font, font_size);
+                    stream.beginText();
+                    stream.setLeading(line_spacing);
+                    stream.newLineAtOffset(margin, y_start);
+
+                    // Reprint header on new page
+                    for (int col = 0; col < table.getColumnCount(); col++) {
+                        stream.showText(pad_right(table.getColumnName(col), column_width));
+                    }
+                    stream.newLine();
+                    line_count = 1;
                 }
-            } else {
-                javax.swing.JOptionPane.showMessageDialog(null, "Desktop not supported on this system.");
+
+                // Print each cell value in the row
+                for (int col = 0; col < table.getColumnCount(); col++) {
+                    Object value = table.getValueAt(row, col);
+                    String text = (value != null) ? value.toString() : "";
+                    stream.showText(pad_right(text, column_width));
+                }
+
+                stream.newLine();
+                line_count++;
             }
-        }
 
+            // Finalize stream and document
+            stream.endText();
+            stream.close();
+
+            document.save(file);
+        }
     }
 
     // Helper method to pad or trim a string for fixed-width formatting
     private static String pad_right(String text, int length) {
-        if (text.length() >= length) return text.substring(0, length - 1) + "…";
-        return String.format("%-" + length + "s", text);
+        StringBuilder padded = new StringBuilder(length);
+        append_padded(padded, text, length);
+        return padded.toString();
     }
-}
 
+    // Appends text cut to length - 1 chars plus an ellipsis, or padded with spaces to the given length
+    private static void append_padded(StringBuilder out, String text, int length) {
+        if (text.length() >= length) {
+            out.append(text, 0, length - 1).append('\u2026'); // Ellipsis
+            return;
+        }
+        out.append(text);
+        for (int i = text.length(); i < length; i++) out.append(' ');
+    }
+}
@@ -1,49 +1,297 @@
 import java.io.File;
 import java.util.*;
-import java.util.stream.Collectors;
-// Manager class for loading, caching, and accessing card transaction data from XML files
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+// Manager class for loading, caching, and accessing card transaction data from XML files. Every input root is an
+// Input_Shard with its own parser pool and rollup; with several roots, selections are "<shard>/<file name>"
 public class Program_Manager {
 
-    // In-memory cache to hold transactions by file name
-    private static final Map<String, List<Card_Transaction>> transaction_cache = new HashMap<>();
+    // Input roots, comma-separated (e.g. -Dinput.roots=sites/north,sites/south); xml_files by default
+    private static final String default_roots = System.getProperty("input.roots", "xml_files");
+
+    // Current shards, one per input root; replaced as a whole by set_input_roots
+    private static volatile List<Input_Shard> shards = create_shards(parse_roots(default_roots));
+
+    // Rollup across all shards and the shard versions it was merged from; rebuilt after any shard changed
+    private static Rollup_Cube all_shards_view;
+    private static long[] all_shards_versions;
+
+    // Callback for per-file progress while files are loading (invoked from loader threads)
+    public interface Load_Listener {
+        // Called after a file was parsed; completed counts both loaded and failed files
+        void file_loaded(File file, int record_count, long elapsed_ms, int completed, int total);
+
+        // Called when a file could not be parsed; the file is kept with an empty transaction list
+        void file_failed(File file, Exception error, int completed, int total);
+    }
+
+    // Default listener that only reports failures, matching the parser's console output
+    private static final Load_Listener console_listener = new Load_Listener() {
+        @Override
+        public void file_loaded(File file, int record_count, long elapsed_ms, int completed, int total) {
+        }
+
+        @Override
+        public void file_failed(File file, Exception error, int completed, int total) {
+            System.out.println("Error reading file: " + file.getName() + " (" + error + ")");
+        }
+    };
 
     // Load and parse all XML files at startup
     public static void load_files(List<File> xml_files) {
-        transaction_cache.clear(); // Clear existing cache
+        load_files(xml_files, console_listener);
+    }
+
+    // Load and parse all XML files in parallel, reporting progress per file; returns the files that failed
+    public static List<File> load_files(List<File> xml_files, Load_Listener listener) {
+        for (Input_Shard shard : shards) shard.clear(); // Clear existing files
+        return parse_files(xml_files, listener, false);
+    }
+
+    // Re-parses changed files, logging failures to the console
+    public static List<File> reload_files(List<File> xml_files) {
+        return reload_files(xml_files, console_listener);
+    }
+
+    // Re-parses files that were added or changed on disk, replacing only their entries; returns the files that failed.
+    // A file that fails keeps its previous data (it may still be being copied) and is retried on its next change
+    public static List<File> reload_files(List<File> xml_files, Load_Listener listener) {
+        for (File file : xml_files) {
+            XML_Parser.evict(file);
+        }
+        return parse_files(xml_files, listener, true);
+    }
+
+    // Forgets a file that was deleted from disk, including its snapshot
+    public static void remove_file(File xml_file) {
+        XML_Parser.evict(xml_file);
+        Snapshot_Cache.remove(xml_file);
+        shard_of(xml_file).remove_file(xml_file);
+    }
+
+    // Parses files on the pools of their shards and waits for all of them; shards parse independently
+    private static List<File> parse_files(List<File> xml_files, Load_Listener listener, boolean keep_previous_on_failure) {
+        long batch_start = System.nanoTime();
+        int total = xml_files.size();
+        AtomicInteger completed = new AtomicInteger();
+        List<File> failed = Collections.synchronizedList(new ArrayList<>());
+        List<Future<?>> tasks = new ArrayList<>(total);
 
         for (File file : xml_files) {
-            List<Card_Transaction> parsed = XML_Parser.parse_single_file(file);
-            transaction_cache.put(file.getName(), parsed);
+            Input_Shard shard = shard_of(file);
+            tasks.add(shard.submit(() -> {
+                long start = System.nanoTime();
+                long size = file.length();
+                long mtime = file.lastModified();
+                try {
+                    Transaction_Store parsed = XML_Parser.parse_file_or_throw(file);
+                    shard.put_file(file, size, mtime, parsed, false);
+                    long elapsed_ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    listener.file_loaded(file, parsed.size(), elapsed_ms, completed.incrementAndGet(), total);
+                } catch (Exception e) {
+                    if (!keep_previous_on_failure) shard.put_file(file, size, mtime, new Transaction_Store(0), true);
+                    failed.add(file);
+                    listener.file_failed(file, e, completed.incrementAndGet(), total);
+                }
+            }));
+        }
+
+        // Wait for every file so callers see a fully populated cache
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                e.printStackTrace(); // Listener errors only; parse errors are handled inside the task
+            }
         }
+        Metrics.record_load_batch(System.nanoTime() - batch_start);
+        return failed;
     }
 
     // Add a new XML file to the cache (called during runtime import)
     public static void add_file_to_cache(File xml_file) {
-        if (!transaction_cache.containsKey(xml_file.getName())) {
-            List<Card_Transaction> parsed = XML_Parser.parse_single_file(xml_file);
-            transaction_cache.put(xml_file.getName(), parsed);
+        Input_Shard shard = shard_of(xml_file);
+        if (!shard.has_file(xml_file.getName())) {
+            long size = xml_file.length();
+            long mtime = xml_file.lastModified();
+            Transaction_Store parsed = XML_Parser.parse_store(xml_file);
+            shard.put_file(xml_file, size, mtime, parsed, false);
         }
     }
 
     // Get transactions for a specific file, or all combined if "All Files" is selected
     public static List<Card_Transaction> get_transactions(String file_name) {
+        List<Transaction_Store> stores = get_stores(file_name);
+        if (stores.size() != 1) {
+            return Transaction_Store.as_list(stores); // View over the files, nothing is copied
+        }
+        return stores.get(0).as_list();
+    }
+
+    // Get the columnar stores for a specific file, for one shard ("<shard>/All Files") or for every file if
+    // "All Files" is selected
+    public static List<Transaction_Store> get_stores(String file_name) {
+        if ("All Files".equals(file_name)) {
+            List<Transaction_Store> stores = new ArrayList<>();
+            for (Input_Shard shard : shards) stores.addAll(shard.get_all_stores());
+            return stores;
+        }
+        for (Input_Shard shard : shards) {
+            if (!file_name.startsWith(shard.get_prefix())) continue;
+            String rest = file_name.substring(shard.get_prefix().length());
+            if (!shard.get_prefix().isEmpty() && Input_Shard.all_files.equals(rest)) return shard.get_all_stores();
+            if (shard.has_file(rest)) return shard.get_stores(rest);
+        }
+        return Collections.emptyList();
+    }
+
+    // Get the rollup cube of a specific file, of one shard, or the merge of all cubes if "All Files" is selected
+    public static Rollup_Cube get_cube(String file_name) {
         if ("All Files".equals(file_name)) {
-            return transaction_cache.values().stream()
-                    .flatMap(List::stream)
-                    .collect(Collectors.toList());
+            return all_files_cube(); // Kept up to date as files change, so this does not depend on the file count
+        }
+        for (Input_Shard shard : shards) {
+            if (!file_name.startsWith(shard.get_prefix())) continue;
+            String rest = file_name.substring(shard.get_prefix().length());
+            if (!shard.get_prefix().isEmpty() && Input_Shard.all_files.equals(rest)) return shard.get_all_files_cube();
+            Rollup_Cube cube = shard.get_cube(rest);
+            if (cube != null) return cube;
         }
-        return transaction_cache.getOrDefault(file_name, Collections.emptyList());
+        return new Rollup_Cube();
     }
 
-    // Optional helper to retrieve names of all cached files
+    // Rollup of a file (or of every file for "All Files") restricted to a date range and card types
+    public static Rollup_Cube get_cube(String file_name, Transaction_Filter filter) {
+        Rollup_Cube cube = get_cube(file_name);
+        return filter.is_unfiltered() ? cube : cube.filter(filter);
+    }
+
+    // Rows of a file (or of every file for "All Files") that pass a filter, as runs of rows ordered by date and
+    // card type within each file. Each store answers from its sorted date index and card type bitmaps, so the
+    // cost does not depend on how many rows fall outside the filter
+    public static List<Report_Data.Segment> query(String file_name, Transaction_Filter filter) {
+        List<Report_Data.Segment> segments = new ArrayList<>();
+        for (Transaction_Store store : get_stores(file_name)) store.select(filter, segments);
+        return segments;
+    }
+
+    // Data version of a selection: the stamp of the latest change of the shards it covers, so it changes whenever
+    // one of its files is added, replaced or removed; cached reports are keyed by it
+    public static long get_data_version(String file_name) {
+        List<Input_Shard> current = shards;
+        long version = 0;
+        for (Input_Shard shard : current) {
+            if ("All Files".equals(file_name) || file_name.startsWith(shard.get_prefix())) {
+                version = Math.max(version, shard.get_version());
+            }
+        }
+        return version;
+    }
+
+    // Rollup across every shard: the shard rollups are merged in parallel, and only again after one of them changed
+    private static synchronized Rollup_Cube all_files_cube() {
+        List<Input_Shard> current = shards;
+        if (current.size() == 1) return current.get(0).get_all_files_cube();
+
+        long[] versions = new long[current.size()];
+        for (int i = 0; i < versions.length; i++) versions[i] = current.get(i).get_version();
+        if (all_shards_view == null || !Arrays.equals(versions, all_shards_versions)) {
+            List<Rollup_Cube> cubes = new ArrayList<>(current.size());
+            for (Input_Shard shard : current) cubes.add(shard.get_all_files_cube());
+            all_shards_view = Rollup_Cube.merge_parallel(cubes);
+            all_shards_versions = versions;
+        }
+        return all_shards_view;
+    }
+
+    // Optional helper to retrieve names of all cached files (selection keys)
     public static Set<String> get_cached_file_names() {
-        return transaction_cache.keySet();
+        Set<String> names = new LinkedHashSet<>();
+        for (Input_Shard shard : shards) names.addAll(shard.get_keys());
+        return names;
+    }
+
+    // Selection key of a file: its name, prefixed with its shard when there are several input roots
+    public static String key_of(File file) {
+        return shard_of(file).key_of(file);
+    }
+
+    // Selections of the per-shard rollups ("<shard>/All Files"); empty with a single input root
+    public static List<String> get_shard_selections() {
+        List<String> selections = new ArrayList<>();
+        List<Input_Shard> current = shards;
+        if (current.size() > 1) {
+            for (Input_Shard shard : current) selections.add(shard.get_prefix() + Input_Shard.all_files);
+        }
+        return selections;
     }
 
-    // Get all XML files from the xml_files directory
+    // Configured input roots, in order
+    public static List<File> get_input_roots() {
+        List<File> roots = new ArrayList<>();
+        for (Input_Shard shard : shards) roots.add(shard.get_root());
+        return roots;
+    }
+
+    // Replaces the input roots; loaded files are dropped, so call load_files afterwards
+    public static synchronized void set_input_roots(List<File> roots) {
+        List<Input_Shard> previous = shards;
+        shards = create_shards(roots);
+        all_shards_view = null;
+        Report_Cache.clear();
+        for (Input_Shard shard : previous) shard.shutdown();
+    }
+
+    // Shard whose root holds the file; files from elsewhere (e.g. passed on the command line) go to the first shard
+    private static Input_Shard shard_of(File file) {
+        List<Input_Shard> current = shards;
+        for (Input_Shard shard : current) {
+            if (shard.contains(file)) return shard;
+        }
+        return current.get(0);
+    }
+
+    // One shard per root, named after its folder (made unique); the cores are shared out between the shard pools
+    private static List<Input_Shard> create_shards(List<File> roots) {
+        if (roots.isEmpty()) roots = Collections.singletonList(new File("xml_files"));
+        int cores = Math.max(1, Runtime.getRuntime().availableProcessors());
+        int threads = Integer.getInteger("input.shard_threads", Math.max(1, cores / roots.size()));
+
+        List<Input_Shard> created = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (File root : roots) {
+            String name = root.getAbsoluteFile().toPath().normalize().getFileName() != null
+                    ? root.getAbsoluteFile().toPath().normalize().getFileName().toString() : "root";
+            String unique = name;
+            for (int i = 2; !names.add(unique); i++) unique = name + "-" + i;
+            String prefix = roots.size() > 1 ? unique + "/" : "";
+            created.add(new Input_Shard(unique, root, prefix, threads));
+        }
+        return Collections.unmodifiableList(created);
+    }
+
+    // Splits a comma-separated list of folders
+    private static List<File> parse_roots(String value) {
+        List<File> roots = new ArrayList<>();
+        for (String part : value.split(",")) {
+            if (!part.trim().isEmpty()) roots.add(new File(part.trim()));
+        }
+        return roots;
+    }
+
+    // Get all XML files (.xml, .xml.gz, .zip) from every input root (xml_files by default)
     public static List<File> get_all_files() {
-        File folder = new File("xml_files");
-        File[] files = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".xml"));
+        List<File> files = new ArrayList<>();
+        for (Input_Shard shard : shards) files.addAll(shard.list_files());
+        return files;
+    }
+
+    // Get all XML files from the given directory
+    public static List<File> get_all_files(File folder) {
+        File[] files = folder.listFiles((dir, name) -> XML_Parser.is_input_file(name));
         return files != null ? Arrays.asList(files) : new ArrayList<>();
     }
 }
@@ -1,161 +1,220 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
 // Analyzer utility class for grouping card transactions into summary tables
 public class Report_Analyzer {
 
+    // Column layout shared by the grouped reports
+    private static final String[] columns = {"Date", "Card Type", "Qty", "Gross", "Net", "Fee"};
+    private static final Report_Data.Column_Type[] column_types = {
+            Report_Data.Column_Type.DATE, Report_Data.Column_Type.TEXT, Report_Data.Column_Type.INTEGER,
+            Report_Data.Column_Type.MONEY, Report_Data.Column_Type.MONEY, Report_Data.Column_Type.MONEY
+    };
+
+    // Card type groups are ordered case-insensitively; natural order keeps the result deterministic on ties
+    private static final Comparator<String> card_type_order =
+            String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
     // Groups transactions by date, adds totals per date, and a grand total row
     public static JTable group_by_date_with_summary(List<Card_Transaction> transactions, boolean ascending) {
-        String[] columns = {"Date", "Card Type", "Qty", "Gross", "Net", "Fee"};
-        DefaultTableModel model = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; // Make table non-editable
-            }
-        };
+        return group_stores_by_date_with_summary(to_stores(transactions), ascending);
+    }
 
-        if (transactions == null || transactions.isEmpty()) {
-            return new JTable(model); // Empty table
-        }
+    // Groups transactions by card type, sorts by date within each type, and adds totals
+    public static JTable group_by_card_type(List<Card_Transaction> transactions) {
+        return group_stores_by_card_type(to_stores(transactions));
+    }
+
+    // Groups columnar transactions by date with per-date totals (same layout as group_by_date_with_summary)
+    public static JTable group_stores_by_date_with_summary(List<Transaction_Store> stores, boolean ascending) {
+        return to_table(build_date_report(Rollup_Cube.of(stores), stores, ascending));
+    }
 
-        // Group transactions by date
-        Map<String, List<Card_Transaction>> by_date = transactions.stream()
-                .collect(Collectors.groupingBy(Card_Transaction::get_batch_date));
-
-        List<String> sorted_dates = new ArrayList<>(by_date.keySet());
-        sorted_dates.sort(ascending ? Comparator.naturalOrder() : Comparator.reverseOrder());
-
-        int grand_qty = 0;
-        double grand_gross = 0, grand_net = 0, grand_fee = 0;
-
-        for (String date : sorted_dates) {
-            List<Card_Transaction> list = by_date.get(date);
-            list.sort(Comparator.comparing(Card_Transaction::get_card_type));
-
-            int total_qty = 0;
-            double total_gross = 0, total_net = 0, total_fee = 0;
-
-            // Add individual transactions
-            for (Card_Transaction tx : list) {
-                model.addRow(new Object[]{
-                        tx.get_batch_date(),
-                        tx.get_card_type(),
-                        tx.get_quantity(),
-                        tx.get_gross_amount(),
-                        tx.get_net_amount(),
-                        tx.get_fee()
-                });
-
-                total_qty += tx.get_quantity();
-                total_gross += tx.get_gross_amount();
-                total_net += tx.get_net_amount();
-                total_fee += tx.get_fee();
+    // Groups columnar transactions by card type with per-type totals (same layout as group_by_card_type)
+    public static JTable group_stores_by_card_type(List<Transaction_Store> stores) {
+        return to_table(build_card_type_report(Rollup_Cube.of(stores), stores));
+    }
+
+    // Date report: groups, subtotals and grand total come from the cube; the stores only supply detail rows
+    public static Report_Data build_date_report(Rollup_Cube cube, List<Transaction_Store> stores, boolean ascending) {
+        Metrics.Span span = Metrics.begin_report();
+        List<String> dates = new ArrayList<>(cube.get_dates());
+        dates.sort(ascending ? Comparator.naturalOrder() : Comparator.reverseOrder());
+
+        List<Report_Data.Group> groups = new ArrayList<>(dates.size());
+        for (String date : dates) {
+            List<String> types = new ArrayList<>(cube.get_card_types(date));
+            Collections.sort(types);
+
+            List<Report_Data.Segment> segments = new ArrayList<>();
+            for (String type : types) {
+                collect_segments(stores, date, type, segments);
             }
+            groups.add(new Report_Data.Group(date, segments, cube.date_total(date)));
+        }
 
-            // Add subtotal row for each date
-            model.addRow(new Object[]{
-                    "", "Total", total_qty,
-                    String.format("%.2f", total_gross),
-                    String.format("%.2f", total_net),
-                    String.format("%.2f", total_fee)
-            });
-            model.addRow(new Object[]{"", "", "", "", "", ""}); // Empty row
-
-            grand_qty += total_qty;
-            grand_gross += total_gross;
-            grand_net += total_net;
-            grand_fee += total_fee;
+        Report_Data report = new Report_Data(columns, column_types, groups, cube.grand_total());
+        Metrics.end_report(span, "date", report.get_row_count());
+        return report;
+    }
+
+    // Card type report: types in case-insensitive order, dates ascending within each type
+    public static Report_Data build_card_type_report(Rollup_Cube cube, List<Transaction_Store> stores) {
+        Metrics.Span span = Metrics.begin_report();
+        List<String> dates = new ArrayList<>(cube.get_dates());
+        Collections.sort(dates);
+        List<String> types = new ArrayList<>(cube.get_card_types());
+        types.sort(card_type_order);
+
+        List<Report_Data.Group> groups = new ArrayList<>(types.size());
+        for (String type : types) {
+            List<Report_Data.Segment> segments = new ArrayList<>();
+            for (String date : dates) {
+                if (cube.get(date, type) != null) {
+                    collect_segments(stores, date, type, segments);
+                }
+            }
+            groups.add(new Report_Data.Group(type, segments, cube.card_type_total(type)));
         }
 
-        // Add grand total row
-        model.addRow(new Object[]{
-                "", "Grand Total", grand_qty,
-                String.format("%.2f", grand_gross),
-                String.format("%.2f", grand_net),
-                String.format("%.2f", grand_fee)
-        });
+        Report_Data report = new Report_Data(columns, column_types, groups, cube.grand_total());
+        Metrics.end_report(span, "card_type", report.get_row_count());
+        return report;
+    }
 
-        JTable table = new JTable(model);
-        table.setAutoResizeMode(JTable.AUTO_RESIZE_ALL_COLUMNS);
-        table.setFillsViewportHeight(true);
-        return table;
+    // Location report: one group per location (Account ident), its rows by date and card type, and its totals
+    public static Report_Data build_location_report(List<Transaction_Store> stores, Transaction_Filter filter) {
+        return build_keyed_report(stores, filter, false);
     }
 
-    // Groups transactions by card type, sorts by date within each type, and adds totals
-    public static JTable group_by_card_type(List<Card_Transaction> transactions) {
-        String[] columns = {"Date", "Card Type", "Qty", "Gross", "Net", "Fee"};
-        DefaultTableModel model = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; // Make table non-editable
+    // Terminal report: one group per (location, terminal), since terminal ids are only unique within a location
+    public static Report_Data build_terminal_report(List<Transaction_Store> stores, Transaction_Filter filter) {
+        return build_keyed_report(stores, filter, true);
+    }
+
+    // Groups each store's rows by a key packed from dictionary ids, using a primitive hash index and one Totals
+    // per group, then orders the rows by group with a stable counting sort; labels are only built once per
+    // distinct key of a store, so the per-row work allocates nothing
+    private static Report_Data build_keyed_report(List<Transaction_Store> stores, Transaction_Filter filter,
+                                                  boolean by_terminal) {
+        Metrics.Span span = Metrics.begin_report();
+        Map<String, List<Report_Data.Segment>> segments_by_label = new HashMap<>();
+        Map<String, Totals> totals_by_label = new HashMap<>();
+
+        for (Transaction_Store store : stores) {
+            List<Report_Data.Segment> cells = new ArrayList<>();
+            store.select(filter, cells); // Rows by date, then card type
+            int row_count = 0;
+            for (Report_Data.Segment cell : cells) row_count += cell.size();
+            if (row_count == 0) continue;
+
+            Long_Group_Index index = new Long_Group_Index(by_terminal ? store.get_terminals().size() : store.get_locations().size());
+            List<Totals> group_totals = new ArrayList<>();
+            int[] rows = new int[row_count];
+            int[] row_groups = new int[row_count];
+            int position = 0;
+            for (Report_Data.Segment cell : cells) {
+                for (int i = 0; i < cell.size(); i++) {
+                    int row = cell.row(i);
+                    long key = by_terminal
+                            ? Long_Group_Index.pack(store.get_location_id(row), store.get_terminal_id(row))
+                            : store.get_location_id(row);
+                    int group = index.group_of(key);
+                    if (group == group_totals.size()) group_totals.add(new Totals());
+                    group_totals.get(group).add(store.get_quantity(row), store.get_gross_cents(row),
+                            store.get_net_cents(row), store.get_fee_cents(row));
+                    rows[position] = row;
+                    row_groups[position++] = group;
+                }
             }
-        };
 
-        if (transactions == null || transactions.isEmpty()) {
-            return new JTable(model); // Empty table
+            int[] offsets = new int[index.size() + 1];
+            for (int group : row_groups) offsets[group + 1]++;
+            for (int group = 1; group < offsets.length; group++) offsets[group] += offsets[group - 1];
+            int[] next = Arrays.copyOf(offsets, index.size());
+            int[] order = new int[row_count];
+            for (int p = 0; p < row_count; p++) order[next[row_groups[p]]++] = rows[p];
+
+            for (int group = 0; group < index.size(); group++) {
+                String label = key_label(store, index.key_of(group), by_terminal);
+                segments_by_label.computeIfAbsent(label, key -> new ArrayList<>())
+                        .add(new Report_Data.Segment(store, order, offsets[group], offsets[group + 1]));
+                totals_by_label.computeIfAbsent(label, key -> new Totals()).add(group_totals.get(group));
+            }
         }
 
-        // Group transactions by card type
-        Map<String, List<Card_Transaction>> grouped = transactions.stream()
-                .collect(Collectors.groupingBy(Card_Transaction::get_card_type));
-
-        List<String> sorted_types = new ArrayList<>(grouped.keySet());
-        sorted_types.sort(String::compareToIgnoreCase);
-
-        int grand_qty = 0;
-        double grand_gross = 0, grand_net = 0, grand_fee = 0;
-
-        for (String type : sorted_types) {
-            List<Card_Transaction> tx_list = grouped.get(type);
-            tx_list.sort(Comparator.comparing(Card_Transaction::get_batch_date));
-
-            int total_qty = 0;
-            double total_gross = 0, total_net = 0, total_fee = 0;
-
-            // Add individual transactions
-            for (Card_Transaction tx : tx_list) {
-                model.addRow(new Object[]{
-                        tx.get_batch_date(),
-                        tx.get_card_type(),
-                        tx.get_quantity(),
-                        tx.get_gross_amount(),
-                        tx.get_net_amount(),
-                        tx.get_fee()
-                });
-
-                total_qty += tx.get_quantity();
-                total_gross += tx.get_gross_amount();
-                total_net += tx.get_net_amount();
-                total_fee += tx.get_fee();
-            }
+        List<String> labels = new ArrayList<>(segments_by_label.keySet());
+        Collections.sort(labels);
+        List<Report_Data.Group> groups = new ArrayList<>(labels.size());
+        Totals grand_total = new Totals();
+        for (String label : labels) {
+            Totals subtotal = totals_by_label.get(label);
+            grand_total.add(subtotal);
+            groups.add(new Report_Data.Group(label, "Total " + label, segments_by_label.get(label), subtotal));
+        }
 
-            // Add subtotal row for each card type
-            model.addRow(new Object[]{
-                    "", "Total", total_qty,
-                    String.format("%.2f", total_gross),
-                    String.format("%.2f", total_net),
-                    String.format("%.2f", total_fee)
-            });
-            model.addRow(new Object[]{"", "", "", "", "", ""}); // Empty row
-
-            grand_qty += total_qty;
-            grand_gross += total_gross;
-            grand_net += total_net;
-            grand_fee += total_fee;
+        Report_Data report = new Report_Data(columns, column_types, groups, grand_total);
+        Metrics.end_report(span, by_terminal ? "terminal" : "location", report.get_row_count());
+        return report;
+    }
+
+    // History report from the rollup ledger, without reading any XML: the detail rows are the totals of one day
+    // (or month) and card type, grouped by date, card type or location like the reports above. Terminals are not
+    // kept in the ledger, so there is no terminal history
+    public static Report_Data build_history_report(String grouping, Transaction_Filter filter, boolean monthly,
+                                                   boolean ascending) throws IOException {
+        boolean by_location = "location".equals(grouping);
+        Transaction_Store totals = Rollup_Ledger.query(filter, monthly, by_location);
+        List<Transaction_Store> stores = Collections.singletonList(totals);
+        switch (grouping) {
+            case "card_type":
+                return build_card_type_report(Rollup_Cube.of(totals), stores);
+            case "location":
+                return build_location_report(stores, Transaction_Filter.none); // The ledger query applied the filter
+            case "date":
+                return build_date_report(Rollup_Cube.of(totals), stores, ascending);
+            default:
+                throw new IllegalArgumentException("No history report by " + grouping);
         }
+    }
 
-        // Add grand total row
-        model.addRow(new Object[]{
-                "", "Grand Total", grand_qty,
-                String.format("%.2f", grand_gross),
-                String.format("%.2f", grand_net),
-                String.format("%.2f", grand_fee)
-        });
+    // Display label of a location key, or of a (location, terminal) key
+    private static String key_label(Transaction_Store store, long key, boolean by_terminal) {
+        int location_id = (int) (by_terminal ? key >>> 32 : key);
+        String location = store.get_locations().value_of(location_id);
+        if (location.isEmpty()) location = "(no location)";
+        if (!by_terminal) return location;
 
-        JTable table = new JTable(model);
+        String terminal = store.get_terminals().value_of((int) key);
+        return location + " / " + (terminal.isEmpty() ? "(no terminal)" : terminal);
+    }
+
+    // Adds the detail rows of one (date, card type) cell from every store, in store order
+    private static void collect_segments(List<Transaction_Store> stores, String date, String type,
+                                         List<Report_Data.Segment> segments) {
+        for (Transaction_Store store : stores) {
+            int date_id = store.get_dates().find(date);
+            int type_id = store.get_card_types().find(type);
+            if (date_id < 0 || type_id < 0) continue;
+
+            int start = store.cell_start(date_id, type_id);
+            int end = store.cell_end(date_id, type_id);
+            if (end > start) segments.add(new Report_Data.Segment(store, start, end));
+        }
+    }
+
+    // Builds a non-editable table with detail rows, a subtotal and an empty row per group, and a grand total row;
+    // cells are computed on demand by the model, so building the table does not depend on the row count
+    public static JTable to_table(Report_Data report) {
+        JTable table = new JTable(new Report_Table_Model(report));
         table.setAutoResizeMode(JTable.AUTO_RESIZE_ALL_COLUMNS);
         table.setFillsViewportHeight(true);
         return table;
     }
+
+    // Wraps transaction objects in a single columnar store
+    private static List<Transaction_Store> to_stores(List<Card_Transaction> transactions) {
+        if (transactions == null || transactions.isEmpty()) return Collections.emptyList();
+        return Collections.singletonList(Transaction_Store.from_transactions(transactions));
+    }
 }
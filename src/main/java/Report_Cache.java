@@ -0,0 +1,200 @@
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+// Built reports, keyed by file selection, grouping, filter and the data version they were built from, so going
+// back to a view shown before does not build it again. Date reports are kept in one order only: the other sort
+// order is the same groups reversed. A cached report keeps the stores its rows point into in memory, even after
+// Store_Cache has dropped them, so the budget counts the records of those stores (each store once, however many
+// reports share it) and the least recently used reports are evicted once it is exceeded
+public class Report_Cache {
+
+    // Default budget in records of the stores the cached reports keep; override with -Dreport.cache.records
+    private static final long default_max_records = 5_000_000;
+
+    // Most reports kept at once, whatever their size; override with -Dreport.cache.entries
+    private static final int default_max_entries = 32;
+
+    // What a report was built from; the sort order is not part of it
+    private static final class Key {
+        final String selection;
+        final String grouping;
+        final Transaction_Filter filter;
+        final long version;
+
+        Key(String selection, String grouping, Transaction_Filter filter, long version) {
+            this.selection = selection;
+            this.grouping = grouping;
+            this.filter = filter;
+            this.version = version;
+        }
+
+        // Same view, maybe of another data version
+        boolean same_view(Key other) {
+            return selection.equals(other.selection) && grouping.equals(other.grouping) && filter.equals(other.filter);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && same_view((Key) other) && version == ((Key) other).version;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(selection, grouping, filter, version);
+        }
+    }
+
+    // One report, the date order it was built in and the stores it keeps
+    private static final class Entry {
+        final Report_Data report;
+        final boolean ascending;
+        final List<Transaction_Store> stores;
+
+        Entry(Report_Data report, boolean ascending) {
+            this.report = report;
+            this.ascending = ascending;
+            this.stores = report.get_stores();
+        }
+    }
+
+    // Access-ordered, so iteration starts at the least recently used entry; guarded by the class lock
+    private static final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Number of cached reports that keep each store, and the records of all those stores; guarded by the class lock
+    private static final IdentityHashMap<Transaction_Store, Integer> store_references = new IdentityHashMap<>();
+    private static long retained_records;
+    private static long max_records = Long.getLong("report.cache.records", default_max_records);
+    private static int max_entries = Integer.getInteger("report.cache.entries", default_max_entries);
+
+    // Counters since start (or since reset_counters)
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    // Returns the cached report of a view in the requested date order, or null. A date report cached in the other
+    // order is reversed, which only touches its groups
+    public static Report_Data get(String selection, String grouping, Transaction_Filter filter, long version,
+                                  boolean ascending) {
+        Entry entry;
+        synchronized (Report_Cache.class) {
+            entry = entries.get(new Key(selection, grouping, filter, version));
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.ascending == ascending || !is_date_ordered(grouping) ? entry.report : entry.report.reversed();
+    }
+
+    // Adds a freshly built report; versions of the same view built from older data are dropped. The version must
+    // be taken before building, so data that changes during the build is never cached under the newer version
+    public static void put(String selection, String grouping, Transaction_Filter filter, long version,
+                           boolean ascending, Report_Data report) {
+        Key key = new Key(selection, grouping, filter, version);
+        Entry entry = new Entry(report, ascending);
+        synchronized (Report_Cache.class) {
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, Entry> cached = it.next();
+                if (cached.getKey().same_view(key) && cached.getKey().version != version) {
+                    it.remove();
+                    release(cached.getValue());
+                }
+            }
+            Entry previous = entries.put(key, entry);
+            if (previous != null) release(previous);
+            retain(entry);
+            evict_to_budget(entry);
+        }
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+        store_references.clear();
+        retained_records = 0;
+    }
+
+    // Changes the budget (in records and reports) and evicts down to it right away
+    public static synchronized void set_limits(long records, int reports) {
+        max_records = Math.max(1, records);
+        max_entries = Math.max(1, reports);
+        evict_to_budget(null);
+    }
+
+    public static synchronized int get_entry_count() {
+        return entries.size();
+    }
+
+    // Records of the stores the cached reports keep, each store counted once
+    public static synchronized long get_retained_records() {
+        return retained_records;
+    }
+
+    public static long get_hits() {
+        return hits.get();
+    }
+
+    public static long get_misses() {
+        return misses.get();
+    }
+
+    public static long get_evictions() {
+        return evictions.get();
+    }
+
+    public static void reset_counters() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    // One-line summary for logs
+    public static synchronized String describe() {
+        return "Report cache: " + entries.size() + " report(s) keeping " + retained_records + " of " + max_records + " records; "
+                + hits.get() + " hits, " + misses.get() + " misses, " + evictions.get() + " evictions";
+    }
+
+    // Only date reports depend on the sort order (the other groupings have a fixed order)
+    private static boolean is_date_ordered(String grouping) {
+        return "date".equals(grouping);
+    }
+
+    // Evicts least recently used entries until both budgets are met; the entry just added is kept even if it
+    // alone is over budget, since its caller is about to show it
+    private static void evict_to_budget(Entry keep) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while ((retained_records > max_records || entries.size() > max_entries) && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            if (eldest == keep) continue;
+            it.remove();
+            release(eldest);
+            evictions.incrementAndGet();
+        }
+    }
+
+    // Counts the stores of an entry that was added; a store already kept by another report adds nothing
+    private static void retain(Entry entry) {
+        for (Transaction_Store store : entry.stores) {
+            if (store_references.merge(store, 1, Integer::sum) == 1) retained_records += store.size();
+        }
+    }
+
+    // Counts down the stores of an entry that was removed; a store no other report keeps is no longer counted
+    private static void release(Entry entry) {
+        for (Transaction_Store store : entry.stores) {
+            Integer references = store_references.get(store);
+            if (references == null) continue;
+            if (references == 1) {
+                store_references.remove(store);
+                retained_records -= store.size();
+            } else {
+                store_references.put(store, references - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+// Result of a grouped report, independent of Swing: column names, groups of detail rows with subtotals, and a grand total
+public class Report_Data {
+
+    // Value type of a report column, used by exporters instead of guessing from cell text
+    public enum Column_Type { TEXT, DATE, INTEGER, MONEY }
+
+    // Kind of a report row; every group is followed by a subtotal row and an empty row
+    public enum Row_Kind { DETAIL, SUBTOTAL, EMPTY, GRAND_TOTAL }
+
+    // A run of detail rows: positions [start, end) in the grouped order of one store, or in an explicit row order
+    public static final class Segment {
+        final Transaction_Store store;
+        final int[] order; // null for the store's (date, card type) grouped order
+        final int start;
+        final int end;
+
+        public Segment(Transaction_Store store, int start, int end) {
+            this(store, null, start, end);
+        }
+
+        // Segment over positions of a row order built by the caller (e.g. rows sorted by location)
+        public Segment(Transaction_Store store, int[] order, int start, int end) {
+            this.store = store;
+            this.order = order;
+            this.start = start;
+            this.end = end;
+        }
+
+        // Number of detail rows in the segment
+        public int size() {
+            return end - start;
+        }
+
+        public Transaction_Store get_store() {
+            return store;
+        }
+
+        // Store row of the n-th detail row of the segment
+        public int row(int index) {
+            return order != null ? order[start + index] : store.grouped_row(start + index);
+        }
+    }
+
+    // One report group (a date or a card type): its detail rows in display order and its subtotal
+    public static final class Group {
+        final String label;
+        final String total_label;
+        final List<Segment> segments;
+        final Totals subtotal;
+        final int detail_count;
+
+        public Group(String label, List<Segment> segments, Totals subtotal) {
+            this(label, "Total", segments, subtotal);
+        }
+
+        // Group whose subtotal row names it, for groupings that are not one of the detail columns (e.g. location)
+        public Group(String label, String total_label, List<Segment> segments, Totals subtotal) {
+            this.label = label;
+            this.total_label = total_label;
+            this.segments = Collections.unmodifiableList(segments);
+            this.subtotal = subtotal;
+            int count = 0;
+            for (Segment segment : segments) count += segment.size();
+            this.detail_count = count;
+        }
+
+        public String get_label() {
+            return label;
+        }
+
+        public List<Segment> get_segments() {
+            return segments;
+        }
+
+        public Totals get_subtotal() {
+            return subtotal;
+        }
+
+        public int get_detail_count() {
+            return detail_count;
+        }
+    }
+
+    // Column headers and value types, in display order
+    private final String[] columns;
+    private final Column_Type[] column_types;
+
+    // Groups in display order
+    private final List<Group> groups;
+
+    // Totals over all groups
+    private final Totals grand_total;
+
+    // First row of every group, and the offset of every segment inside its group's detail rows
+    private final int[] group_starts;
+    private final int[][] segment_starts;
+
+    // Number of rows, including subtotal, empty and grand total rows
+    private final int row_count;
+
+    public Report_Data(String[] columns, Column_Type[] column_types, List<Group> groups, Totals grand_total) {
+        this.columns = columns.clone();
+        this.column_types = column_types.clone();
+        this.groups = Collections.unmodifiableList(groups);
+        this.grand_total = grand_total;
+
+        group_starts = new int[groups.size()];
+        segment_starts = new int[groups.size()][];
+
+        int row = 0;
+        for (int g = 0; g < groups.size(); g++) {
+            Group group = groups.get(g);
+            group_starts[g] = row;
+
+            int[] starts = new int[group.segments.size()];
+            int offset = 0;
+            for (int s = 0; s < starts.length; s++) {
+                starts[s] = offset;
+                offset += group.segments.get(s).size();
+            }
+            segment_starts[g] = starts;
+
+            row += group.detail_count + 2; // Subtotal row and empty row
+        }
+        row_count = groups.isEmpty() ? 0 : row + 1; // Grand total row
+    }
+
+    public int get_column_count() {
+        return columns.length;
+    }
+
+    public String get_column_name(int column) {
+        return columns[column];
+    }
+
+    public Column_Type get_column_type(int column) {
+        return column_types[column];
+    }
+
+    public List<Group> get_groups() {
+        return groups;
+    }
+
+    public Totals get_grand_total() {
+        return grand_total;
+    }
+
+    // Number of rows as displayed: detail rows, a subtotal and an empty row per group, and the grand total
+    public int get_row_count() {
+        return row_count;
+    }
+
+    // Stores the detail rows point into, each once; they stay in memory as long as the report does
+    public List<Transaction_Store> get_stores() {
+        Set<Transaction_Store> stores = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Group group : groups) {
+            for (Segment segment : group.segments) stores.add(segment.store);
+        }
+        return new ArrayList<>(stores);
+    }
+
+    // True when the report has no detail rows at all
+    public boolean is_empty() {
+        return groups.isEmpty();
+    }
+
+    // Same report with the groups in reverse order (e.g. newest dates first instead of oldest); the groups are
+    // shared, not copied
+    public Report_Data reversed() {
+        List<Group> reversed_groups = new ArrayList<>(groups);
+        Collections.reverse(reversed_groups);
+        return new Report_Data(columns, column_types, reversed_groups, grand_total);
+    }
+
+    // Creates a cursor for random or sequential row access; each reader (table, exporter) uses its own
+    public Row_Cursor new_cursor() {
+        return new Row_Cursor();
+    }
+
+    // Positions on one report row at a time and exposes its kind and typed values (not thread-safe)
+    public final class Row_Cursor {
+        private int row = -1;
+        private Row_Kind kind;
+        private Group group;
+        private Transaction_Store store;
+        private int store_row;
+
+        // Moves to a row: binary search for the group, then for the segment inside it
+        public void move_to(int target) {
+            if (target == row) return;
+            row = target;
+            store = null;
+
+            if (target == row_count - 1) {
+                kind = Row_Kind.GRAND_TOTAL;
+                group = null;
+                return;
+            }
+
+            int g = find_last_at_most(group_starts, target);
+            group = groups.get(g);
+            int offset = target - group_starts[g];
+
+            if (offset < group.detail_count) {
+                int[] starts = segment_starts[g];
+                int s = find_last_at_most(starts, offset);
+                Segment segment = group.segments.get(s);
+                kind = Row_Kind.DETAIL;
+                store = segment.store;
+                store_row = segment.row(offset - starts[s]);
+            } else {
+                kind = offset == group.detail_count ? Row_Kind.SUBTOTAL : Row_Kind.EMPTY;
+            }
+        }
+
+        public Row_Kind get_kind() {
+            return kind;
+        }
+
+        // Store and row of a DETAIL row
+        public Transaction_Store get_store() {
+            return store;
+        }
+
+        public int get_store_row() {
+            return store_row;
+        }
+
+        // Totals of a SUBTOTAL or GRAND_TOTAL row
+        public Totals get_totals() {
+            return kind == Row_Kind.GRAND_TOTAL ? grand_total : group.subtotal;
+        }
+
+        // Label shown in the card type column of total rows
+        public String get_total_label() {
+            return kind == Row_Kind.GRAND_TOTAL ? "Grand Total" : group.total_label;
+        }
+
+        // Cell value as displayed: raw values for transactions, exact two-decimal amounts for totals
+        public Object get_value(int column) {
+            switch (kind) {
+                case DETAIL:
+                    switch (column) {
+                        case 0: return store.get_batch_date(store_row);
+                        case 1: return store.get_card_type(store_row);
+                        case 2: return store.get_quantity(store_row);
+                        case 3: return store.get_gross_amount(store_row);
+                        case 4: return store.get_net_amount(store_row);
+                        case 5: return store.get_fee(store_row);
+                        default: return "";
+                    }
+                case SUBTOTAL:
+                case GRAND_TOTAL: {
+                    Totals totals = get_totals();
+                    switch (column) {
+                        case 1: return get_total_label();
+                        case 2: return totals.get_quantity();
+                        case 3: return Fixed_Point.format_cents(totals.get_gross_cents());
+                        case 4: return Fixed_Point.format_cents(totals.get_net_cents());
+                        case 5: return Fixed_Point.format_cents(totals.get_fee_cents());
+                        default: return "";
+                    }
+                }
+                default:
+                    return ""; // Empty row between groups
+            }
+        }
+    }
+
+    // Index of the last element that is <= value in a sorted array
+    private static int find_last_at_most(int[] sorted, int value) {
+        int low = 0, high = sorted.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (sorted[mid] <= value) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
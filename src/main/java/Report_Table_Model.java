@@ -0,0 +1,43 @@
+import javax.swing.table.AbstractTableModel;
+// Read-only table model that computes report cells on demand from Report_Data instead of holding one Object[] per row
+@SuppressWarnings("serial") // Never serialized
+public class Report_Table_Model extends AbstractTableModel {
+
+    // Report shown by this model
+    private final Report_Data report;
+
+    // Resolves table rows; the table asks for every column of a row in turn, so the last row is remembered
+    private final Report_Data.Row_Cursor cursor;
+
+    public Report_Table_Model(Report_Data report) {
+        this.report = report;
+        this.cursor = report.new_cursor();
+    }
+
+    // Report behind the table (used by the exporters)
+    public Report_Data get_report() {
+        return report;
+    }
+
+    @Override
+    public int getRowCount() {
+        return report.get_row_count();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return report.get_column_count();
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return report.get_column_name(column);
+    }
+
+    // Synchronized because the cursor is shared; exports may read the model off the EDT
+    @Override
+    public synchronized Object getValueAt(int row, int column) {
+        cursor.move_to(row);
+        return cursor.get_value(column); // Amounts of total rows are formatted only when displayed
+    }
+}
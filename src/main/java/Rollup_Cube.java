@@ -0,0 +1,181 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+// Pre-aggregated (batch date x card type) totals for one file, or several files merged together
+public class Rollup_Cube {
+
+    // Totals per batch date, then per card type
+    private final Map<String, Map<String, Totals>> cells = new HashMap<>();
+
+    // Builds the cube of a store in one pass over its columns
+    public static Rollup_Cube of(Transaction_Store store) {
+        int date_count = store.get_dates().size();
+        int type_count = store.get_card_types().size();
+        Totals[] by_cell = new Totals[date_count * type_count];
+
+        for (int row = 0; row < store.size(); row++) {
+            int cell = store.get_date_id(row) * type_count + store.get_card_type_id(row);
+            Totals totals = by_cell[cell];
+            if (totals == null) by_cell[cell] = totals = new Totals();
+            totals.add(store.get_quantity(row), store.get_gross_cents(row), store.get_net_cents(row), store.get_fee_cents(row));
+        }
+
+        Rollup_Cube cube = new Rollup_Cube();
+        for (int cell = 0; cell < by_cell.length; cell++) {
+            if (by_cell[cell] == null) continue;
+            String date = store.get_dates().value_of(cell / type_count);
+            String card_type = store.get_card_types().value_of(cell % type_count);
+            cube.cells.computeIfAbsent(date, key -> new HashMap<>()).put(card_type, by_cell[cell]);
+        }
+        return cube;
+    }
+
+    // Builds one cube covering several stores
+    public static Rollup_Cube of(List<Transaction_Store> stores) {
+        Rollup_Cube merged = new Rollup_Cube();
+        for (Transaction_Store store : stores) merged.add_all(of(store));
+        return merged;
+    }
+
+    // Merges several cubes into a new one; the inputs are left untouched
+    public static Rollup_Cube merge(Collection<Rollup_Cube> cubes) {
+        Rollup_Cube merged = new Rollup_Cube();
+        for (Rollup_Cube cube : cubes) merged.add_all(cube);
+        return merged;
+    }
+
+    // Same as merge, but halves of the list are merged on the fork-join pool and then combined (used for the
+    // totals across input shards); the inputs are left untouched
+    public static Rollup_Cube merge_parallel(List<Rollup_Cube> cubes) {
+        if (cubes.size() <= 2) return merge(cubes);
+        return ForkJoinPool.commonPool().invoke(new Merge_Task(cubes));
+    }
+
+    // Merges one half of a list of cubes into a new cube
+    @SuppressWarnings("serial") // Never serialized
+    private static final class Merge_Task extends RecursiveTask<Rollup_Cube> {
+        private final List<Rollup_Cube> cubes;
+
+        Merge_Task(List<Rollup_Cube> cubes) {
+            this.cubes = cubes;
+        }
+
+        @Override
+        protected Rollup_Cube compute() {
+            if (cubes.size() <= 2) return merge(cubes);
+            int middle = cubes.size() / 2;
+            Merge_Task right = new Merge_Task(cubes.subList(middle, cubes.size()));
+            right.fork();
+            Rollup_Cube merged = new Merge_Task(cubes.subList(0, middle)).compute();
+            merged.add_all(right.join()); // Both halves are new cubes, so the left one can take the right one in
+            return merged;
+        }
+    }
+
+    // Adds every cell of another cube into this one
+    public void add_all(Rollup_Cube other) {
+        for (Map.Entry<String, Map<String, Totals>> date_entry : other.cells.entrySet()) {
+            Map<String, Totals> target = cells.computeIfAbsent(date_entry.getKey(), key -> new HashMap<>());
+            for (Map.Entry<String, Totals> type_entry : date_entry.getValue().entrySet()) {
+                Totals totals = target.get(type_entry.getKey());
+                if (totals == null) {
+                    target.put(type_entry.getKey(), type_entry.getValue().copy());
+                } else {
+                    totals.add(type_entry.getValue());
+                }
+            }
+        }
+    }
+
+    // Removes every cell of a cube that was added before; cells left without rows disappear
+    public void subtract_all(Rollup_Cube other) {
+        for (Map.Entry<String, Map<String, Totals>> date_entry : other.cells.entrySet()) {
+            Map<String, Totals> target = cells.get(date_entry.getKey());
+            if (target == null) continue;
+            for (Map.Entry<String, Totals> type_entry : date_entry.getValue().entrySet()) {
+                Totals totals = target.get(type_entry.getKey());
+                if (totals == null) continue;
+                totals.subtract(type_entry.getValue());
+                if (totals.get_row_count() <= 0) target.remove(type_entry.getKey());
+            }
+            if (target.isEmpty()) cells.remove(date_entry.getKey());
+        }
+    }
+
+    // New cube with only the cells whose date and card type pass a filter
+    public Rollup_Cube filter(Transaction_Filter filter) {
+        Rollup_Cube filtered = new Rollup_Cube();
+        for (Map.Entry<String, Map<String, Totals>> date_entry : cells.entrySet()) {
+            if (!filter.accepts_day(Transaction_Filter.to_epoch_day(date_entry.getKey()))) continue;
+            Map<String, Totals> target = new HashMap<>();
+            for (Map.Entry<String, Totals> type_entry : date_entry.getValue().entrySet()) {
+                if (filter.accepts_card_type(type_entry.getKey())) target.put(type_entry.getKey(), type_entry.getValue().copy());
+            }
+            if (!target.isEmpty()) filtered.cells.put(date_entry.getKey(), target);
+        }
+        return filtered;
+    }
+
+    // Removes all cells
+    public void clear() {
+        cells.clear();
+    }
+
+    // True when no transactions were added
+    public boolean is_empty() {
+        return cells.isEmpty();
+    }
+
+    // All batch dates in the cube
+    public Set<String> get_dates() {
+        return Collections.unmodifiableSet(cells.keySet());
+    }
+
+    // Card types that occur on the given date
+    public Set<String> get_card_types(String date) {
+        Map<String, Totals> by_type = cells.get(date);
+        return by_type != null ? Collections.unmodifiableSet(by_type.keySet()) : Collections.emptySet();
+    }
+
+    // All card types in the cube
+    public Set<String> get_card_types() {
+        Set<String> types = new HashSet<>();
+        for (Map<String, Totals> by_type : cells.values()) types.addAll(by_type.keySet());
+        return types;
+    }
+
+    // Totals of one (date, card type) cell, or null if the cell is empty
+    public Totals get(String date, String card_type) {
+        Map<String, Totals> by_type = cells.get(date);
+        return by_type != null ? by_type.get(card_type) : null;
+    }
+
+    // Totals of all card types on one date
+    public Totals date_total(String date) {
+        Totals total = new Totals();
+        Map<String, Totals> by_type = cells.get(date);
+        if (by_type != null) {
+            for (Totals totals : by_type.values()) total.add(totals);
+        }
+        return total;
+    }
+
+    // Totals of one card type across all dates
+    public Totals card_type_total(String card_type) {
+        Totals total = new Totals();
+        for (Map<String, Totals> by_type : cells.values()) {
+            Totals totals = by_type.get(card_type);
+            if (totals != null) total.add(totals);
+        }
+        return total;
+    }
+
+    // Totals of the whole cube
+    public Totals grand_total() {
+        Totals total = new Totals();
+        for (Map<String, Totals> by_type : cells.values()) {
+            for (Totals totals : by_type.values()) total.add(totals);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,701 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+// Append-only on-disk ledger of daily (batch date x card type x location) totals of every file ever ingested, so
+// history reports over years of data come from a few kilobytes per file instead of re-parsing the XML (which may
+// be archived by then). Entries are identified by file content (hash and size), so a file that was moved or whose
+// input root changed is not counted twice; a file that changes gets a new entry that supersedes the old one.
+// Compaction drops the superseded entries, and the ledger can be rebuilt from the source files at any time
+public class Rollup_Ledger {
+
+    // File signature ("CTLG") and format version; bump the version whenever the layout below changes
+    private static final int MAGIC = 0x43544C47;
+    static final int FORMAT_VERSION = 2; // 2: content hash
+
+    // Layout (big-endian): int magic, int version, then one entry per ingested file version:
+    //   int body length, body, int crc32 of the body
+    //   body: source path, long size, long mtime, long content hash (first 64 bits of the SHA-256 of the file),
+    //   card type and location dictionaries (int count, then int byte
+    //   length + UTF-8 bytes per value), int first day, int last day, int cell count, cells sorted by epoch day
+    //   cell: int epoch day, int card type id, int location id, int transaction count,
+    //         long quantity, long gross cents, long net cents, long fee cents
+    private static final int header_bytes = 8;
+    private static final int cell_bytes = 48;
+
+    // Superseded entries are compacted away once they take up more than this and more than the live entries
+    private static final long compact_threshold_bytes = 1 << 20;
+
+    // Ledger file (next to the app); can be pointed elsewhere with -Dledger.file
+    private static File ledger_file = new File(System.getProperty("ledger.file", "ledger" + File.separator + "rollups.ledger"));
+
+    // The ledger can be switched off, e.g. for one-off runs over foreign data
+    private static volatile boolean enabled = !"false".equalsIgnoreCase(System.getProperty("ledger.enabled"));
+
+    // One file version in the ledger: where its cells are and the dictionaries they refer to
+    private static final class Entry {
+        final String source;
+        final long size;
+        final long mtime;
+        final long content_hash;
+        final long position; // Of the length field
+        final int length; // Whole entry, including the length field and the checksum
+        final String[] card_types;
+        final String[] locations;
+        final int first_day;
+        final int last_day;
+        final long cells_position;
+        final int cell_count;
+
+        Entry(String source, long size, long mtime, long content_hash, long position, int length, String[] card_types,
+              String[] locations, int first_day, int last_day, long cells_position, int cell_count) {
+            this.source = source;
+            this.size = size;
+            this.mtime = mtime;
+            this.content_hash = content_hash;
+            this.position = position;
+            this.length = length;
+            this.card_types = card_types;
+            this.locations = locations;
+            this.first_day = first_day;
+            this.last_day = last_day;
+            this.cells_position = cells_position;
+            this.cell_count = cell_count;
+        }
+
+        String content_key() {
+            return Rollup_Ledger.content_key(content_hash, size);
+        }
+    }
+
+    // Single background thread that hashes recorded files and appends their entries, so loading and report builds
+    // never wait for the ledger. Entries still queued when the app exits are recorded the next time the files load
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "rollup-ledger-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // State of the opened ledger; everything below is guarded by the class lock and null/0 until first use
+    private static Map<String, Entry> live_entries; // Latest entry per content key (see content_key)
+    private static Map<String, Entry> path_entries; // Live entry per source path, including copies seen this session
+    private static long file_length;
+    private static long dead_bytes; // Bytes of superseded entries
+    // Read-only view of the file, remapped after appends. Windows cannot replace, truncate or delete a mapped file,
+    // so it is released (Mapped_Buffers.unmap) before any of that; nothing read from it is kept past the lock
+    private static MappedByteBuffer mapped;
+
+    // Adds the rollup of a freshly ingested file (size and mtime read before it was parsed), unless the ledger
+    // already has it: the same version at this path, or the same content at a path that still holds it (a copy in
+    // another input root). Content found under a path that no longer holds it was moved, and is recorded again
+    // under the new path, superseding the old entry. Only the grouping into cells runs on the calling thread; the
+    // file is hashed and the entry appended by the writer thread. Failures are logged and never affect loading
+    public static void record(File file, long size, long mtime, Transaction_Store store) {
+        if (!enabled) return;
+        String source = file.getAbsolutePath();
+        synchronized (Rollup_Ledger.class) {
+            try {
+                open();
+            } catch (IOException e) {
+                System.out.println("Could not open the rollup ledger: " + e);
+                return;
+            }
+            if (is_recorded(source, size, mtime)) return;
+        }
+        byte[] entry = encode_entry(source, size, mtime, store); // A few KB; the store itself is not kept
+        writer.execute(() -> write(file, size, mtime, entry));
+    }
+
+    // Writer thread: hashes the file and appends its entry, unless the file changed since the parse (it is recorded
+    // when read again) or the ledger got this version or content in the meantime
+    private static void write(File file, long size, long mtime, byte[] entry) {
+        String source = file.getAbsolutePath();
+        synchronized (Rollup_Ledger.class) {
+            try {
+                open();
+            } catch (IOException e) {
+                System.out.println("Could not open the rollup ledger: " + e);
+                return;
+            }
+            if (is_recorded(source, size, mtime)) return; // Loaded twice before it was written
+        }
+
+        // Outside the lock: queries are not held up by the hashing
+        long content_hash;
+        try {
+            content_hash = hash_file(file);
+        } catch (IOException e) {
+            System.out.println("Could not write the rollup ledger for: " + file.getName() + " (" + e + ")");
+            return;
+        }
+        if (file.length() != size || file.lastModified() != mtime) return;
+
+        synchronized (Rollup_Ledger.class) {
+            try {
+                open(); // Again: the ledger may have been closed (set_file, rebuild) while hashing
+                if (is_recorded(source, size, mtime)) return;
+                Entry same_content = live_entries.get(content_key(content_hash, size));
+                if (same_content != null && holds(same_content)) {
+                    path_entries.put(source, same_content); // Already counted; remembered so the file is not hashed again
+                    return;
+                }
+                seal(entry, content_hash);
+                append(entry);
+                if (dead_bytes > compact_threshold_bytes && dead_bytes > file_length - dead_bytes) compact_now();
+            } catch (IOException e) {
+                System.out.println("Could not write the rollup ledger for: " + file.getName() + " (" + e + ")");
+            }
+        }
+    }
+
+    // Waits until the files recorded so far are written (or failed). The readers below call it first, so they see
+    // every file loaded before them; an interrupt ends the wait early and stays set
+    public static void flush() {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e); // The empty task cannot fail
+        }
+    }
+
+    // Daily totals of every ingested file that pass the filter, as a store with one row per (day or month,
+    // card type) and, when by_location is set, per location. Batch dates are the period labels (yyyy-MM-dd or
+    // yyyy-MM); only the entries whose date range overlaps the filter are read, from the first matching day on
+    public static Transaction_Store query(Transaction_Filter filter, boolean monthly, boolean by_location)
+            throws IOException {
+        flush();
+        synchronized (Rollup_Ledger.class) {
+            return query_now(filter, monthly, by_location);
+        }
+    }
+
+    private static Transaction_Store query_now(Transaction_Filter filter, boolean monthly, boolean by_location)
+            throws IOException {
+        open();
+        map();
+        int from_day = filter.has_date_range() ? filter.from_day() : Transaction_Filter.no_day;
+        int to_day = filter.to_day();
+
+        // Sums per period (in date order), card type and location; values are {count, qty, gross, net, fee}
+        Map<String, Map<String, Map<String, long[]>>> sums = new TreeMap<>();
+        for (Entry entry : live_entries.values()) {
+            if (entry.cell_count == 0 || entry.last_day < from_day || entry.first_day > to_day) continue;
+            for (int cell = first_cell(entry, from_day); cell < entry.cell_count; cell++) {
+                int position = (int) (entry.cells_position + (long) cell * cell_bytes);
+                int day = mapped.getInt(position);
+                if (day > to_day) break;
+                String card_type = entry.card_types[mapped.getInt(position + 4)];
+                if (!filter.accepts_card_type(card_type)) continue;
+                String location = by_location ? entry.locations[mapped.getInt(position + 8)] : "";
+
+                long[] sum = sums.computeIfAbsent(period_of(day, monthly), key -> new HashMap<>())
+                        .computeIfAbsent(card_type, key -> new HashMap<>())
+                        .computeIfAbsent(location, key -> new long[5]);
+                sum[0] += mapped.getInt(position + 12);
+                sum[1] += mapped.getLong(position + 16);
+                sum[2] += mapped.getLong(position + 24);
+                sum[3] += mapped.getLong(position + 32);
+                sum[4] += mapped.getLong(position + 40);
+            }
+        }
+
+        Transaction_Store store = new Transaction_Store();
+        for (Map.Entry<String, Map<String, Map<String, long[]>>> period : sums.entrySet()) {
+            for (Map.Entry<String, Map<String, long[]>> card_type : period.getValue().entrySet()) {
+                for (Map.Entry<String, long[]> location : card_type.getValue().entrySet()) {
+                    long[] sum = location.getValue();
+                    store.add(period.getKey(), card_type.getKey(), location.getKey(), "", "", sum[1], sum[2], sum[3], sum[4]);
+                }
+            }
+        }
+        store.trim();
+        return store;
+    }
+
+    // True when this version of the file (same size and modification time) is in the ledger
+    private static boolean is_recorded(String source, long size, long mtime) {
+        Entry latest = path_entries.get(source);
+        return latest != null && latest.size == size && latest.mtime == mtime;
+    }
+
+    // True when the path an entry was recorded from still holds a file of that size, i.e. the content was not moved
+    private static boolean holds(Entry entry) {
+        return new File(entry.source).length() == entry.size;
+    }
+
+    // Key of a file content; the hash alone is not trusted, the size has to match too
+    private static String content_key(long content_hash, long size) {
+        return Long.toHexString(content_hash) + ":" + size;
+    }
+
+    // First 64 bits of the SHA-256 of a file, read through mappings that are released right away
+    private static long hash_file(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every Java platform has SHA-256
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(size - position, Integer.MAX_VALUE);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                try {
+                    digest.update(region);
+                } finally {
+                    Mapped_Buffers.unmap(region);
+                }
+                position += length;
+            }
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    // Card types that occur anywhere in the ledger
+    public static Set<String> get_card_types() throws IOException {
+        flush();
+        synchronized (Rollup_Ledger.class) {
+            open();
+            Set<String> types = new TreeSet<>();
+            for (Entry entry : live_entries.values()) types.addAll(Arrays.asList(entry.card_types));
+            return types;
+        }
+    }
+
+    // Number of source files in the ledger
+    public static int get_file_count() throws IOException {
+        flush();
+        synchronized (Rollup_Ledger.class) {
+            open();
+            return live_entries.size();
+        }
+    }
+
+    // Rewrites the ledger with only the latest entry of each file, ordered by date; the new file replaces the old
+    // one atomically, so a crash leaves either of them
+    public static void compact() throws IOException {
+        flush();
+        synchronized (Rollup_Ledger.class) {
+            compact_now();
+        }
+    }
+
+    private static void compact_now() throws IOException {
+        open();
+        if (dead_bytes == 0 || file_length == 0) return;
+        map();
+
+        List<Entry> entries = new ArrayList<>(live_entries.values());
+        entries.sort((a, b) -> Integer.compare(a.first_day, b.first_day));
+
+        File folder = ledger_file.getAbsoluteFile().getParentFile();
+        File temp = Files.createTempFile(folder.toPath(), ledger_file.getName() + ".", ".tmp").toFile();
+        try {
+            try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+                write_fully(out, header());
+                for (Entry entry : entries) {
+                    ByteBuffer bytes = mapped.duplicate();
+                    bytes.limit((int) (entry.position + entry.length)).position((int) entry.position);
+                    write_fully(out, bytes);
+                }
+                out.force(true);
+            }
+            close(); // Releases the mapping, which would keep the file from being replaced on Windows
+            Files.move(temp.toPath(), ledger_file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            if (temp.exists()) temp.delete(); // Only left when writing or moving it failed
+        }
+        open();
+    }
+
+    // Deletes the ledger and records every given file again from its current content (snapshots are used where
+    // they are still valid); returns the number of files recorded. Fails if the old ledger cannot be deleted
+    public static int rebuild(List<File> files) throws IOException {
+        flush();
+        synchronized (Rollup_Ledger.class) {
+            close();
+            if (ledger_file.exists() && !ledger_file.delete()) {
+                throw new IOException("Could not delete the rollup ledger (is it open in another program?): " + ledger_file);
+            }
+        }
+        int recorded = 0;
+        for (File file : files) {
+            long size = file.length();
+            long mtime = file.lastModified();
+            try {
+                record(file, size, mtime, XML_Parser.parse_file_or_throw(file));
+                recorded++;
+            } catch (Exception e) {
+                System.out.println("Error reading file: " + file.getName() + " (" + e + ")");
+            }
+        }
+        flush();
+        return recorded;
+    }
+
+    // Turns ledger writes on or off
+    public static void set_enabled(boolean value) {
+        enabled = value;
+    }
+
+    // Uses another ledger file from now on (the current one is closed, not deleted)
+    public static void set_file(File file) {
+        flush(); // Files recorded before still go to the old ledger
+        synchronized (Rollup_Ledger.class) {
+            close();
+            ledger_file = file;
+        }
+    }
+
+    public static synchronized File get_file() {
+        return ledger_file;
+    }
+
+    // Command-line tool: java -cp app.jar Rollup_Ledger rebuild [xml folder...] | compact | info
+    public static void main(String[] args) throws IOException {
+        String command = args.length > 0 ? args[0] : "info";
+        long start = System.currentTimeMillis();
+        switch (command) {
+            case "rebuild": {
+                List<File> files = new ArrayList<>();
+                List<String> folders = args.length > 1 ? Arrays.asList(args).subList(1, args.length) : Collections.singletonList("xml_files");
+                for (String folder : folders) files.addAll(Program_Manager.get_all_files(new File(folder)));
+                int recorded = rebuild(files);
+                System.out.println("Recorded " + recorded + " file(s) in " + ledger_file.getAbsolutePath()
+                        + " in " + (System.currentTimeMillis() - start) + " ms");
+                break;
+            }
+            case "compact":
+                compact();
+                System.out.println("Compacted " + ledger_file.getAbsolutePath() + " to " + ledger_file.length()
+                        + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+                break;
+            case "info":
+                System.out.println(describe());
+                break;
+            default:
+                System.out.println("Usage: java -cp CardTransactionAnalyzer.jar Rollup_Ledger rebuild [xml folder...] | compact | info");
+        }
+    }
+
+    // One-line summary, e.g. "Ledger: 120 files, 4.1 MB (0.3 MB superseded)"
+    public static String describe() throws IOException {
+        flush();
+        synchronized (Rollup_Ledger.class) {
+            open();
+            return String.format("Ledger: %d files, %.1f MB (%.1f MB superseded)", live_entries.size(),
+                    file_length / 1e6, dead_bytes / 1e6);
+        }
+    }
+
+    // Reads the entry index of the ledger file once; a torn last entry (e.g. after a crash) is cut off and a
+    // ledger of another format is started over
+    private static void open() throws IOException {
+        if (live_entries != null) return;
+        live_entries = new LinkedHashMap<>();
+        path_entries = new HashMap<>();
+        file_length = 0;
+        dead_bytes = 0;
+        if (!ledger_file.isFile()) return;
+
+        long valid_length;
+        boolean outdated_format = false;
+        try (FileChannel channel = FileChannel.open(ledger_file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Ledger larger than 2 GB, compact or rebuild it");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped = buffer; // Released by close() or below
+            if (size < header_bytes || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+                outdated_format = true;
+                valid_length = 0;
+            } else {
+                long position = header_bytes;
+                while (true) {
+                    Entry entry = read_entry(buffer, position);
+                    if (entry == null) break;
+                    add_live(entry);
+                    position += entry.length;
+                }
+                valid_length = position;
+                if (valid_length < size) {
+                    System.out.println("Cutting off a damaged rollup ledger entry at byte " + valid_length);
+                }
+            }
+            file_length = size;
+        }
+
+        if (outdated_format) {
+            System.out.println("Starting a new rollup ledger (old format): " + ledger_file);
+            release_mapping();
+            live_entries.clear();
+            path_entries.clear();
+            file_length = 0;
+            if (!ledger_file.delete()) throw new IOException("Could not delete " + ledger_file);
+        } else if (valid_length < file_length) {
+            release_mapping();
+            try (FileChannel channel = FileChannel.open(ledger_file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(valid_length);
+            }
+            file_length = valid_length;
+        }
+    }
+
+    // Forgets the opened state and releases the mapping; the next use reads the file again
+    private static void close() {
+        live_entries = null;
+        path_entries = null;
+        release_mapping();
+        file_length = 0;
+        dead_bytes = 0;
+    }
+
+    private static void release_mapping() {
+        Mapped_Buffers.unmap(mapped);
+        mapped = null;
+    }
+
+    // Maps the whole file (again after it grew)
+    private static void map() throws IOException {
+        if (file_length == 0 || (mapped != null && mapped.capacity() >= file_length)) return;
+        release_mapping();
+        try (FileChannel channel = FileChannel.open(ledger_file.toPath(), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, file_length);
+        }
+    }
+
+    // Appends an encoded entry (and the file header for a new ledger) and adds it to the index
+    private static void append(byte[] entry) throws IOException {
+        if (file_length + entry.length > Integer.MAX_VALUE) throw new IOException("Ledger full (2 GB), compact or rebuild it");
+        File folder = ledger_file.getAbsoluteFile().getParentFile();
+        if (folder != null) Files.createDirectories(folder.toPath());
+
+        try (FileChannel channel = FileChannel.open(ledger_file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (file_length == 0) {
+                release_mapping(); // An empty or damaged file that was mapped by open
+                channel.truncate(0);
+                write_fully(channel, header());
+                file_length = header_bytes;
+            }
+            channel.position(file_length);
+            write_fully(channel, ByteBuffer.wrap(entry));
+        }
+
+        Entry added = read_entry(ByteBuffer.wrap(entry), 0);
+        add_live(relocate(added, file_length));
+        file_length += entry.length;
+    }
+
+    // Makes an entry live. It supersedes the entry of the same content (recorded from elsewhere before the file
+    // was moved) and the entry last recorded from the same path (an older version of the file)
+    private static void add_live(Entry entry) {
+        Entry same_content = live_entries.put(entry.content_key(), entry);
+        if (same_content != null) supersede(same_content);
+
+        Entry same_path = path_entries.put(entry.source, entry);
+        if (same_path != null && same_path != same_content && same_path.source.equals(entry.source)
+                && live_entries.get(same_path.content_key()) == same_path) {
+            live_entries.remove(same_path.content_key());
+            supersede(same_path);
+        }
+    }
+
+    // Counts a replaced entry as dead and forgets every path that pointed to it
+    private static void supersede(Entry entry) {
+        dead_bytes += entry.length;
+        path_entries.values().removeIf(live -> live == entry);
+    }
+
+    // Same entry at another file position
+    private static Entry relocate(Entry entry, long offset) {
+        return new Entry(entry.source, entry.size, entry.mtime, entry.content_hash, entry.position + offset, entry.length,
+                entry.card_types, entry.locations, entry.first_day, entry.last_day, entry.cells_position + offset,
+                entry.cell_count);
+    }
+
+    // Decodes the entry at a position, or returns null at the end of the data or at a torn or damaged entry
+    private static Entry read_entry(ByteBuffer buffer, long position) {
+        int start = (int) position;
+        if (start + 4 > buffer.limit()) return null;
+        int body_length = buffer.getInt(start);
+        if (body_length < 0 || (long) start + 8 + body_length > buffer.limit()) return null;
+
+        ByteBuffer body = buffer.duplicate();
+        body.limit(start + 4 + body_length).position(start + 4);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(start + 4 + body_length)) return null;
+
+        try {
+            String source = read_string(body);
+            long size = body.getLong();
+            long mtime = body.getLong();
+            long content_hash = body.getLong();
+            String[] card_types = read_dictionary(body);
+            String[] locations = read_dictionary(body);
+            int first_day = body.getInt();
+            int last_day = body.getInt();
+            int cell_count = body.getInt();
+            long cells_position = body.position();
+            if (cells_position + (long) cell_count * cell_bytes != body.limit()) return null;
+            return new Entry(source, size, mtime, content_hash, start, body_length + 8, card_types, locations, first_day,
+                    last_day, cells_position, cell_count);
+        } catch (RuntimeException e) {
+            return null; // Checksum matched but the content does not: treat as damaged
+        }
+    }
+
+    // Groups a store's rows by (date, card type, location) and encodes the totals as one ledger entry
+    // (content hash and checksum are filled in by seal)
+    private static byte[] encode_entry(String source, long size, long mtime, Transaction_Store store) {
+        int type_count = store.get_card_types().size();
+        int location_count = store.get_locations().size();
+        Long_Group_Index index = new Long_Group_Index(Math.max(16, store.size() / 64));
+        List<long[]> sums = new ArrayList<>(); // {count, qty, gross, net, fee} per group
+        for (int row = 0; row < store.size(); row++) {
+            long key = ((long) store.get_date_id(row) * type_count + store.get_card_type_id(row)) * location_count
+                    + store.get_location_id(row);
+            int group = index.group_of(key);
+            if (group == sums.size()) sums.add(new long[5]);
+            long[] sum = sums.get(group);
+            sum[0]++;
+            sum[1] += store.get_quantity(row);
+            sum[2] += store.get_gross_cents(row);
+            sum[3] += store.get_net_cents(row);
+            sum[4] += store.get_fee_cents(row);
+        }
+
+        // Cells ordered by day, so queries can start at the first day of their range
+        int[] days = new int[sums.size()];
+        Integer[] order = new Integer[sums.size()];
+        for (int group = 0; group < days.length; group++) {
+            long key = index.key_of(group);
+            days[group] = Transaction_Filter.to_epoch_day(store.get_dates().value_of((int) (key / location_count / type_count)));
+            order[group] = group;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(days[a], days[b]));
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + days.length * cell_bytes);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); // Body length, filled in below
+            write_string(out, source);
+            out.writeLong(size);
+            out.writeLong(mtime);
+            out.writeLong(0); // Content hash
+            write_dictionary(out, store.get_card_types());
+            write_dictionary(out, store.get_locations());
+            out.writeInt(days.length > 0 ? days[order[0]] : 0);
+            out.writeInt(days.length > 0 ? days[order[days.length - 1]] : 0);
+            out.writeInt(days.length);
+            for (int group : order) {
+                long key = index.key_of(group);
+                long[] sum = sums.get(group);
+                out.writeInt(days[group]);
+                out.writeInt((int) (key / location_count % type_count));
+                out.writeInt((int) (key % location_count));
+                out.writeInt((int) sum[0]);
+                for (int i = 1; i < 5; i++) out.writeLong(sum[i]);
+            }
+            out.writeInt(0); // Checksum
+
+            byte[] entry = bytes.toByteArray();
+            ByteBuffer.wrap(entry).putInt(0, entry.length - 8);
+            return entry;
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // In-memory stream
+        }
+    }
+
+    // Puts the content hash into an encoded entry and seals it with the checksum of its body
+    private static void seal(byte[] entry, long content_hash) {
+        ByteBuffer buffer = ByteBuffer.wrap(entry);
+        int body_length = entry.length - 8;
+        buffer.putLong(8 + buffer.getInt(4) + 16, content_hash); // After the length, the source path, size and mtime
+        CRC32 crc = new CRC32();
+        crc.update(entry, 4, body_length);
+        buffer.putInt(4 + body_length, (int) crc.getValue());
+    }
+
+    // Index of the first cell of an entry on or after a day (binary search over the sorted cells)
+    private static int first_cell(Entry entry, int day) {
+        int low = 0;
+        int high = entry.cell_count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mapped.getInt((int) (entry.cells_position + (long) middle * cell_bytes)) < day) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // yyyy-MM-dd or yyyy-MM of an epoch day; dates that were not ISO dates are kept apart
+    private static String period_of(int day, boolean monthly) {
+        if (day == Transaction_Filter.no_day) return "(unknown date)";
+        String date = LocalDate.ofEpochDay(day).toString();
+        return monthly ? date.substring(0, 7) : date;
+    }
+
+    private static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(header_bytes);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+        return header;
+    }
+
+    private static void write_fully(FileChannel channel, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) channel.write(source);
+    }
+
+    private static void write_dictionary(DataOutputStream out, String_Dictionary dictionary) throws IOException {
+        out.writeInt(dictionary.size());
+        for (int id = 0; id < dictionary.size(); id++) write_string(out, dictionary.value_of(id));
+    }
+
+    private static String[] read_dictionary(ByteBuffer buffer) {
+        String[] values = new String[buffer.getInt()];
+        for (int i = 0; i < values.length; i++) values[i] = read_string(buffer);
+        return values;
+    }
+
+    private static void write_string(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String read_string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
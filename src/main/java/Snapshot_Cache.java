@@ -0,0 +1,277 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+// Persistent binary snapshots of parsed XML files, so a restart only re-parses files that actually changed
+public class Snapshot_Cache {
+
+    // File signature ("CTSN") and format version; bump the version whenever the layout below changes
+    private static final int MAGIC = 0x4354534E;
+    static final int FORMAT_VERSION = 4; // 2: amounts stored as long cents, 3: locations, terminals, batch numbers,
+                                         // 4: long quantities
+
+    // Folder (next to the app by default) that holds one snapshot per source file
+    private static volatile File snapshot_folder = new File("snapshots");
+
+    // Snapshots can be switched off, e.g. while rebuilding them
+    private static volatile boolean enabled = true;
+
+    // Layout (big-endian):
+    //   int magic, int version, source path, long size, long mtime, long crc32 of the file content
+    //   dictionaries of dates, card types, locations, terminals and batch numbers
+    //   (int count, then int byte length + UTF-8 bytes per value)
+    //   int row count, int[] date ids, int[] card type ids, int[] location ids, int[] terminal ids,
+    //   int[] batch number ids, long[] quantities,
+    //   long[] gross cents, long[] net cents, long[] fee cents
+
+    // Returns the snapshot of a file if one exists and still matches the file, otherwise null
+    public static Transaction_Store load(File xml_file) {
+        if (!enabled) return null;
+
+        File snapshot = snapshot_file_for(xml_file);
+        if (!snapshot.isFile()) return null;
+
+        boolean outdated_format = false;
+        MappedByteBuffer buffer = null;
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                outdated_format = true; // Written by an older (or foreign) format
+                return null;
+            }
+
+            String path = read_string(buffer);
+            long size = buffer.getLong();
+            long mtime = buffer.getLong();
+            long content_hash = buffer.getLong();
+
+            if (!path.equals(xml_file.getAbsolutePath()) || size != xml_file.length()) return null;
+
+            // A touched but unchanged file is still valid: fall back to comparing the content hash
+            if (mtime != xml_file.lastModified() && content_hash != hash_file(xml_file)) return null;
+
+            return read_store(buffer);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Ignoring unreadable snapshot: " + snapshot.getName() + " (" + e + ")");
+            return null;
+        } finally {
+            // read_store copies everything out of the buffer, so the mapping can go at once; a snapshot that
+            // stays mapped could not be replaced or deleted on Windows
+            Mapped_Buffers.unmap(buffer);
+            if (outdated_format) discard(snapshot); // Deleted after the channel is closed
+        }
+    }
+
+    // Writes the snapshot of a freshly parsed file; failures are logged and never affect parsing. size and mtime
+    // must be read before the parse: the content hash is taken afterwards, so a file that changed in between is
+    // not saved (its snapshot would pair the old rows with the new hash)
+    public static void save(File xml_file, long size, long mtime, Transaction_Store store) {
+        if (!enabled) return;
+
+        File snapshot = snapshot_file_for(xml_file);
+        try {
+            Files.createDirectories(snapshot.getParentFile().toPath());
+            long content_hash = hash_file(xml_file);
+            if (xml_file.length() != size || xml_file.lastModified() != mtime) {
+                System.out.println("Not saving snapshot, file changed while it was read: " + xml_file.getName());
+                return;
+            }
+
+            // Write to a temp file of its own first, so a crash never leaves a half-written snapshot behind and two
+            // saves of the same file (e.g. from two shards) never write into the same temp file
+            File temp = Files.createTempFile(snapshot.getParentFile().toPath(), snapshot.getName() + ".", ".tmp").toFile();
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    write_string(out, xml_file.getAbsolutePath());
+                    out.writeLong(size);
+                    out.writeLong(mtime);
+                    out.writeLong(content_hash);
+                    write_store(out, store);
+                }
+                Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                if (temp.exists()) temp.delete(); // Only left when writing or moving it failed
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write snapshot for: " + xml_file.getName() + " (" + e + ")");
+        }
+    }
+
+    // Removes the snapshot of a file (e.g. when the file was deleted)
+    public static void remove(File xml_file) {
+        discard(snapshot_file_for(xml_file));
+    }
+
+    // Turns snapshot reads and writes on or off
+    public static void set_enabled(boolean value) {
+        enabled = value;
+    }
+
+    // Keeps snapshots in another folder from now on (the ones already written stay where they are)
+    public static void set_folder(File folder) {
+        snapshot_folder = folder;
+    }
+
+    public static File get_folder() {
+        return snapshot_folder;
+    }
+
+    // Deletes every snapshot (and temp files left by a crash) and re-parses all XML files in the folder to write
+    // fresh ones
+    public static int rebuild_all(File xml_folder) {
+        File[] old_snapshots = snapshot_folder.listFiles((dir, name) -> name.endsWith(".snap") || name.endsWith(".tmp"));
+        if (old_snapshots != null) {
+            for (File snapshot : old_snapshots) discard(snapshot);
+        }
+
+        File[] files = xml_folder.listFiles((dir, name) -> XML_Parser.is_input_file(name));
+        if (files == null) return 0;
+
+        XML_Parser.clear_cache();
+        int rebuilt = 0;
+        for (File file : files) {
+            try {
+                XML_Parser.parse_file_or_throw(file); // Writes the snapshot after a successful parse
+                rebuilt++;
+            } catch (Exception e) {
+                System.out.println("Error reading file: " + file.getName() + " (" + e + ")");
+            }
+        }
+        return rebuilt;
+    }
+
+    // Command-line tool: java -cp app.jar Snapshot_Cache [xml folder]
+    public static void main(String[] args) {
+        File folder = new File(args.length > 0 ? args[0] : "xml_files");
+        long start = System.currentTimeMillis();
+        int rebuilt = rebuild_all(folder);
+        System.out.println("Rebuilt " + rebuilt + " snapshot(s) from " + folder.getAbsolutePath()
+                + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Snapshot location for a source file: file name plus a hash of its absolute path to avoid collisions
+    static File snapshot_file_for(File xml_file) {
+        String path = xml_file.getAbsolutePath();
+        return new File(snapshot_folder, xml_file.getName() + "." + Integer.toHexString(path.hashCode()) + ".snap");
+    }
+
+    // CRC32 of the whole file, read through memory-mapped buffers that are released right away (so the user can
+    // still replace the XML file on Windows)
+    private static long hash_file(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(size - position, Integer.MAX_VALUE);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                try {
+                    crc.update(region);
+                } finally {
+                    Mapped_Buffers.unmap(region);
+                }
+                position += length;
+            }
+        }
+        return crc.getValue();
+    }
+
+    // Serializes the dictionaries and columns of a store
+    private static void write_store(DataOutputStream out, Transaction_Store store) throws IOException {
+        write_dictionary(out, store.get_dates());
+        write_dictionary(out, store.get_card_types());
+        write_dictionary(out, store.get_locations());
+        write_dictionary(out, store.get_terminals());
+        write_dictionary(out, store.get_batch_numbers());
+
+        int rows = store.size();
+        out.writeInt(rows);
+        for (int row = 0; row < rows; row++) out.writeInt(store.get_date_id(row));
+        for (int row = 0; row < rows; row++) out.writeInt(store.get_card_type_id(row));
+        for (int row = 0; row < rows; row++) out.writeInt(store.get_location_id(row));
+        for (int row = 0; row < rows; row++) out.writeInt(store.get_terminal_id(row));
+        for (int row = 0; row < rows; row++) out.writeInt(store.get_batch_number_id(row));
+        for (int row = 0; row < rows; row++) out.writeLong(store.get_quantity(row));
+        for (int row = 0; row < rows; row++) out.writeLong(store.get_gross_cents(row));
+        for (int row = 0; row < rows; row++) out.writeLong(store.get_net_cents(row));
+        for (int row = 0; row < rows; row++) out.writeLong(store.get_fee_cents(row));
+    }
+
+    // Decodes the dictionaries and bulk-copies the columns out of the mapped buffer
+    private static Transaction_Store read_store(ByteBuffer buffer) {
+        List<String> dates = read_dictionary(buffer);
+        List<String> card_types = read_dictionary(buffer);
+        List<String> locations = read_dictionary(buffer);
+        List<String> terminals = read_dictionary(buffer);
+        List<String> batch_numbers = read_dictionary(buffer);
+
+        int rows = buffer.getInt();
+        int[] date_ids = read_ints(buffer, rows);
+        int[] card_type_ids = read_ints(buffer, rows);
+        int[] location_ids = read_ints(buffer, rows);
+        int[] terminal_ids = read_ints(buffer, rows);
+        int[] batch_number_ids = read_ints(buffer, rows);
+        long[] quantities = read_longs(buffer, rows);
+        long[] gross_cents = read_longs(buffer, rows);
+        long[] net_cents = read_longs(buffer, rows);
+        long[] fee_cents = read_longs(buffer, rows);
+
+        return Transaction_Store.from_columns(dates, card_types, locations, terminals, batch_numbers, date_ids,
+                card_type_ids, location_ids, terminal_ids, batch_number_ids, quantities, gross_cents, net_cents, fee_cents);
+    }
+
+    private static void write_dictionary(DataOutputStream out, String_Dictionary dictionary) throws IOException {
+        out.writeInt(dictionary.size());
+        for (int id = 0; id < dictionary.size(); id++) write_string(out, dictionary.value_of(id));
+    }
+
+    private static List<String> read_dictionary(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) values.add(read_string(buffer));
+        return values;
+    }
+
+    private static void write_string(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String read_string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int[] read_ints(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private static long[] read_longs(ByteBuffer buffer, int count) {
+        long[] values = new long[count];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+        return values;
+    }
+
+    // Deletes a snapshot file, ignoring failures
+    private static void discard(File snapshot) {
+        if (snapshot.exists() && !snapshot.delete()) {
+            System.out.println("Could not delete snapshot: " + snapshot.getName());
+        }
+    }
+}
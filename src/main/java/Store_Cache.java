@@ -0,0 +1,147 @@
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+// Shared cache of parsed files, keyed by absolute path. Entries are weighted by record count and the least
+// recently used ones are evicted once the budget is exceeded; an entry is only served while the file's size
+// and modification time still match what was parsed
+public class Store_Cache {
+
+    // Default budget in records (a record takes about 40 bytes, so roughly 200 MB); override with -Dstore.cache.records
+    private static final long default_max_records = 5_000_000;
+
+    // One parsed file and the file state it was read from
+    private static final class Entry {
+        final Transaction_Store store;
+        final long size;
+        final long mtime;
+        final long weight;
+
+        Entry(Transaction_Store store, long size, long mtime) {
+            this.store = store;
+            this.size = size;
+            this.mtime = mtime;
+            this.weight = Math.max(1, store.size());
+        }
+    }
+
+    // Access-ordered, so iteration starts at the least recently used entry; guarded by the class lock
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long total_weight;
+    private static long max_records = Long.getLong("store.cache.records", default_max_records);
+
+    // Counters since start (or since reset_counters)
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+
+    // Returns the cached store of a file if it is still current, otherwise null
+    public static Transaction_Store get(File file) {
+        String key = file.getAbsolutePath();
+        long size = file.length();
+        long mtime = file.lastModified();
+
+        synchronized (Store_Cache.class) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.size == size && entry.mtime == mtime) {
+                hits.incrementAndGet();
+                return entry.store;
+            }
+            if (entry != null) {
+                remove_entry(key); // The file changed on disk since it was parsed
+                invalidations.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    // Adds a parsed store; size and mtime must be taken before parsing so a concurrent change is not hidden
+    public static void put(File file, long size, long mtime, Transaction_Store store) {
+        Entry entry = new Entry(store, size, mtime);
+        synchronized (Store_Cache.class) {
+            Entry previous = entries.put(file.getAbsolutePath(), entry);
+            if (previous != null) total_weight -= previous.weight;
+            total_weight += entry.weight;
+            evict_to_budget(entry);
+        }
+    }
+
+    // Drops one file (e.g. when it was replaced or deleted)
+    public static synchronized void remove(File file) {
+        remove_entry(file.getAbsolutePath());
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+        total_weight = 0;
+    }
+
+    // Changes the budget (in records) and evicts down to it right away
+    public static synchronized void set_max_records(long records) {
+        max_records = Math.max(1, records);
+        evict_to_budget(null);
+    }
+
+    public static synchronized long get_max_records() {
+        return max_records;
+    }
+
+    public static synchronized long get_cached_records() {
+        return total_weight;
+    }
+
+    public static synchronized int get_entry_count() {
+        return entries.size();
+    }
+
+    public static long get_hits() {
+        return hits.get();
+    }
+
+    public static long get_misses() {
+        return misses.get();
+    }
+
+    public static long get_evictions() {
+        return evictions.get();
+    }
+
+    public static long get_invalidations() {
+        return invalidations.get();
+    }
+
+    public static void reset_counters() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        invalidations.set(0);
+    }
+
+    // One-line summary for logs
+    public static synchronized String describe() {
+        return "Store cache: " + entries.size() + " file(s), " + total_weight + " of " + max_records + " records; "
+                + hits.get() + " hits, " + misses.get() + " misses, " + evictions.get() + " evictions, "
+                + invalidations.get() + " invalidations";
+    }
+
+    // Evicts least recently used entries until the budget is met; the entry just added is kept even if it alone
+    // is over budget, since its caller is about to use it
+    private static void evict_to_budget(Entry keep) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (total_weight > max_records && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            if (eldest == keep) continue;
+            it.remove();
+            total_weight -= eldest.weight;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static void remove_entry(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) total_weight -= removed.weight;
+    }
+}
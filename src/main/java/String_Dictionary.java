@@ -0,0 +1,40 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+// Dictionary encoding for repeated strings: every distinct value is stored once and referenced by a small int id
+public class String_Dictionary {
+
+    // Lookup from value to id (used while filling)
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    // Values by id, in order of first appearance
+    private final List<String> values = new ArrayList<>();
+
+    // Returns the id of the value, adding it to the dictionary if it is new
+    public int id_of(String value) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = values.size();
+            ids.put(value, id);
+            values.add(value);
+        }
+        return id;
+    }
+
+    // Returns the id of the value, or -1 if it is not in the dictionary
+    public int find(String value) {
+        Integer id = ids.get(value);
+        return id != null ? id : -1;
+    }
+
+    // Returns the value stored under the given id
+    public String value_of(int id) {
+        return values.get(id);
+    }
+
+    // Number of distinct values
+    public int size() {
+        return values.size();
+    }
+}
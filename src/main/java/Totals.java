@@ -0,0 +1,68 @@
+// Running totals (quantity and amounts) for a group of transactions; amounts are exact long cents
+public class Totals {
+
+    // Sum of transaction quantities
+    private long quantity;
+
+    // Sums of the amount columns, in cents
+    private long gross_cents;
+    private long net_cents;
+    private long fee_cents;
+
+    // Number of CardType rows that were added
+    private int row_count;
+
+    // Adds one transaction row
+    public void add(long quantity, long gross_cents, long net_cents, long fee_cents) {
+        this.quantity += quantity;
+        this.gross_cents += gross_cents;
+        this.net_cents += net_cents;
+        this.fee_cents += fee_cents;
+        this.row_count++;
+    }
+
+    // Adds another set of totals (e.g. when merging groups or files)
+    public void add(Totals other) {
+        quantity += other.quantity;
+        gross_cents += other.gross_cents;
+        net_cents += other.net_cents;
+        fee_cents += other.fee_cents;
+        row_count += other.row_count;
+    }
+
+    // Removes totals that were added before (e.g. when a file leaves a merged aggregate)
+    public void subtract(Totals other) {
+        quantity -= other.quantity;
+        gross_cents -= other.gross_cents;
+        net_cents -= other.net_cents;
+        fee_cents -= other.fee_cents;
+        row_count -= other.row_count;
+    }
+
+    // Returns an independent copy
+    public Totals copy() {
+        Totals copy = new Totals();
+        copy.add(this);
+        return copy;
+    }
+
+    public long get_quantity() {
+        return quantity;
+    }
+
+    public long get_gross_cents() {
+        return gross_cents;
+    }
+
+    public long get_net_cents() {
+        return net_cents;
+    }
+
+    public long get_fee_cents() {
+        return fee_cents;
+    }
+
+    public int get_row_count() {
+        return row_count;
+    }
+}
@@ -0,0 +1,112 @@
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+// Batch date range and card type selection used by Program_Manager.query and the viewer's filter controls.
+// Dates are compared as epoch days; both bounds are inclusive and a null bound is open
+public final class Transaction_Filter {
+
+    // Epoch day of a batch date that is not an ISO date (yyyy-MM-dd); such dates only pass filters without a range
+    public static final int no_day = Integer.MIN_VALUE;
+
+    // Filter that accepts every transaction
+    public static final Transaction_Filter none = new Transaction_Filter(null, null, null);
+
+    private final LocalDate from;
+    private final LocalDate to;
+    private final Set<String> card_types; // null means every card type
+
+    // Creates a filter; null bounds are open and a null card type collection accepts every card type
+    public Transaction_Filter(LocalDate from, LocalDate to, Collection<String> card_types) {
+        this.from = from;
+        this.to = to;
+        this.card_types = card_types != null ? Collections.unmodifiableSet(new LinkedHashSet<>(card_types)) : null;
+    }
+
+    // Epoch day of a batch date, or no_day if it is not an ISO date
+    public static int to_epoch_day(String date) {
+        if (date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') return no_day;
+        try {
+            int year = Integer.parseInt(date.substring(0, 4));
+            int month = Integer.parseInt(date.substring(5, 7));
+            int day = Integer.parseInt(date.substring(8, 10));
+            return (int) LocalDate.of(year, month, day).toEpochDay();
+        } catch (NumberFormatException | DateTimeException e) {
+            return no_day;
+        }
+    }
+
+    public LocalDate get_from() {
+        return from;
+    }
+
+    public LocalDate get_to() {
+        return to;
+    }
+
+    // Selected card types, or null when every card type is accepted
+    public Set<String> get_card_types() {
+        return card_types;
+    }
+
+    // True when at least one date bound is set
+    public boolean has_date_range() {
+        return from != null || to != null;
+    }
+
+    // True when the filter accepts everything
+    public boolean is_unfiltered() {
+        return !has_date_range() && card_types == null;
+    }
+
+    // First accepted epoch day (inclusive)
+    public int from_day() {
+        return from != null ? (int) from.toEpochDay() : no_day + 1;
+    }
+
+    // Last accepted epoch day (inclusive)
+    public int to_day() {
+        return to != null ? (int) to.toEpochDay() : Integer.MAX_VALUE;
+    }
+
+    // True when a batch date with the given epoch day passes the date range
+    public boolean accepts_day(int epoch_day) {
+        if (!has_date_range()) return true;
+        return epoch_day != no_day && epoch_day >= from_day() && epoch_day <= to_day();
+    }
+
+    public boolean accepts_card_type(String card_type) {
+        return card_types == null || card_types.contains(card_type);
+    }
+
+    // Filters are equal when they accept the same date range and card types (used as part of report cache keys)
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Transaction_Filter)) return false;
+        Transaction_Filter filter = (Transaction_Filter) other;
+        return Objects.equals(from, filter.from) && Objects.equals(to, filter.to) && Objects.equals(card_types, filter.card_types);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(from, to, card_types);
+    }
+
+    // Short description for titles and logs, e.g. "2025-03-01 to 2025-03-07, VISA"
+    @Override
+    public String toString() {
+        if (is_unfiltered()) return "All transactions";
+        StringBuilder text = new StringBuilder();
+        if (has_date_range()) {
+            text.append(from != null ? from.toString() : "...").append(" to ").append(to != null ? to.toString() : "...");
+        }
+        if (card_types != null) {
+            if (text.length() > 0) text.append(", ");
+            text.append(card_types.isEmpty() ? "no card types" : String.join(", ", card_types));
+        }
+        return text.toString();
+    }
+}
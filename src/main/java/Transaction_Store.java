@@ -0,0 +1,534 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+// Columnar storage for the transactions of one file: dictionary-encoded strings and primitive number columns
+// (amounts are fixed-point cents so that sums are exact)
+public class Transaction_Store {
+
+    // Distinct batch dates and card types, referenced by id from the columns below
+    private final String_Dictionary dates = new String_Dictionary();
+    private final String_Dictionary card_types = new String_Dictionary();
+
+    // Distinct locations (Account ident), terminals (TerminalId) and batch numbers (BatchNumber)
+    private final String_Dictionary locations = new String_Dictionary();
+    private final String_Dictionary terminals = new String_Dictionary();
+    private final String_Dictionary batch_numbers = new String_Dictionary();
+
+    // One entry per transaction (row)
+    private int[] date_ids;
+    private int[] card_type_ids;
+    private int[] location_ids;
+    private int[] terminal_ids;
+    private int[] batch_number_ids;
+    private long[] quantities; // long so that a row can also hold summed totals (ledger history rows)
+    private long[] gross_cents;
+    private long[] net_cents;
+    private long[] fee_cents;
+
+    // Number of rows currently stored
+    private int size;
+
+    // Rows ordered by (date id, card type id) with file order kept inside each cell; built on first use
+    private int[] grouped_rows;
+
+    // Start position of every (date, card type) cell in grouped_rows, plus a final end position
+    private int[] cell_offsets;
+
+    // Epoch day of every date id (Transaction_Filter.no_day for dates that are not ISO); built on first use
+    private int[] date_days;
+
+    // Date ids with a valid epoch day, sorted by day, and those days (parallel arrays, searched by binary search)
+    private int[] dates_by_day;
+    private int[] sorted_days;
+
+    // Date ids without a valid epoch day, in dictionary order
+    private int[] undated_ids;
+
+    // Per card type id: bit p is set when the (dates_by_day[p], card type) cell has rows
+    private BitSet[] card_type_days;
+
+    // Card type ids in name order (the order of the date report)
+    private int[] card_types_by_name;
+
+    // Creates an empty store with room for the given number of rows
+    public Transaction_Store(int initial_capacity) {
+        int capacity = Math.max(16, initial_capacity);
+        date_ids = new int[capacity];
+        card_type_ids = new int[capacity];
+        location_ids = new int[capacity];
+        terminal_ids = new int[capacity];
+        batch_number_ids = new int[capacity];
+        quantities = new long[capacity];
+        gross_cents = new long[capacity];
+        net_cents = new long[capacity];
+        fee_cents = new long[capacity];
+    }
+
+    // Creates an empty store with a default capacity
+    public Transaction_Store() {
+        this(256);
+    }
+
+    // Wraps already decoded columns (used when loading a binary snapshot); the arrays are taken over, not copied
+    static Transaction_Store from_columns(List<String> date_values, List<String> card_type_values,
+                                          List<String> location_values, List<String> terminal_values,
+                                          List<String> batch_number_values, int[] date_ids, int[] card_type_ids,
+                                          int[] location_ids, int[] terminal_ids, int[] batch_number_ids,
+                                          long[] quantities, long[] gross_cents, long[] net_cents, long[] fee_cents) {
+        Transaction_Store store = new Transaction_Store(0);
+        for (String date : date_values) store.dates.id_of(date);
+        for (String card_type : card_type_values) store.card_types.id_of(card_type);
+        for (String location : location_values) store.locations.id_of(location);
+        for (String terminal : terminal_values) store.terminals.id_of(terminal);
+        for (String batch_number : batch_number_values) store.batch_numbers.id_of(batch_number);
+        store.date_ids = date_ids;
+        store.card_type_ids = card_type_ids;
+        store.location_ids = location_ids;
+        store.terminal_ids = terminal_ids;
+        store.batch_number_ids = batch_number_ids;
+        store.quantities = quantities;
+        store.gross_cents = gross_cents;
+        store.net_cents = net_cents;
+        store.fee_cents = fee_cents;
+        store.size = quantities.length;
+        return store;
+    }
+
+    // Builds a store from transaction objects (used by callers that still work with Card_Transaction)
+    public static Transaction_Store from_transactions(List<Card_Transaction> transactions) {
+        Transaction_Store store = new Transaction_Store(transactions.size());
+        for (Card_Transaction tx : transactions) {
+            store.add(tx.get_batch_date(), tx.get_card_type(), tx.get_quantity(),
+                    tx.get_gross_amount(), tx.get_net_amount(), tx.get_fee());
+        }
+        return store;
+    }
+
+    // Appends one transaction row with its location, terminal and batch number, amounts in cents
+    public void add(String batch_date, String card_type, String location, String terminal, String batch_number,
+                    long quantity, long gross_cents, long net_cents, long fee_cents) {
+        if (size == quantities.length) grow();
+
+        date_ids[size] = dates.id_of(batch_date);
+        card_type_ids[size] = card_types.id_of(card_type);
+        location_ids[size] = locations.id_of(location);
+        terminal_ids[size] = terminals.id_of(terminal);
+        batch_number_ids[size] = batch_numbers.id_of(batch_number);
+        quantities[size] = quantity;
+        this.gross_cents[size] = gross_cents;
+        this.net_cents[size] = net_cents;
+        this.fee_cents[size] = fee_cents;
+        size++;
+    }
+
+    // Appends one transaction row with amounts in cents and no location, terminal or batch number
+    public void add(String batch_date, String card_type, int quantity, long gross_cents, long net_cents, long fee_cents) {
+        add(batch_date, card_type, "", "", "", quantity, gross_cents, net_cents, fee_cents);
+    }
+
+    // Appends one transaction row with double amounts (rounded to cents)
+    public void add(String batch_date, String card_type, int quantity, double gross_amount, double net_amount, double fee) {
+        add(batch_date, card_type, quantity, Fixed_Point.to_cents(gross_amount), Fixed_Point.to_cents(net_amount),
+                Fixed_Point.to_cents(fee));
+    }
+
+    // Appends every row of another store (e.g. the entries of a zip archive, parsed separately), mapping its
+    // dictionary ids onto this store's dictionaries
+    public void append(Transaction_Store other) {
+        int[] date_map = remap(other.dates, dates);
+        int[] card_type_map = remap(other.card_types, card_types);
+        int[] location_map = remap(other.locations, locations);
+        int[] terminal_map = remap(other.terminals, terminals);
+        int[] batch_number_map = remap(other.batch_numbers, batch_numbers);
+
+        while (quantities.length - size < other.size) grow();
+        for (int row = 0; row < other.size; row++) {
+            date_ids[size + row] = date_map[other.date_ids[row]];
+            card_type_ids[size + row] = card_type_map[other.card_type_ids[row]];
+            location_ids[size + row] = location_map[other.location_ids[row]];
+            terminal_ids[size + row] = terminal_map[other.terminal_ids[row]];
+            batch_number_ids[size + row] = batch_number_map[other.batch_number_ids[row]];
+        }
+        System.arraycopy(other.quantities, 0, quantities, size, other.size);
+        System.arraycopy(other.gross_cents, 0, gross_cents, size, other.size);
+        System.arraycopy(other.net_cents, 0, net_cents, size, other.size);
+        System.arraycopy(other.fee_cents, 0, fee_cents, size, other.size);
+        size += other.size;
+    }
+
+    // Id in the target dictionary of every id of the source dictionary
+    private static int[] remap(String_Dictionary source, String_Dictionary target) {
+        int[] map = new int[source.size()];
+        for (int id = 0; id < map.length; id++) map[id] = target.id_of(source.value_of(id));
+        return map;
+    }
+
+    // Doubles the capacity of every column
+    private void grow() {
+        int capacity = Math.max(16, quantities.length * 2);
+        date_ids = Arrays.copyOf(date_ids, capacity);
+        card_type_ids = Arrays.copyOf(card_type_ids, capacity);
+        location_ids = Arrays.copyOf(location_ids, capacity);
+        terminal_ids = Arrays.copyOf(terminal_ids, capacity);
+        batch_number_ids = Arrays.copyOf(batch_number_ids, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+        gross_cents = Arrays.copyOf(gross_cents, capacity);
+        net_cents = Arrays.copyOf(net_cents, capacity);
+        fee_cents = Arrays.copyOf(fee_cents, capacity);
+    }
+
+    // Releases unused capacity once the store is complete
+    public void trim() {
+        if (size == quantities.length) return;
+        date_ids = Arrays.copyOf(date_ids, size);
+        card_type_ids = Arrays.copyOf(card_type_ids, size);
+        location_ids = Arrays.copyOf(location_ids, size);
+        terminal_ids = Arrays.copyOf(terminal_ids, size);
+        batch_number_ids = Arrays.copyOf(batch_number_ids, size);
+        quantities = Arrays.copyOf(quantities, size);
+        gross_cents = Arrays.copyOf(gross_cents, size);
+        net_cents = Arrays.copyOf(net_cents, size);
+        fee_cents = Arrays.copyOf(fee_cents, size);
+    }
+
+    // Number of transactions in the store
+    public int size() {
+        return size;
+    }
+
+    // True when the store holds no transactions
+    public boolean is_empty() {
+        return size == 0;
+    }
+
+    // Dictionary of batch dates used by this store
+    public String_Dictionary get_dates() {
+        return dates;
+    }
+
+    // Dictionary of card types used by this store
+    public String_Dictionary get_card_types() {
+        return card_types;
+    }
+
+    // Dictionary of locations (Account ident) used by this store
+    public String_Dictionary get_locations() {
+        return locations;
+    }
+
+    // Dictionary of terminal ids used by this store
+    public String_Dictionary get_terminals() {
+        return terminals;
+    }
+
+    // Dictionary of batch numbers used by this store
+    public String_Dictionary get_batch_numbers() {
+        return batch_numbers;
+    }
+
+    // Dictionary id of the batch date of a row
+    public int get_date_id(int row) {
+        return date_ids[row];
+    }
+
+    // Dictionary id of the card type of a row
+    public int get_card_type_id(int row) {
+        return card_type_ids[row];
+    }
+
+    // Dictionary id of the location of a row
+    public int get_location_id(int row) {
+        return location_ids[row];
+    }
+
+    // Dictionary id of the terminal of a row
+    public int get_terminal_id(int row) {
+        return terminal_ids[row];
+    }
+
+    // Dictionary id of the batch number of a row
+    public int get_batch_number_id(int row) {
+        return batch_number_ids[row];
+    }
+
+    // Batch date of a row
+    public String get_batch_date(int row) {
+        return dates.value_of(date_ids[row]);
+    }
+
+    // Card type of a row
+    public String get_card_type(int row) {
+        return card_types.value_of(card_type_ids[row]);
+    }
+
+    // Location (Account ident) of a row, empty if the file has none
+    public String get_location(int row) {
+        return locations.value_of(location_ids[row]);
+    }
+
+    // Terminal id of a row, empty if the batch has none
+    public String get_terminal(int row) {
+        return terminals.value_of(terminal_ids[row]);
+    }
+
+    // Batch number of a row, empty if the batch has none
+    public String get_batch_number(int row) {
+        return batch_numbers.value_of(batch_number_ids[row]);
+    }
+
+    // Number of transactions of a row
+    public long get_quantity(int row) {
+        return quantities[row];
+    }
+
+    // Gross amount of a row, in cents
+    public long get_gross_cents(int row) {
+        return gross_cents[row];
+    }
+
+    // Net amount of a row, in cents
+    public long get_net_cents(int row) {
+        return net_cents[row];
+    }
+
+    // Fee of a row, in cents
+    public long get_fee_cents(int row) {
+        return fee_cents[row];
+    }
+
+    // Gross amount of a row
+    public double get_gross_amount(int row) {
+        return Fixed_Point.to_amount(gross_cents[row]);
+    }
+
+    // Net amount of a row
+    public double get_net_amount(int row) {
+        return Fixed_Point.to_amount(net_cents[row]);
+    }
+
+    // Fee of a row
+    public double get_fee(int row) {
+        return Fixed_Point.to_amount(fee_cents[row]);
+    }
+
+    // First position (in grouped order) of the rows with the given date and card type ids
+    public int cell_start(int date_id, int card_type_id) {
+        ensure_cell_index();
+        return cell_offsets[date_id * card_types.size() + card_type_id];
+    }
+
+    // Position after the last row with the given date and card type ids
+    public int cell_end(int date_id, int card_type_id) {
+        ensure_cell_index();
+        return cell_offsets[date_id * card_types.size() + card_type_id + 1];
+    }
+
+    // Row stored at a position of the grouped order
+    public int grouped_row(int position) {
+        ensure_cell_index();
+        return grouped_rows[position];
+    }
+
+    // Stable counting sort of the rows by (date id, card type id); the store must be complete
+    private synchronized void ensure_cell_index() {
+        if (grouped_rows != null) return;
+
+        int type_count = card_types.size();
+        int[] offsets = new int[dates.size() * type_count + 1];
+        for (int row = 0; row < size; row++) {
+            offsets[date_ids[row] * type_count + card_type_ids[row] + 1]++;
+        }
+        for (int cell = 1; cell < offsets.length; cell++) offsets[cell] += offsets[cell - 1];
+
+        int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+        int[] rows = new int[size];
+        for (int row = 0; row < size; row++) {
+            rows[next[date_ids[row] * type_count + card_type_ids[row]]++] = row;
+        }
+
+        cell_offsets = offsets;
+        grouped_rows = rows;
+    }
+
+    // Epoch day of the batch date of a row, or Transaction_Filter.no_day if the date is not an ISO date
+    public int get_epoch_day(int row) {
+        ensure_date_index();
+        return date_days[date_ids[row]];
+    }
+
+    // Adds the rows that pass a filter as segments of the grouped order: one segment per non-empty
+    // (date, card type) cell, dates ascending and card types by name. The date range is found by binary search
+    // and the card type bitmaps skip dates without matching rows, so the cost is logarithmic in the number of
+    // dates plus the size of the result
+    public void select(Transaction_Filter filter, List<Report_Data.Segment> segments) {
+        if (size == 0) return;
+        ensure_cell_index();
+        ensure_date_index();
+
+        int[] type_ids = selected_card_types(filter);
+        if (type_ids.length == 0) return;
+
+        int from = first_after(sorted_days, filter.from_day() - 1);
+        int to = Math.max(from, first_after(sorted_days, filter.to_day())); // A range that ends before it starts is empty
+
+        // Positions in the range where at least one selected card type has rows (bit 0 is position from)
+        BitSet matching = new BitSet();
+        for (int type_id : type_ids) matching.or(card_type_days[type_id].get(from, to));
+        for (int bit = matching.nextSetBit(0); bit >= 0; bit = matching.nextSetBit(bit + 1)) {
+            add_cell_segments(dates_by_day[from + bit], type_ids, segments);
+        }
+
+        if (!filter.has_date_range()) {
+            for (int date_id : undated_ids) add_cell_segments(date_id, type_ids, segments);
+        }
+    }
+
+    // Card type ids selected by a filter, in name order
+    private int[] selected_card_types(Transaction_Filter filter) {
+        if (filter.get_card_types() == null) return card_types_by_name;
+        int[] ids = new int[card_types_by_name.length];
+        int count = 0;
+        for (int type_id : card_types_by_name) {
+            if (filter.accepts_card_type(card_types.value_of(type_id))) ids[count++] = type_id;
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    // Adds the non-empty cells of one date for the given card types
+    private void add_cell_segments(int date_id, int[] type_ids, List<Report_Data.Segment> segments) {
+        for (int type_id : type_ids) {
+            int start = cell_start(date_id, type_id);
+            int end = cell_end(date_id, type_id);
+            if (end > start) segments.add(new Report_Data.Segment(this, start, end));
+        }
+    }
+
+    // First index whose value is greater than key in a sorted array
+    private static int first_after(int[] values, int key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= key) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    // Converts every distinct date to an epoch day once, sorts the dated ids by day and builds the card type
+    // bitmaps from the cell index; the store must be complete
+    private synchronized void ensure_date_index() {
+        if (card_type_days != null) return;
+        ensure_cell_index();
+
+        int date_count = dates.size();
+        int type_count = card_types.size();
+        int[] days = new int[date_count];
+        int dated = 0;
+        for (int date_id = 0; date_id < date_count; date_id++) {
+            days[date_id] = Transaction_Filter.to_epoch_day(dates.value_of(date_id));
+            if (days[date_id] != Transaction_Filter.no_day) dated++;
+        }
+
+        // Sort (day, date id) pairs packed into longs; days are non-negative offsets after the shift
+        long[] keyed = new long[dated];
+        int[] undated = new int[date_count - dated];
+        int next_dated = 0;
+        int next_undated = 0;
+        for (int date_id = 0; date_id < date_count; date_id++) {
+            if (days[date_id] == Transaction_Filter.no_day) {
+                undated[next_undated++] = date_id;
+            } else {
+                keyed[next_dated++] = ((long) days[date_id] - Integer.MIN_VALUE) << 32 | date_id;
+            }
+        }
+        Arrays.sort(keyed);
+
+        int[] by_day = new int[dated];
+        int[] sorted = new int[dated];
+        BitSet[] type_days = new BitSet[type_count];
+        for (int type_id = 0; type_id < type_count; type_id++) type_days[type_id] = new BitSet(dated);
+        for (int position = 0; position < dated; position++) {
+            int date_id = (int) keyed[position];
+            by_day[position] = date_id;
+            sorted[position] = days[date_id];
+            for (int type_id = 0; type_id < type_count; type_id++) {
+                int cell = date_id * type_count + type_id;
+                if (cell_offsets[cell + 1] > cell_offsets[cell]) type_days[type_id].set(position);
+            }
+        }
+
+        Integer[] type_order = new Integer[type_count];
+        for (int type_id = 0; type_id < type_count; type_id++) type_order[type_id] = type_id;
+        Arrays.sort(type_order, (a, b) -> card_types.value_of(a).compareTo(card_types.value_of(b)));
+        int[] types_by_name = new int[type_count];
+        for (int i = 0; i < type_count; i++) types_by_name[i] = type_order[i];
+
+        date_days = days;
+        dates_by_day = by_day;
+        sorted_days = sorted;
+        undated_ids = undated;
+        card_types_by_name = types_by_name;
+        card_type_days = type_days;
+    }
+
+    // Materializes one row as a Card_Transaction
+    public Card_Transaction get(int row) {
+        return new Card_Transaction(get_batch_date(row), get_card_type(row), Math.toIntExact(quantities[row]),
+                get_gross_amount(row), get_net_amount(row), get_fee(row));
+    }
+
+    // Read-only List view that creates Card_Transaction objects on access instead of holding them
+    public List<Card_Transaction> as_list() {
+        return new Transaction_List_View();
+    }
+
+    // Read-only view over the rows of several stores, in store order, without copying any rows
+    public static List<Card_Transaction> as_list(List<Transaction_Store> stores) {
+        return new Composite_List_View(stores);
+    }
+
+    // Compatibility view for code that still expects List<Card_Transaction>
+    private class Transaction_List_View extends AbstractList<Card_Transaction> implements RandomAccess {
+        @Override
+        public Card_Transaction get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Row " + index + " of " + size);
+            return Transaction_Store.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    // Concatenation of several stores; a row index is mapped to its store by binary search over the row offsets
+    private static final class Composite_List_View extends AbstractList<Card_Transaction> implements RandomAccess {
+        private final Transaction_Store[] stores;
+        private final int[] offsets; // First row of each store; the last element is the total size
+
+        Composite_List_View(List<Transaction_Store> stores) {
+            this.stores = stores.toArray(new Transaction_Store[0]);
+            this.offsets = new int[this.stores.length + 1];
+            for (int i = 0; i < this.stores.length; i++) {
+                offsets[i + 1] = offsets[i] + this.stores[i].size;
+            }
+        }
+
+        @Override
+        public Card_Transaction get(int index) {
+            if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Row " + index + " of " + size());
+            int found = Arrays.binarySearch(offsets, index);
+            int store = found >= 0 ? found : -found - 2;
+            while (offsets[store + 1] == index) store++; // Skip empty stores that share the offset
+            return stores[store].get(index - offsets[store]);
+        }
+
+        @Override
+        public int size() {
+            return offsets[stores.length];
+        }
+    }
+}
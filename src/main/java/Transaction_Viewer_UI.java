@@ -5,7 +5,14 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 // UI class to display and manage card transaction data
 public class Transaction_Viewer_UI extends JFrame {
 
@@ -13,11 +20,50 @@ public class Transaction_Viewer_UI extends JFrame {
     private JTextArea output_area;
     private JComboBox<String> options_box;
     private JComboBox<String> file_selector_box;
-    private List<File> xml_files;
+    private List<File> xml_files = new ArrayList<>();
     private JComboBox<String> sort_order_box;
     private JScrollPane table_scroll_pane;
     private JTable current_table;
 
+    // Filters next to the dropdowns: batch date range (yyyy-MM-dd, empty = open) and card type
+    private final JTextField from_date_field = new JTextField(8);
+    private final JTextField to_date_field = new JTextField(8);
+    private final JComboBox<String> card_type_box = new JComboBox<>(new String[]{"All Card Types"});
+
+    // Set while card_type_box is refilled, so its selection events do not rebuild the view
+    private boolean refreshing_card_types;
+
+    // Pick up files dropped into (or removed from) the input folders while the app is open, one per input root
+    private final List<Folder_Watcher> folder_watchers = new ArrayList<>();
+
+    // Status bar with load, cache, report and export metrics (refreshed by a timer)
+    private final JLabel status_label = new JLabel(" ");
+
+    // Shown while files load or a report is being built
+    private final JProgressBar loading_bar = new JProgressBar();
+
+    // Delays view updates so a burst of changes (several dropdowns in a row) builds only the last selection
+    private final Timer view_debounce = new Timer(250, e -> start_view_update());
+
+    // File selector entry for the monthly history of every file ever loaded (from the rollup ledger)
+    private static final String history_selection = "History (all months)";
+
+    // Report build currently running in the background, or null; superseded builds are cancelled
+    private Report_Worker report_worker;
+
+    // Queue of running and waiting exports, capped in size and concurrency
+    private final Export_Scheduler export_scheduler = Export_Scheduler.from_settings();
+
+    // Progress of the exports, with a button that cancels all of them; hidden while nothing is exported
+    private final JProgressBar export_bar = new JProgressBar(0, 100);
+    private final JButton cancel_exports_button = new JButton("Cancel Exports");
+
+    // File selection whose report (and card type list) is shown, or null before the first report
+    private String shown_file_name;
+
+    // False until the initial file load finished; view updates requested before that are ignored
+    private boolean files_loaded;
+
     // Constructor that builds the UI
     public Transaction_Viewer_UI() {
         setTitle("Card Transactions Viewer");
@@ -27,7 +73,8 @@ public class Transaction_Viewer_UI extends JFrame {
 
         // Sort, option, file selection dropdowns
         sort_order_box = new JComboBox<>(new String[]{"Newest to Oldest", "Oldest to Newest"});
-        options_box = new JComboBox<>(new String[]{"Group by Date with Summary", "Group by Card Type"});
+        options_box = new JComboBox<>(new String[]{"Group by Date with Summary", "Group by Card Type",
+                "Group by Location", "Group by Terminal"});
         file_selector_box = new JComboBox<>();
 
         // Top toolbar for controls
@@ -40,21 +87,50 @@ public class Transaction_Viewer_UI extends JFrame {
         tool_bar.add(options_box);
         tool_bar.add(new JLabel("File:"));
         tool_bar.add(file_selector_box);
+        tool_bar.add(new JLabel("From:"));
+        tool_bar.add(from_date_field);
+        tool_bar.add(new JLabel("To:"));
+        tool_bar.add(to_date_field);
+        tool_bar.add(new JLabel("Card:"));
+        tool_bar.add(card_type_box);
+        JButton clear_filters_button = new JButton("Clear");
+        clear_filters_button.addActionListener(e -> {
+            from_date_field.setText("");
+            to_date_field.setText("");
+            card_type_box.setSelectedIndex(0);
+            update_view();
+        });
+        tool_bar.add(clear_filters_button);
 
         // Export and Add buttons
         JButton export_pdf_button = new JButton("Export PDF");
         JButton export_excel_button = new JButton("Export Excel");
+        JButton export_csv_button = new JButton("Export CSV");
         JButton add_xml_button = new JButton("Add XML File");
 
         // Action listeners
         export_pdf_button.addActionListener(e -> export_to_file("pdf"));
         export_excel_button.addActionListener(e -> export_to_file("excel"));
+        export_csv_button.addActionListener(e -> export_to_file("csv"));
         add_xml_button.addActionListener(e -> import_xml_file());
 
         tool_bar.add(export_pdf_button);
         tool_bar.add(export_excel_button);
+        tool_bar.add(export_csv_button);
         tool_bar.add(add_xml_button);
 
+        loading_bar.setIndeterminate(true);
+        loading_bar.setStringPainted(true);
+        loading_bar.setVisible(false);
+        tool_bar.add(loading_bar);
+        export_bar.setStringPainted(true);
+        export_bar.setVisible(false);
+        tool_bar.add(export_bar);
+        cancel_exports_button.setVisible(false);
+        cancel_exports_button.addActionListener(e -> export_scheduler.cancel_all());
+        tool_bar.add(cancel_exports_button);
+        view_debounce.setRepeats(false);
+
         add(tool_bar, BorderLayout.NORTH);
 
         // Main display area
@@ -63,14 +139,10 @@ public class Transaction_Viewer_UI extends JFrame {
         table_scroll_pane = new JScrollPane(output_area);
         add(table_scroll_pane, BorderLayout.CENTER);
 
-        // Load XML files
-        xml_files = Program_Manager.get_all_files();
-        Program_Manager.load_files(xml_files);
-
-        file_selector_box.addItem("All Files");
-        for (File file : xml_files) {
-            file_selector_box.addItem(file.getName());
-        }
+        // Status bar
+        status_label.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        add(status_label, BorderLayout.SOUTH);
+        new Timer(2000, e -> update_status()).start();
 
         // Trigger view updates on dropdown changes
         options_box.addItemListener(e -> {
@@ -85,43 +157,383 @@ public class Transaction_Viewer_UI extends JFrame {
             if (e.getStateChange() == ItemEvent.SELECTED) update_view();
         });
 
-        if (file_selector_box.getItemCount() > 0) {
-            file_selector_box.setSelectedIndex(0);
+        // Date fields apply on Enter; the card type applies on selection
+        from_date_field.setToolTipText("First batch date (yyyy-MM-dd), empty for no limit");
+        to_date_field.setToolTipText("Last batch date (yyyy-MM-dd), empty for no limit");
+        from_date_field.addActionListener(e -> update_view());
+        to_date_field.addActionListener(e -> update_view());
+        card_type_box.addItemListener(e -> {
+            if (e.getStateChange() == ItemEvent.SELECTED && !refreshing_card_types) update_view();
+        });
+
+        // Watch the folder for new, replaced and deleted files once they are loaded; changes are applied on the EDT
+        for (File root : Program_Manager.get_input_roots()) {
+            folder_watchers.add(new Folder_Watcher(root,
+                    (updated, removed) -> SwingUtilities.invokeLater(() -> apply_folder_changes(updated, removed))));
+        }
+
+        // Load XML files in the background so the window shows up right away
+        load_files_in_background();
+    }
+
+    // Parses every XML file off the EDT with per-file progress, then fills the file list and shows the first report
+    private void load_files_in_background() {
+        List<File> files = Program_Manager.get_all_files();
+        show_loading("Loading " + files.size() + " file(s)...");
+        show_message("Loading XML files...");
+
+        new SwingWorker<List<File>, Void>() {
+            @Override
+            protected List<File> doInBackground() {
+                return Program_Manager.load_files(files, new Program_Manager.Load_Listener() {
+                    @Override
+                    public void file_loaded(File file, int record_count, long elapsed_ms, int completed, int total) {
+                        SwingUtilities.invokeLater(() -> show_loading("Loading files " + completed + "/" + total));
+                    }
+
+                    @Override
+                    public void file_failed(File file, Exception error, int completed, int total) {
+                        System.out.println("Error reading file: " + file.getName() + " [" + completed + "/" + total + "]");
+                        error.printStackTrace();
+                        SwingUtilities.invokeLater(() -> show_loading("Loading files " + completed + "/" + total));
+                    }
+                });
+            }
+
+            @Override
+            protected void done() {
+                hide_loading();
+                files_loaded = true;
+                xml_files = files;
+                fill_file_selector();
+                file_selector_box.setSelectedIndex(0);
+                update_view();
+
+                try {
+                    List<File> failed_files = get();
+                    if (!failed_files.isEmpty()) {
+                        StringBuilder message = new StringBuilder("Some XML files could not be read:\n");
+                        for (File file : failed_files) {
+                            message.append(file.getName()).append("\n");
+                        }
+                        JOptionPane.showMessageDialog(Transaction_Viewer_UI.this, message.toString());
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                }
+
+                for (Folder_Watcher watcher : folder_watchers) {
+                    try {
+                        watcher.start();
+                    } catch (IOException e) {
+                        System.out.println("Could not watch input folder: " + e.getMessage());
+                    }
+                }
+            }
+        }.execute();
+    }
+
+    // "All Files", the per-shard rollups (with several input roots), the ledger history and every file, by
+    // selection key
+    private void fill_file_selector() {
+        file_selector_box.addItem("All Files");
+        for (String selection : Program_Manager.get_shard_selections()) {
+            file_selector_box.addItem(selection);
+        }
+        file_selector_box.addItem(history_selection);
+        for (File file : xml_files) {
+            file_selector_box.addItem(Program_Manager.key_of(file));
         }
     }
 
-    // Method to update the displayed table based on selected file/option
+    // Refreshes the status bar from the runtime metrics; the tooltip lists the histograms and slowest files
+    private void update_status() {
+        Latency_Histogram file_load = Metrics.get_file_load();
+        Latency_Histogram report_build = Metrics.get_report_build();
+        status_label.setText(String.format(
+                "Files: %d (p95 %.0f ms, %d failed) | Records: %d (%.0f/s parsed) | Cache: %.0f%% hits, %d records"
+                        + " | Reports: p95 %.0f ms | Exports: PDF p95 %.0f ms, Excel p95 %.0f ms",
+                file_load.get_count(), file_load.get_percentile_ms(95), Metrics.get_file_failures(),
+                Metrics.get_records_loaded(), Metrics.get_records_per_second(),
+                Metrics.get_cache_hit_rate() * 100, Store_Cache.get_cached_records(),
+                report_build.get_percentile_ms(95),
+                Metrics.get_pdf_export().get_percentile_ms(95), Metrics.get_excel_export().get_percentile_ms(95)));
+
+        StringBuilder tooltip = new StringBuilder("<html>");
+        for (String line : Metrics.describe_histograms()) tooltip.append(line).append("<br>");
+        tooltip.append(Report_Cache.describe()).append("<br>");
+        tooltip.append("<br>Slowest files:<br>");
+        for (String line : Metrics.get_slowest_files()) tooltip.append(line).append("<br>");
+        status_label.setToolTipText(tooltip.append("</html>").toString());
+    }
+
+    // Updates the file list after the watcher ingested changes, and refreshes the view if it shows one of them
+    private void apply_folder_changes(List<String> updated, List<String> removed) {
+        xml_files = Program_Manager.get_all_files();
+        String selected = (String) file_selector_box.getSelectedItem();
+
+        for (String name : removed) {
+            file_selector_box.removeItem(name); // Removing the selected file selects another one and updates the view
+        }
+        for (String name : updated) {
+            if (((DefaultComboBoxModel<String>) file_selector_box.getModel()).getIndexOf(name) < 0) {
+                file_selector_box.addItem(name);
+            }
+        }
+
+        boolean rollup = selected != null && (selected.equals("All Files") || selected.equals(history_selection)
+                || Program_Manager.get_shard_selections().contains(selected));
+        if (selected != null && (rollup || updated.contains(selected))) {
+            update_view();
+        }
+    }
+
+    // Schedules an update of the displayed table; every call restarts the delay, so rapid changes only build the
+    // last selection. A view of the shown file that is still cached is shown right away instead
     private void update_view() {
+        if (show_cached_view()) return;
+        view_debounce.restart();
+    }
+
+    // Shows the selected view straight from the report cache if it is of the file already shown (whose card type
+    // list is still valid), so flipping the sort order, grouping or filter back and forth needs neither a build
+    // nor the debounce delay; false when the view has to be built
+    private boolean show_cached_view() {
+        String file_name = (String) file_selector_box.getSelectedItem();
+        if (!files_loaded || file_name == null || !file_name.equals(shown_file_name)
+                || history_selection.equals(file_name)) {
+            return false;
+        }
+        boolean ascending = "Oldest to Newest".equals(sort_order_box.getSelectedItem());
+        Report_Data report = Report_Cache.get(file_name, grouping_of((String) options_box.getSelectedItem()),
+                current_filter(), Program_Manager.get_data_version(file_name), ascending);
+        if (report == null) return false;
+
+        view_debounce.stop();
+        if (report_worker != null) {
+            report_worker.cancel(false); // See start_view_update
+            report_worker = null;
+        }
+        hide_loading();
+        show_report(report);
+        return true;
+    }
+
+    // Grouping name of an option of options_box, as used by the report cache and the history reports
+    private static String grouping_of(String option) {
+        if ("Group by Card Type".equals(option)) return "card_type";
+        if ("Group by Location".equals(option)) return "location";
+        if ("Group by Terminal".equals(option)) return "terminal";
+        return "date";
+    }
+
+    // Starts building the report for the current file/option in the background, cancelling a build still running
+    private void start_view_update() {
+        if (!files_loaded) return; // The load shows the first report when it is done
+
         String file_name = (String) file_selector_box.getSelectedItem();
         String option = (String) options_box.getSelectedItem();
 
+        // Not interrupted: an interrupt would close the file channels the build is reading from. The build checks
+        // isCancelled between its steps instead, and done() drops its result
+        if (report_worker != null) {
+            report_worker.cancel(false);
+            report_worker = null;
+        }
+
         if (file_name == null) {
-            JTable empty_table = new JTable(new String[][]{{"No XML files found."}}, new String[]{"Message"});
-            table_scroll_pane.setViewportView(empty_table);
+            hide_loading();
+            show_message("No XML files found.");
             return;
         }
 
-        List<Card_Transaction> transactions = Program_Manager.get_transactions(file_name);
+        boolean ascending = "Oldest to Newest".equals(sort_order_box.getSelectedItem());
+        report_worker = new Report_Worker(file_name, option, ascending, current_filter());
+        show_loading("Building report...");
+        report_worker.execute();
+    }
 
-        if (transactions.isEmpty()) {
-            JTable empty_table = new JTable(new String[][]{{"No transactions found."}}, new String[]{"Message"});
-            table_scroll_pane.setViewportView(empty_table);
-            return;
+    // Outcome of a background report build: the card types of the selection and either a report or a message
+    private static final class View_Result {
+        Set<String> card_types = Collections.emptySet();
+        Report_Data report;
+        String message;
+    }
+
+    // Builds one report off the EDT; results of a build that was superseded or cancelled are dropped
+    private final class Report_Worker extends SwingWorker<View_Result, Void> {
+        private final String file_name;
+        private final String option;
+        private final boolean ascending;
+        private final Transaction_Filter filter;
+
+        Report_Worker(String file_name, String option, boolean ascending, Transaction_Filter filter) {
+            this.file_name = file_name;
+            this.option = option;
+            this.ascending = ascending;
+            this.filter = filter;
         }
 
-        boolean ascending = "Oldest to Newest".equals(sort_order_box.getSelectedItem());
+        @Override
+        protected View_Result doInBackground() throws IOException {
+            if (history_selection.equals(file_name)) return build_history();
+            View_Result result = new View_Result();
+            String grouping = grouping_of(option);
+            long version = Program_Manager.get_data_version(file_name); // Before reading, see Report_Cache.put
+            result.card_types = Program_Manager.get_cube(file_name).get_card_types();
+            result.report = Report_Cache.get(file_name, grouping, filter, version, ascending);
+            if (result.report != null || isCancelled()) return result;
+
+            List<Transaction_Store> stores = Program_Manager.get_stores(file_name); // May re-read evicted files
+            if (isCancelled()) return result;
+
+            if (stores.stream().allMatch(Transaction_Store::is_empty)) {
+                result.message = "No transactions found.";
+                return result;
+            }
+
+            // Choose report type based on selected option; date and card type totals come from the pre-computed
+            // rollup cubes, restricted to the filter, so the report only visits the (date, card type) cells that
+            // pass it. Location and terminal reports aggregate the filtered rows directly
+            Rollup_Cube cube = Program_Manager.get_cube(file_name, filter);
+            if (cube.is_empty()) {
+                result.message = "No transactions match the filter.";
+                return result;
+            }
+            if (isCancelled()) return result;
+            switch (grouping) {
+                case "card_type":
+                    result.report = Report_Analyzer.build_card_type_report(cube, stores);
+                    break;
+                case "location":
+                    result.report = Report_Analyzer.build_location_report(stores, filter);
+                    break;
+                case "terminal":
+                    result.report = Report_Analyzer.build_terminal_report(stores, filter);
+                    break;
+                default:
+                    result.report = Report_Analyzer.build_date_report(cube, stores, ascending);
+            }
+            Report_Cache.put(file_name, grouping, filter, version, ascending, result.report);
+            return result;
+        }
+
+        // Monthly totals of every file ever loaded, from the rollup ledger (no XML is read)
+        private View_Result build_history() throws IOException {
+            View_Result result = new View_Result();
+            result.card_types = Rollup_Ledger.get_card_types();
+            String grouping = grouping_of(option);
+            if (grouping.equals("terminal")) {
+                result.message = "The history keeps totals per location, not per terminal.";
+                return result;
+            }
+            Report_Data report = Report_Analyzer.build_history_report(grouping, filter, true, ascending);
+            if (report.is_empty()) {
+                result.message = "No history matches the filter.";
+            } else {
+                result.report = report;
+            }
+            return result;
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled() || report_worker != this) return; // A newer selection is being built
+            report_worker = null;
+            hide_loading();
+
+            View_Result result;
+            try {
+                result = get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace();
+                show_message("Could not build the report: " + (e.getCause() != null ? e.getCause() : e));
+                return;
+            }
 
-        // Choose report type based on selected option
-        JTable result_table = option.equals("Group by Card Type")
-                ? Report_Analyzer.group_by_card_type(transactions)
-                : Report_Analyzer.group_by_date_with_summary(transactions, ascending);
+            refresh_card_types(result.card_types);
+            shown_file_name = file_name;
+            if (result.report == null) {
+                show_message(result.message);
+                return;
+            }
+            show_report(result.report);
+        }
+    }
 
+    // Replaces the table with a report
+    private void show_report(Report_Data report) {
+        JTable result_table = Report_Analyzer.to_table(report); // Cheap: cells are computed on demand
         table_scroll_pane.setViewportView(result_table);
         current_table = result_table;
     }
 
-    // Method to export the currently shown table to PDF or Excel
+    // Replaces the table with a one-cell message
+    private void show_message(String message) {
+        JTable message_table = new JTable(new String[][]{{message}}, new String[]{"Message"});
+        table_scroll_pane.setViewportView(message_table);
+        current_table = null;
+    }
+
+    // Shows the progress bar with a text; the current table stays visible (and usable) until the new one is ready
+    private void show_loading(String text) {
+        loading_bar.setString(text);
+        loading_bar.setVisible(true);
+        loading_bar.getParent().revalidate(); // Lay the toolbar out again
+    }
+
+    private void hide_loading() {
+        loading_bar.setVisible(false);
+        loading_bar.getParent().revalidate();
+    }
+
+    // Filter from the date fields and the card type box; a date that cannot be read is marked and ignored
+    private Transaction_Filter current_filter() {
+        LocalDate from = read_date(from_date_field);
+        LocalDate to = read_date(to_date_field);
+        String card_type = (String) card_type_box.getSelectedItem();
+        List<String> card_types = card_type == null || card_type_box.getSelectedIndex() == 0
+                ? null : Collections.singletonList(card_type);
+        return new Transaction_Filter(from, to, card_types);
+    }
+
+    // Date typed into a filter field, or null when the field is empty or invalid
+    private static LocalDate read_date(JTextField field) {
+        String text = field.getText().trim();
+        field.setBackground(UIManager.getColor("TextField.background"));
+        if (text.isEmpty()) return null;
+        try {
+            return LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            field.setBackground(new Color(255, 220, 220));
+            return null;
+        }
+    }
+
+    // Refills the card type box with the types of the selected file, keeping the current choice when it still exists
+    private void refresh_card_types(Set<String> card_types) {
+        List<String> types = new ArrayList<>(card_types);
+        types.sort(String.CASE_INSENSITIVE_ORDER);
+        Object selected = card_type_box.getSelectedItem();
+
+        refreshing_card_types = true;
+        try {
+            card_type_box.removeAllItems();
+            card_type_box.addItem("All Card Types");
+            for (String type : types) card_type_box.addItem(type);
+            card_type_box.setSelectedItem(types.contains(selected) ? selected : "All Card Types");
+        } finally {
+            refreshing_card_types = false;
+        }
+    }
+
+    // Method to export the currently shown table to PDF, Excel or CSV. The export works from a snapshot taken here on
+    // the EDT (the table's immutable report), so switching the view while it runs cannot change what it writes
     private void export_to_file(String type) {
+        if (report_worker != null || view_debounce.isRunning()) {
+            JOptionPane.showMessageDialog(this, "The report is still being built, please try again in a moment.");
+            return;
+        }
         if (current_table == null || current_table.getRowCount() == 0) {
             JOptionPane.showMessageDialog(this, "No table data to export.");
             return;
@@ -130,19 +542,14 @@ public class Transaction_Viewer_UI extends JFrame {
         String file_name = "Report_" + System.currentTimeMillis();
         try {
             String base_dir = new File(".").getCanonicalPath();
-            File export_file;
+            String kind = "pdf".equalsIgnoreCase(type) ? "PDF" : "csv".equalsIgnoreCase(type) ? "CSV file" : "Excel file";
+            String folder = "pdf".equalsIgnoreCase(type) ? "save_pdf" : "csv".equalsIgnoreCase(type) ? "save_csv" : "save_excel";
+            String extension = "pdf".equalsIgnoreCase(type) ? ".pdf" : "csv".equalsIgnoreCase(type) ? ".csv" : ".xlsx";
 
-            if ("pdf".equalsIgnoreCase(type)) {
-                File dir = new File(base_dir, "save_pdf");
-                dir.mkdirs();
-                export_file = new File(dir, file_name + ".pdf");
-                export_to_pdf_in_background(current_table, export_file);
-            } else {
-                File dir = new File(base_dir, "save_excel");
-                dir.mkdirs();
-                export_file = new File(dir, file_name + ".xlsx");
-                export_to_excel_in_background(current_table, export_file);
-            }
+            File dir = new File(base_dir, folder);
+            dir.mkdirs();
+            File export_file = new File(dir, file_name + extension);
+            schedule_export(kind, export_file, export_task(type, current_table, export_file));
 
         } catch (IOException ex) {
             ex.printStackTrace();
@@ -150,68 +557,97 @@ public class Transaction_Viewer_UI extends JFrame {
         }
     }
 
-    // Run PDF export in background to avoid UI freeze
-    private void export_to_pdf_in_background(JTable table, File file) {
-        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+    // The export of a snapshot of the table: its report when it has one, otherwise a copy of its cells
+    private static Export_Scheduler.Export_Task export_task(String type, JTable table, File file) {
+        if (table.getModel() instanceof Report_Table_Model) {
+            Report_Data report = ((Report_Table_Model) table.getModel()).get_report();
+            if ("pdf".equalsIgnoreCase(type)) return progress -> PDF_Exporter.export_report(report, file, progress);
+            if ("csv".equalsIgnoreCase(type)) return progress -> Delimited_Exporter.export_report(report, file, progress);
+            return progress -> Excel_Exporter.export_report(report, file, progress);
+        }
+        JTable copy = copy_of(table);
+        if ("pdf".equalsIgnoreCase(type)) return progress -> PDF_Exporter.export_to_pdf(copy, file);
+        if ("csv".equalsIgnoreCase(type)) return progress -> Delimited_Exporter.export_to_file(copy, file);
+        return progress -> Excel_Exporter.export_to_excel(copy, file);
+    }
 
-        new SwingWorker<Void, Void>() {
-            @Override
-            protected Void doInBackground() {
-                try {
-                    PDF_Exporter.export_to_pdf(table, file);
-                } catch (IOException ex) {
-                    SwingUtilities.invokeLater(() ->
-                            JOptionPane.showMessageDialog(Transaction_Viewer_UI.this, "Export failed: " + ex.getMessage())
-                    );
-                }
-                return null;
-            }
+    // Detached copy of a table's column names and cell values
+    private static JTable copy_of(JTable table) {
+        String[] columns = new String[table.getColumnCount()];
+        for (int col = 0; col < columns.length; col++) columns[col] = table.getColumnName(col);
+        Object[][] cells = new Object[table.getRowCount()][columns.length];
+        for (int row = 0; row < cells.length; row++) {
+            for (int col = 0; col < columns.length; col++) cells[row][col] = table.getValueAt(row, col);
+        }
+        return new JTable(cells, columns);
+    }
 
-            @Override
-            protected void done() {
-                setCursor(Cursor.getDefaultCursor());
-                if (file.exists()) {
-                    int result = JOptionPane.showConfirmDialog(Transaction_Viewer_UI.this,
-                            "PDF saved at:\n" + file.getAbsolutePath() + "\n\nOpen it now?",
-                            "Export Successful",
-                            JOptionPane.YES_NO_OPTION);
-                    if (result == JOptionPane.YES_OPTION) {
-                        try {
-                            Desktop.getDesktop().open(file);
-                        } catch (IOException e) {
-                            JOptionPane.showMessageDialog(Transaction_Viewer_UI.this, "Cannot open file: " + e.getMessage());
-                        }
-                    }
-                } else {
-                    JOptionPane.showMessageDialog(Transaction_Viewer_UI.this, "Export failed — file not created.");
-                }
-            }
-        }.execute();
+    // Queues an export on the export scheduler; progress and results come back to the EDT
+    private void schedule_export(String kind, File file, Export_Scheduler.Export_Task task) {
+        try {
+            export_scheduler.submit(kind + " " + file.getName(), file, task,
+                    (job, state) -> SwingUtilities.invokeLater(() -> export_changed(job, state, kind)));
+        } catch (RejectedExecutionException e) {
+            JOptionPane.showMessageDialog(this, "Too many exports are waiting; please let one finish or cancel them first.");
+            return;
+        }
+        update_export_bar();
     }
 
-    // Run Excel export in background
-    private void export_to_excel_in_background(JTable table, File file) {
-        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+    // Shows the outcome of a finished export and refreshes the export progress bar
+    private void export_changed(Export_Scheduler.Export_Job job, Export_Scheduler.State state, String kind) {
+        update_export_bar();
+        File file = job.get_file();
+        if (state == Export_Scheduler.State.DONE) {
+            int result = JOptionPane.showConfirmDialog(this,
+                    kind + " saved at:\n" + file.getAbsolutePath() + "\n\nOpen it now?",
+                    "Export Successful",
+                    JOptionPane.YES_NO_OPTION);
+            if (result == JOptionPane.YES_OPTION) open_file(file);
+        } else if (state == Export_Scheduler.State.FAILED) {
+            Exception error = job.get_error();
+            if (error != null) error.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Export failed: " + (error != null ? error.getMessage() : file.getName()));
+        }
+    }
 
-        new SwingWorker<Void, Void>() {
-            @Override
-            protected Void doInBackground() {
-                try {
-                    Excel_Exporter.export_to_excel(table, file);
-                } catch (IOException ex) {
-                    SwingUtilities.invokeLater(() ->
-                            JOptionPane.showMessageDialog(Transaction_Viewer_UI.this, "Export failed: " + ex.getMessage())
-                    );
+    // Progress of the oldest running export and the number of exports behind it; hidden when none is left
+    private void update_export_bar() {
+        List<Export_Scheduler.Export_Job> jobs = export_scheduler.get_jobs();
+        boolean visible = !jobs.isEmpty();
+        if (visible) {
+            Export_Scheduler.Export_Job shown = jobs.get(0);
+            for (Export_Scheduler.Export_Job job : jobs) {
+                if (job.get_state() == Export_Scheduler.State.RUNNING) {
+                    shown = job;
+                    break;
                 }
-                return null;
             }
+            int percent = shown.get_percent();
+            export_bar.setIndeterminate(percent < 0);
+            export_bar.setValue(Math.max(0, percent));
+            String text = (shown.get_state() == Export_Scheduler.State.RUNNING ? "Exporting " : "Queued ")
+                    + shown.get_description() + (percent >= 0 ? " " + percent + "%" : "");
+            export_bar.setString(jobs.size() > 1 ? text + " (+" + (jobs.size() - 1) + " more)" : text);
+        }
+        if (export_bar.isVisible() != visible) {
+            export_bar.setVisible(visible);
+            cancel_exports_button.setVisible(visible);
+            export_bar.getParent().revalidate();
+        }
+    }
 
-            @Override
-            protected void done() {
-                setCursor(Cursor.getDefaultCursor());
-                JOptionPane.showMessageDialog(Transaction_Viewer_UI.this, "Excel export successful!");
-            }
-        }.execute();
+    // Opens an exported file with the desktop's default application
+    private void open_file(File file) {
+        if (!Desktop.isDesktopSupported()) {
+            JOptionPane.showMessageDialog(this, "Desktop not supported on this system.");
+            return;
+        }
+        try {
+            Desktop.getDesktop().open(file);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "Cannot open file: " + e.getMessage());
+        }
     }
 
     // Allow user to import XML file dynamically and refresh view
@@ -222,29 +658,35 @@ public class Transaction_Viewer_UI extends JFrame {
 
         if (result == JFileChooser.APPROVE_OPTION) {
             File selected = chooser.getSelectedFile();
-            File dest = new File("xml_files", selected.getName());
+            File dest = new File(Program_Manager.get_input_roots().get(0), selected.getName());
 
             try {
                 Files.copy(selected.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
                 setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-                new SwingWorker<Void, Void>() {
+                // The file list is handed to done(), so xml_files is only ever assigned on the EDT
+                new SwingWorker<List<File>, Void>() {
                     @Override
-                    protected Void doInBackground() {
+                    protected List<File> doInBackground() {
                         Program_Manager.add_file_to_cache(dest);
-                        xml_files = Program_Manager.get_all_files();
-                        return null;
+                        return Program_Manager.get_all_files();
                     }
 
                     @Override
                     protected void done() {
-                        file_selector_box.removeAllItems();
-                        file_selector_box.addItem("All Files");
-                        for (File f : xml_files) {
-                            file_selector_box.addItem(f.getName());
+                        try {
+                            xml_files = get();
+                        } catch (InterruptedException | ExecutionException e) {
+                            e.printStackTrace();
+                            setCursor(Cursor.getDefaultCursor());
+                            JOptionPane.showMessageDialog(Transaction_Viewer_UI.this,
+                                    "Could not add the file: " + (e.getCause() != null ? e.getCause() : e));
+                            return;
                         }
+                        file_selector_box.removeAllItems();
+                        fill_file_selector();
 
-                        file_selector_box.setSelectedItem(dest.getName());
+                        file_selector_box.setSelectedItem(Program_Manager.key_of(dest));
                         update_view();
                         setCursor(Cursor.getDefaultCursor());
 
@@ -1,16 +1,35 @@
 import org.w3c.dom.*;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 // Parser utility for reading XML files and extracting CardTransaction data
 public class XML_Parser {
 
-    // Cache to store parsed data to avoid reprocessing same file
-    private static final Map<String, List<Card_Transaction>> cache = new HashMap<>();
+    // Shared StAX factory (thread-safe once configured); DTDs and external entities are disabled
+    private static final XMLInputFactory stax_factory = create_stax_factory();
+
+    // Streaming (StAX) parsing is the default, the DOM parser is kept as a fallback
+    private static volatile boolean streaming_enabled = true;
+
+    // Files in the usual NAXML layout are read by the parallel byte scanner first (-Dxml.fast_scan=false turns it off)
+    private static volatile boolean fast_scan_enabled = !"false".equalsIgnoreCase(System.getProperty("xml.fast_scan"));
 
     // Parses all XML files in a given folder and returns combined transactions
     public static ArrayList<Card_Transaction> parse_folder(String folder_path) {
@@ -22,7 +41,7 @@ public class XML_Parser {
             return all;
         }
 
-        File[] files = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".xml"));
+        File[] files = folder.listFiles((dir, name) -> is_input_file(name));
 
         if (files == null || files.length == 0) {
             System.out.println("No XML files found in: " + folder_path);
@@ -48,47 +67,375 @@ public class XML_Parser {
 
     // Parses a single XML file and extracts all CardTransaction records
     public static List<Card_Transaction> parse_single_file(File file) {
-        String key = file.getAbsolutePath();
-        if (cache.containsKey(key)) return cache.get(key);
+        return parse_store(file).as_list();
+    }
+
+    // Parses a single XML file into columnar form; errors are logged and whatever was read is kept
+    public static Transaction_Store parse_store(File file) {
+        Transaction_Store cached = Store_Cache.get(file);
+        if (cached != null) return cached;
 
-        List<Card_Transaction> transactions = new ArrayList<>();
+        long size = file.length();
+        long mtime = file.lastModified(); // Taken before parsing so a concurrent change invalidates the entry
+        Transaction_Store transactions = new Transaction_Store();
         try {
-            Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
-            doc.getDocumentElement().normalize();
+            transactions = load_or_parse(file, size, mtime, transactions);
+        } catch (Exception e) {
+            System.out.println("Error reading file: " + file.getName());
+            e.printStackTrace();
+        }
 
-            NodeList batch_list = doc.getElementsByTagName("Batch");
+        transactions.trim();
+        Store_Cache.put(file, size, mtime, transactions); // Save result in the shared cache
+        return transactions;
+    }
 
-            for (int i = 0; i < batch_list.getLength(); i++) {
-                Element batch = (Element) batch_list.item(i);
-                String batch_date = get_tag_value(batch, "BatchDate");
+    // Same as parse_store, but reports failures to the caller instead of caching a partial result
+    public static Transaction_Store parse_file_or_throw(File file) throws Exception {
+        Transaction_Store cached = Store_Cache.get(file);
+        if (cached != null) return cached;
 
-                NodeList card_types = batch.getElementsByTagName("CardType");
-                for (int j = 0; j < card_types.getLength(); j++) {
-                    Element card = (Element) card_types.item(j);
-                    String card_type = card.getAttribute("identType");
-                    int quantity = Integer.parseInt(card.getAttribute("quantity"));
-                    double gross = Double.parseDouble(card.getAttribute("grossAmount"));
-                    double net = Double.parseDouble(card.getAttribute("netAmount"));
+        long size = file.length();
+        long mtime = file.lastModified();
+        Transaction_Store transactions = load_or_parse(file, size, mtime, new Transaction_Store());
 
-                    Element fee_element = (Element) card.getElementsByTagName("ChargeAmt").item(0);
-                    double fee = Double.parseDouble(fee_element.getTextContent());
+        Store_Cache.put(file, size, mtime, transactions);
+        return transactions;
+    }
 
-                    transactions.add(new Card_Transaction(batch_date, card_type, quantity, gross, net, fee));
-                }
+    // Uses the on-disk snapshot when the file is unchanged, otherwise parses into the given store and snapshots it
+    private static Transaction_Store load_or_parse(File file, long size, long mtime, Transaction_Store transactions) throws Exception {
+        Metrics.Span span = Metrics.begin_file();
+        try {
+            Transaction_Store snapshot = Snapshot_Cache.load(file);
+            if (snapshot != null) {
+                Metrics.end_file(span, file, snapshot.size(), true);
+                return snapshot;
             }
 
+            transactions = parse_into(file, transactions);
+            transactions.trim();
+            Snapshot_Cache.save(file, size, mtime, transactions);
+            Metrics.end_file(span, file, transactions.size(), false);
+            return transactions;
         } catch (Exception e) {
-            System.out.println("Error reading file: " + file.getName());
-            e.printStackTrace();
+            Metrics.file_failed(span, file);
+            throw e;
         }
+    }
 
-        cache.put(key, transactions); // Save result in cache
+    // True for the inputs the app reads: plain XML, gzip-compressed XML and zip archives of XML files
+    public static boolean is_input_file(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".xml") || lower.endsWith(".xml.gz") || lower.endsWith(".zip");
+    }
+
+    // Runs the configured parser (scanner, streaming or DOM) for one file; returns the store that was filled.
+    // Compressed inputs are decompressed while they are parsed, never written to disk
+    private static Transaction_Store parse_into(File file, Transaction_Store transactions) throws Exception {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".zip")) {
+            parse_zip(file, transactions);
+        } else if (name.endsWith(".gz")) {
+            try (InputStream in = new GZIPInputStream(new FileInputStream(file), 64 * 1024)) {
+                parse_stream(in, transactions);
+            }
+        } else if (streaming_enabled) {
+            if (fast_scan_enabled) {
+                Transaction_Store scanned = Naxml_Scanner.parse(file);
+                if (scanned != null) return scanned; // null: not the expected layout, use the general parser
+            }
+            parse_with_stax(file, transactions);
+        } else {
+            parse_with_dom(file, transactions);
+        }
         return transactions;
     }
 
+    // Parses the XML (or XML.gz) entries of a zip archive in parallel and appends them in archive order;
+    // other entries are skipped. A broken entry fails the whole archive
+    private static void parse_zip(File file, Transaction_Store transactions) throws Exception {
+        try (ZipFile zip = new ZipFile(file)) {
+            List<Future<Transaction_Store>> entries = new ArrayList<>();
+            Enumeration<? extends ZipEntry> all = zip.entries();
+            while (all.hasMoreElements()) {
+                ZipEntry entry = all.nextElement();
+                String name = entry.getName().toLowerCase();
+                if (entry.isDirectory() || !(name.endsWith(".xml") || name.endsWith(".xml.gz"))) continue;
+                entries.add(ForkJoinPool.commonPool().submit(() -> parse_zip_entry(zip, entry)));
+            }
+
+            try {
+                for (Future<Transaction_Store> entry : entries) transactions.append(entry.get());
+            } catch (ExecutionException e) {
+                for (Future<Transaction_Store> entry : entries) entry.cancel(true);
+                throw entry_failure(e);
+            }
+        }
+    }
+
+    // The fork-join pool wraps checked exceptions of a task in plain RuntimeExceptions; returns the original one
+    private static Exception entry_failure(ExecutionException e) {
+        Throwable cause = e.getCause();
+        while (cause != null && cause.getClass() == RuntimeException.class && cause.getCause() != null) cause = cause.getCause();
+        return cause instanceof Exception ? (Exception) cause : e;
+    }
+
+    private static Transaction_Store parse_zip_entry(ZipFile zip, ZipEntry entry) throws Exception {
+        Transaction_Store transactions = new Transaction_Store();
+        try (InputStream raw = zip.getInputStream(entry);
+             InputStream in = entry.getName().toLowerCase().endsWith(".gz") ? new GZIPInputStream(raw, 64 * 1024) : raw) {
+            parse_stream(in, transactions);
+        } catch (Exception e) {
+            throw new Exception("Error in " + entry.getName() + ": " + e.getMessage(), e);
+        }
+        return transactions;
+    }
+
+    // Parses decompressed XML with the configured parser (the byte scanner needs a plain file to map)
+    private static void parse_stream(InputStream in, Transaction_Store transactions) throws Exception {
+        if (streaming_enabled) {
+            parse_with_stax(new BufferedInputStream(in, 64 * 1024), transactions);
+        } else {
+            parse_with_dom(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in), transactions);
+        }
+    }
+
+    // Reads the file in one forward pass; only the card types of the current batch are held in memory
+    static void parse_with_stax(File file, Transaction_Store transactions) throws Exception {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 64 * 1024)) {
+            parse_with_stax(in, transactions);
+        }
+    }
+
+    // Same as above for an already opened stream (the caller closes it)
+    static void parse_with_stax(InputStream in, Transaction_Store transactions) throws Exception {
+        XMLStreamReader reader = stax_factory.createXMLStreamReader(in);
+        try {
+            read_batches(reader, transactions);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Walks the event stream and emits one transaction per CardType, mirroring the DOM lookups
+    private static void read_batches(XMLStreamReader reader, Transaction_Store transactions) throws XMLStreamException {
+        Batch_Buffer batch = new Batch_Buffer();
+        String location = "";
+        String batch_date = null;
+        String terminal = null;
+        String batch_number = null;
+        boolean in_card = false;
+        int batch_depth = 0;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+
+                if ("Batch".equals(name)) {
+                    if (batch_depth++ == 0) {
+                        batch_date = null;
+                        terminal = null;
+                        batch_number = null;
+                        batch.clear();
+                    }
+                } else if ("Account".equals(name) && batch_depth == 0) {
+                    location = attribute(reader, "ident");
+                } else if (batch_depth > 0) {
+                    if ("BatchDate".equals(name)) {
+                        String text = reader.getElementText();
+                        if (batch_date == null) batch_date = text; // First BatchDate wins, like getElementsByTagName(...).item(0)
+                    } else if ("TerminalId".equals(name)) {
+                        String text = reader.getElementText();
+                        if (terminal == null) terminal = text.trim();
+                    } else if ("BatchNumber".equals(name)) {
+                        String text = reader.getElementText();
+                        if (batch_number == null) batch_number = text.trim();
+                    } else if ("CardType".equals(name)) {
+                        // StAX only exposes attributes as Strings; they go straight to primitives from there
+                        batch.add(attribute(reader, "identType"),
+                                Fixed_Point.parse_int(attribute(reader, "quantity")),
+                                Fixed_Point.parse_cents(attribute(reader, "grossAmount")),
+                                Fixed_Point.parse_cents(attribute(reader, "netAmount")));
+                        in_card = true;
+                    } else if ("ChargeAmt".equals(name) && in_card) {
+                        long fee = read_cents(reader);
+                        if (!batch.has_fee()) batch.set_fee(fee);
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String name = reader.getLocalName();
+
+                if ("CardType".equals(name)) {
+                    in_card = false;
+                } else if ("Batch".equals(name) && --batch_depth == 0) {
+                    batch.flush_to(transactions, batch_date != null ? batch_date : "", location,
+                            terminal != null ? terminal : "", batch_number != null ? batch_number : "");
+                } else if ("Account".equals(name) && batch_depth == 0) {
+                    location = "";
+                }
+            }
+        }
+    }
+
+    // Parses the text of the current element as cents straight from the reader's char buffer (no String)
+    private static long read_cents(XMLStreamReader reader) throws XMLStreamException {
+        long cents = 0;
+        boolean found = false;
+        int event;
+        while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                if (reader.isWhiteSpace()) continue;
+                if (found) throw new NumberFormatException("Unexpected split amount text"); // Not produced with coalescing on
+                cents = Fixed_Point.parse_cents(reader.getTextCharacters(), reader.getTextStart(),
+                        reader.getTextStart() + reader.getTextLength());
+                found = true;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                throw new XMLStreamException("Unexpected element inside amount", reader.getLocation());
+            }
+        }
+        if (!found) throw new NumberFormatException("Empty amount");
+        return cents;
+    }
+
+    // StAX returns null for a missing attribute where DOM returns an empty string
+    private static String attribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value != null ? value : "";
+    }
+
+    // CardType values of the current batch in primitive columns, reused for every batch of a file
+    private static final class Batch_Buffer {
+        private String[] card_types = new String[16];
+        private int[] quantities = new int[16];
+        private long[] gross_cents = new long[16];
+        private long[] net_cents = new long[16];
+        private long[] fee_cents = new long[16];
+        private boolean[] has_fee = new boolean[16];
+        private int size;
+
+        void add(String card_type, int quantity, long gross, long net) {
+            if (size == quantities.length) grow();
+            card_types[size] = card_type;
+            quantities[size] = quantity;
+            gross_cents[size] = gross;
+            net_cents[size] = net;
+            has_fee[size] = false;
+            size++;
+        }
+
+        // Whether the last CardType already has its (first) ChargeAmt
+        boolean has_fee() {
+            return has_fee[size - 1];
+        }
+
+        void set_fee(long fee) {
+            fee_cents[size - 1] = fee;
+            has_fee[size - 1] = true;
+        }
+
+        // Appends the batch to the store once its date, terminal and batch number are known
+        void flush_to(Transaction_Store transactions, String batch_date, String location, String terminal,
+                      String batch_number) {
+            for (int i = 0; i < size; i++) {
+                // Missing ChargeAmt fails the file, as with the DOM parser
+                if (!has_fee[i]) throw new NumberFormatException("Missing ChargeAmt for card type " + card_types[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                transactions.add(batch_date, card_types[i], location, terminal, batch_number, quantities[i],
+                        gross_cents[i], net_cents[i], fee_cents[i]);
+            }
+            clear();
+        }
+
+        void clear() {
+            Arrays.fill(card_types, 0, size, null);
+            size = 0;
+        }
+
+        private void grow() {
+            int capacity = quantities.length * 2;
+            card_types = Arrays.copyOf(card_types, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            gross_cents = Arrays.copyOf(gross_cents, capacity);
+            net_cents = Arrays.copyOf(net_cents, capacity);
+            fee_cents = Arrays.copyOf(fee_cents, capacity);
+            has_fee = Arrays.copyOf(has_fee, capacity);
+        }
+    }
+
+    // Original DOM implementation, kept as a fallback for documents the streaming reader cannot handle
+    static void parse_with_dom(File file, Transaction_Store transactions) throws Exception {
+        parse_with_dom(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file), transactions);
+    }
+
+    private static void parse_with_dom(Document doc, Transaction_Store transactions) {
+        doc.getDocumentElement().normalize();
+
+        NodeList batch_list = doc.getElementsByTagName("Batch");
+
+        for (int i = 0; i < batch_list.getLength(); i++) {
+            Element batch = (Element) batch_list.item(i);
+            String batch_date = get_tag_value(batch, "BatchDate");
+            String terminal = get_tag_value(batch, "TerminalId").trim();
+            String batch_number = get_tag_value(batch, "BatchNumber").trim();
+            String location = location_of(batch);
+
+            NodeList card_types = batch.getElementsByTagName("CardType");
+            for (int j = 0; j < card_types.getLength(); j++) {
+                Element card = (Element) card_types.item(j);
+                String card_type = card.getAttribute("identType");
+                int quantity = Fixed_Point.parse_int(card.getAttribute("quantity"));
+                long gross = Fixed_Point.parse_cents(card.getAttribute("grossAmount"));
+                long net = Fixed_Point.parse_cents(card.getAttribute("netAmount"));
+
+                Element fee_element = (Element) card.getElementsByTagName("ChargeAmt").item(0);
+                long fee = Fixed_Point.parse_cents(fee_element.getTextContent());
+
+                transactions.add(batch_date, card_type, location, terminal, batch_number, quantity, gross, net, fee);
+            }
+        }
+    }
+
+    // Ident of the Account element enclosing a batch, or empty if there is none
+    private static String location_of(Element batch) {
+        for (Node node = batch.getParentNode(); node != null; node = node.getParentNode()) {
+            if (node instanceof Element && "Account".equals(((Element) node).getTagName())) {
+                return ((Element) node).getAttribute("ident");
+            }
+        }
+        return "";
+    }
+
+    // Switches between the streaming parser (default) and the DOM fallback
+    public static void set_streaming_enabled(boolean enabled) {
+        streaming_enabled = enabled;
+    }
+
+    // Turns the parallel byte scanner on or off (the streaming parser is used when it is off)
+    public static void set_fast_scan_enabled(boolean enabled) {
+        fast_scan_enabled = enabled;
+    }
+
+    // Builds the StAX factory with DTD and external entity support turned off
+    private static XMLInputFactory create_stax_factory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
     // Clears the cache (can be used during app refresh)
     public static void clear_cache() {
-        cache.clear();
+        Store_Cache.clear();
     }
-}
 
+    // Drops one file from the cache so the next parse reads it again (used when the file changed on disk)
+    public static void evict(File file) {
+        Store_Cache.remove(file);
+    }
+}
@@ -0,0 +1,254 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableModel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+// Exported files must read back to exactly the rows and cents of the store or report, in every format: quoted CSV,
+// TSV without quoting, and gzip with a valid trailer
+class Delimited_Exporter_Test {
+
+    @TempDir
+    Path folder;
+
+    @BeforeAll
+    static void disable_side_files() {
+        Snapshot_Cache.set_enabled(false);
+        Rollup_Ledger.set_enabled(false);
+    }
+
+    @Test
+    void csv_quotes_only_fields_that_need_it() throws Exception {
+        Transaction_Store store = new Transaction_Store();
+        store.add("2025-06-01", "VISA, FLEET", "Main \"North\"", "line\nbreak", "cr\rreturn", 3, 1050, 1000, 50);
+        store.add("2025-06-02", "DEBIT CARD", "plain", "7", "12", 1, 100, 99, 1);
+        File file = folder.resolve("escaped.csv").toFile();
+        Delimited_Exporter.export_transactions(Collections.singletonList(store), file);
+
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(text.contains("2025-06-01,\"VISA, FLEET\",\"Main \"\"North\"\"\",\"line\nbreak\",\"cr\rreturn\",3,10.50,10.00,0.50\n"), text);
+        assertTrue(text.endsWith("2025-06-02,DEBIT CARD,plain,7,12,1,1.00,0.99,0.01\n"), text);
+        assertEquals(Arrays.asList("2025-06-01", "VISA, FLEET", "Main \"North\"", "line\nbreak", "cr\rreturn", "3", "10.50", "10.00", "0.50"),
+                read(file).get(1));
+    }
+
+    @Test
+    void tsv_replaces_tabs_and_line_breaks() throws Exception {
+        Transaction_Store store = new Transaction_Store();
+        store.add("2025-06-01", "VISA\tFLEET", "a, \"b\"", "line\nbreak", "cr\rreturn", 3, 1050, 1000, 50);
+        File file = folder.resolve("replaced.tsv").toFile();
+        Delimited_Exporter.export_transactions(Collections.singletonList(store), file);
+
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(text.endsWith("\n2025-06-01\tVISA FLEET\ta, \"b\"\tline break\tcr return\t3\t10.50\t10.00\t0.50\n"), text);
+        assertEquals(2, text.split("\n").length);
+    }
+
+    @Test
+    void negative_cents_keep_their_sign() throws Exception {
+        Transaction_Store store = new Transaction_Store();
+        store.add("2025-06-01", "VISA", "1", "1", "1", -2, -5, -1234, -100);
+        store.add("2025-06-01", "VISA", "1", "1", "1", 0, 0, 5, 9);
+        File file = folder.resolve("negative.csv").toFile();
+        Delimited_Exporter.export_transactions(Collections.singletonList(store), file);
+
+        List<List<String>> rows = read(file);
+        assertEquals(Arrays.asList("-2", "-0.05", "-12.34", "-1.00"), rows.get(1).subList(5, 9));
+        assertEquals(Arrays.asList("0", "0.00", "0.05", "0.09"), rows.get(2).subList(5, 9));
+    }
+
+    @Test
+    void gzip_output_has_a_valid_trailer() throws Exception {
+        List<Transaction_Store> stores = sample_stores();
+        File plain = folder.resolve("all.csv").toFile();
+        File gzip = folder.resolve("all.csv.gz").toFile();
+        Delimited_Exporter.export_transactions(stores, plain);
+        Delimited_Exporter.export_transactions(stores, gzip);
+
+        byte[] expected = Files.readAllBytes(plain.toPath());
+        assertArrayEquals(expected, gunzip(gzip)); // GZIPInputStream checks the CRC and length of the trailer
+        try (RandomAccessFile raw = new RandomAccessFile(gzip, "r")) {
+            raw.seek(raw.length() - 4);
+            int size = Integer.reverseBytes(raw.readInt());
+            assertEquals(expected.length, size, "Trailer length");
+        }
+    }
+
+    @Test
+    void field_longer_than_the_buffer_is_written_whole() throws Exception {
+        char[] long_value = new char[3 << 20];
+        Arrays.fill(long_value, 'x');
+        Transaction_Store store = new Transaction_Store();
+        store.add("2025-06-01", "VISA", new String(long_value), "1", "1", 1, 100, 90, 10);
+        store.add("2025-06-02", "VISA", "short", "1", "1", 1, 200, 190, 10);
+        File file = folder.resolve("long.tsv").toFile();
+        Delimited_Exporter.export_transactions(Collections.singletonList(store), file);
+
+        List<List<String>> rows = read(file);
+        assertEquals(3, rows.size());
+        assertEquals(long_value.length, rows.get(1).get(2).length());
+        assertEquals("1.90", rows.get(2).get(7));
+    }
+
+    @Test
+    void transactions_read_back_in_every_format() throws Exception {
+        List<Transaction_Store> stores = sample_stores();
+        for (String name : new String[] {"raw.csv", "raw.tsv", "raw.csv.gz", "raw.tsv.gz"}) {
+            File file = folder.resolve(name).toFile();
+            Delimited_Exporter.export_transactions(stores, file);
+            List<List<String>> rows = read(file);
+
+            assertEquals("Batch Date", rows.get(0).get(0), name);
+            int line = 1;
+            for (Transaction_Store store : stores) {
+                for (int row = 0; row < store.size(); row++, line++) {
+                    List<String> fields = rows.get(line);
+                    String where = name + " line " + line;
+                    assertEquals(store.get_batch_date(row), fields.get(0), where);
+                    assertEquals(store.get_card_type(row), fields.get(1), where);
+                    assertEquals(store.get_location(row), fields.get(2), where);
+                    assertEquals(store.get_terminal(row), fields.get(3), where);
+                    assertEquals(store.get_batch_number(row), fields.get(4), where);
+                    assertEquals(store.get_quantity(row), Long.parseLong(fields.get(5)), where);
+                    assertEquals(store.get_gross_cents(row), Fixed_Point.parse_cents(fields.get(6)), where);
+                    assertEquals(store.get_net_cents(row), Fixed_Point.parse_cents(fields.get(7)), where);
+                    assertEquals(store.get_fee_cents(row), Fixed_Point.parse_cents(fields.get(8)), where);
+                }
+            }
+            assertEquals(line, rows.size(), name + " line count");
+        }
+    }
+
+    @Test
+    void report_reads_back_in_every_format() throws Exception {
+        List<Transaction_Store> stores = sample_stores();
+        Report_Data report = Report_Analyzer.build_date_report(Rollup_Cube.of(stores), stores, true);
+        for (String name : new String[] {"report.csv", "report.tsv", "report.csv.gz"}) {
+            File file = folder.resolve(name).toFile();
+            Delimited_Exporter.export_report(report, file);
+            List<List<String>> rows = read(file);
+
+            for (int col = 0; col < report.get_column_count(); col++) {
+                assertEquals(report.get_column_name(col), rows.get(0).get(col), name);
+            }
+            int line = 1;
+            Report_Data.Row_Cursor cursor = report.new_cursor();
+            for (int row = 0; row < report.get_row_count(); row++) {
+                cursor.move_to(row);
+                if (cursor.get_kind() == Report_Data.Row_Kind.EMPTY) continue;
+                List<String> fields = rows.get(line);
+                String where = name + " line " + line++;
+                if (cursor.get_kind() == Report_Data.Row_Kind.DETAIL) {
+                    Transaction_Store store = cursor.get_store();
+                    int store_row = cursor.get_store_row();
+                    assertEquals(store.get_batch_date(store_row), fields.get(0), where);
+                    assertEquals(store.get_card_type(store_row), fields.get(1), where);
+                    assertEquals(store.get_quantity(store_row), Long.parseLong(fields.get(2)), where);
+                    assertEquals(store.get_gross_cents(store_row), Fixed_Point.parse_cents(fields.get(3)), where);
+                    assertEquals(store.get_net_cents(store_row), Fixed_Point.parse_cents(fields.get(4)), where);
+                    assertEquals(store.get_fee_cents(store_row), Fixed_Point.parse_cents(fields.get(5)), where);
+                } else {
+                    Totals totals = cursor.get_totals();
+                    assertEquals("", fields.get(0), where);
+                    assertEquals(cursor.get_total_label(), fields.get(1), where);
+                    assertEquals(totals.get_quantity(), Long.parseLong(fields.get(2)), where);
+                    assertEquals(totals.get_gross_cents(), Fixed_Point.parse_cents(fields.get(3)), where);
+                    assertEquals(totals.get_net_cents(), Fixed_Point.parse_cents(fields.get(4)), where);
+                    assertEquals(totals.get_fee_cents(), Fixed_Point.parse_cents(fields.get(5)), where);
+                }
+            }
+            assertEquals(line, rows.size(), name + " line count");
+            assertEquals(report.get_grand_total().get_net_cents(), Fixed_Point.parse_cents(rows.get(line - 1).get(4)), name);
+        }
+    }
+
+    @Test
+    void plain_table_is_written_cell_by_cell() throws Exception {
+        DefaultTableModel model = new DefaultTableModel(new Object[] {"Name", "Amount"}, 0);
+        model.addRow(new Object[] {"a,b", 12.5});
+        model.addRow(new Object[] {null, "x\"y"});
+        File file = folder.resolve("table.csv").toFile();
+        Delimited_Exporter.export_to_file(new JTable(model), file);
+
+        assertEquals(Arrays.asList(Arrays.asList("Name", "Amount"), Arrays.asList("a,b", "12.5"), Arrays.asList("", "x\"y")),
+                read(file));
+    }
+
+    // Every sample file, parsed
+    private static List<Transaction_Store> sample_stores() throws Exception {
+        File[] files = new File("xml_files").listFiles((dir, name) -> name.toLowerCase().endsWith(".xml"));
+        assertNotNull(files, "xml_files folder not found");
+        Arrays.sort(files);
+        List<Transaction_Store> stores = new ArrayList<>();
+        for (File file : files) {
+            Transaction_Store store = new Transaction_Store();
+            XML_Parser.parse_with_stax(file, store);
+            stores.add(store);
+        }
+        return stores;
+    }
+
+    // Rows of an exported file; CSV fields may be quoted, TSV fields never are
+    private static List<List<String>> read(File file) throws IOException {
+        byte[] bytes = Delimited_Exporter.is_gzip(file) ? gunzip(file) : Files.readAllBytes(file.toPath());
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        assertTrue(text.endsWith("\n"), "Last line not ended");
+        char delimiter = Delimited_Exporter.is_tsv(file) ? '\t' : ',';
+
+        List<List<String>> rows = new ArrayList<>();
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"' && delimiter == ',' && field.length() == 0) {
+                quoted = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n') {
+                fields.add(field.toString());
+                field.setLength(0);
+                rows.add(fields);
+                fields = new ArrayList<>();
+            } else {
+                field.append(c);
+            }
+        }
+        assertFalse(quoted, "Unclosed quote");
+        return rows;
+    }
+
+    private static byte[] gunzip(File file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1 << 16];
+            for (int n; (n = in.read(chunk)) > 0; ) out.write(chunk, 0, n);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+// The scheduler must reject work beyond its queue, drop cancelled queued jobs from the pool, stop running jobs at
+// their next progress update, and delete the partial file of every export that did not finish
+class Export_Scheduler_Test {
+
+    @TempDir
+    Path folder;
+
+    // One export thread and one queue slot, so a blocked job makes the next one wait
+    private final Export_Scheduler scheduler = new Export_Scheduler(1, 1);
+
+    // Lets the blocking job finish
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void stop() {
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    void full_queue_rejects_the_next_export() throws Exception {
+        Watcher first = new Watcher();
+        Export_Scheduler.Export_Job running = scheduler.submit("first", file("first.csv"), blocking(), first);
+        first.await(Export_Scheduler.State.RUNNING);
+        Export_Scheduler.Export_Job queued = scheduler.submit("second", file("second.csv"), progress -> { }, new Watcher());
+
+        assertThrows(RejectedExecutionException.class,
+                () -> scheduler.submit("third", file("third.csv"), progress -> { }, new Watcher()));
+        assertEquals(2, scheduler.get_jobs().size());
+        assertSame(running, scheduler.get_jobs().get(0));
+        assertSame(queued, scheduler.get_jobs().get(1));
+
+        release.countDown();
+        first.await(Export_Scheduler.State.DONE);
+    }
+
+    @Test
+    void cancelled_queued_export_leaves_the_pool() throws Exception {
+        Watcher first = new Watcher();
+        scheduler.submit("first", file("first.csv"), blocking(), first);
+        first.await(Export_Scheduler.State.RUNNING);
+
+        AtomicBoolean ran = new AtomicBoolean();
+        Watcher second = new Watcher();
+        Export_Scheduler.Export_Job queued = scheduler.submit("second", file("second.csv"), progress -> ran.set(true), second);
+        queued.cancel();
+        assertEquals(Export_Scheduler.State.CANCELLED, queued.get_state());
+        assertEquals(1, scheduler.get_jobs().size());
+        assertTrue(second.states.contains(Export_Scheduler.State.CANCELLED));
+
+        // Its queue slot is free again
+        Watcher third = new Watcher();
+        scheduler.submit("third", file("third.csv"), progress -> { }, third);
+
+        release.countDown();
+        third.await(Export_Scheduler.State.DONE);
+        assertFalse(ran.get(), "Cancelled export ran");
+        assertFalse(second.states.contains(Export_Scheduler.State.RUNNING));
+    }
+
+    @Test
+    void cancelled_running_export_stops_and_deletes_its_file() throws Exception {
+        File file = file("partial.csv");
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<RuntimeException> thrown = new AtomicReference<>();
+        Watcher watcher = new Watcher();
+        Export_Scheduler.Export_Job job = scheduler.submit("partial", file, progress -> {
+            Files.write(file.toPath(), "header\n".getBytes(StandardCharsets.US_ASCII));
+            progress.update(1, 10);
+            started.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            try {
+                progress.update(2, 10);
+            } catch (RuntimeException e) {
+                thrown.set(e);
+                throw e;
+            }
+            Files.write(file.toPath(), "done\n".getBytes(StandardCharsets.US_ASCII));
+        }, watcher);
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(10, job.get_percent());
+        assertTrue(file.exists());
+        job.cancel();
+        assertEquals(Export_Scheduler.State.RUNNING, job.get_state(), "A running export stops at its next update");
+        release.countDown();
+
+        watcher.await(Export_Scheduler.State.CANCELLED);
+        assertTrue(thrown.get() instanceof CancellationException, String.valueOf(thrown.get()));
+        assertFalse(file.exists());
+        assertNull(job.get_error());
+        assertTrue(scheduler.get_jobs().isEmpty());
+    }
+
+    @Test
+    void failed_export_deletes_its_file_and_keeps_the_error() throws Exception {
+        File file = file("failed.csv");
+        IOException error = new IOException("Disk full");
+        Watcher watcher = new Watcher();
+        Export_Scheduler.Export_Job job = scheduler.submit("failed", file, progress -> {
+            Files.write(file.toPath(), "header\n".getBytes(StandardCharsets.US_ASCII));
+            throw error;
+        }, watcher);
+
+        watcher.await(Export_Scheduler.State.FAILED);
+        assertEquals(Export_Scheduler.State.FAILED, job.get_state());
+        assertSame(error, job.get_error());
+        assertFalse(file.exists());
+        assertTrue(scheduler.get_jobs().isEmpty());
+    }
+
+    // Task that holds the export thread until the test releases it
+    private Export_Scheduler.Export_Task blocking() {
+        return progress -> assertTrue(release.await(10, TimeUnit.SECONDS));
+    }
+
+    private File file(String name) {
+        return folder.resolve(name).toFile();
+    }
+
+    // Records the states a job went through and waits for one of them
+    private static final class Watcher implements Export_Scheduler.Listener {
+        final List<Export_Scheduler.State> states = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void changed(Export_Scheduler.Export_Job job, Export_Scheduler.State state) {
+            states.add(state);
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        synchronized void await(Export_Scheduler.State state) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (!states.contains(state)) {
+                long left = deadline - System.currentTimeMillis();
+                assertTrue(left > 0, "Timed out waiting for " + state + ", saw " + states);
+                wait(left);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+// Per-batch and per-account sums of the parsed cents must equal an exact BigDecimal reading of the same file, and
+// the settlement export must add up to its own TotalAccountAmt and TotalCreditCardsNetAmt to the cent
+class File_Totals_Test {
+
+    @BeforeAll
+    static void disable_side_files() {
+        Snapshot_Cache.set_enabled(false);
+        Rollup_Ledger.set_enabled(false);
+    }
+
+    @Test
+    void batch_and_account_sums_match_an_exact_reading() throws Exception {
+        for (File file : all_files()) {
+            Transaction_Store store = new Transaction_Store();
+            XML_Parser.parse_with_stax(file, store);
+            Document doc = read(file);
+
+            // Rows are stored in document order, one per CardType
+            int row = 0;
+            NodeList batches = doc.getElementsByTagName("Batch");
+            for (int i = 0; i < batches.getLength(); i++) {
+                NodeList card_types = ((Element) batches.item(i)).getElementsByTagName("CardType");
+                long[] stored = new long[3];
+                for (int j = 0; j < card_types.getLength(); j++, row++) {
+                    stored[0] += store.get_gross_cents(row);
+                    stored[1] += store.get_net_cents(row);
+                    stored[2] += store.get_fee_cents(row);
+                }
+                String where = file.getName() + " batch " + i;
+                assertEquals(sum(card_types, "grossAmount"), stored[0], where + " gross");
+                assertEquals(sum(card_types, "netAmount"), stored[1], where + " net");
+                assertEquals(sum_fees(card_types), stored[2], where + " fee");
+            }
+            assertEquals(row, store.size(), file.getName() + " row count");
+
+            NodeList accounts = doc.getElementsByTagName("Account");
+            for (int i = 0; i < accounts.getLength(); i++) {
+                Element account = (Element) accounts.item(i);
+                String location = account.getAttribute("ident");
+                long stored = 0;
+                for (int r = 0; r < store.size(); r++) {
+                    if (location.equals(store.get_location(r))) stored += store.get_net_cents(r);
+                }
+                assertEquals(sum(account.getElementsByTagName("CardType"), "netAmount"), stored,
+                        file.getName() + " account " + location);
+            }
+        }
+    }
+
+    @Test
+    void settlement_export_adds_up_to_its_stated_totals() throws Exception {
+        File[] files = new File("src/main/resources/xml_files").listFiles((dir, name) -> name.startsWith("CITGO_"));
+        assertNotNull(files, "Settlement export folder not found");
+        assertTrue(files.length > 0, "No settlement export");
+        for (File file : files) {
+            Transaction_Store store = XML_Parser.parse_file_or_throw(file);
+            Document doc = read(file);
+
+            long file_net = 0;
+            for (int row = 0; row < store.size(); row++) {
+                String where = file.getName() + " row " + row;
+                assertEquals(store.get_gross_cents(row) - store.get_fee_cents(row), store.get_net_cents(row), where);
+                file_net += store.get_net_cents(row);
+            }
+
+            NodeList accounts = doc.getElementsByTagName("Account");
+            assertTrue(accounts.getLength() > 0, file.getName() + " has no account");
+            for (int i = 0; i < accounts.getLength(); i++) {
+                Element account = (Element) accounts.item(i);
+                String location = account.getAttribute("ident");
+                long stored = 0;
+                for (int row = 0; row < store.size(); row++) {
+                    if (location.equals(store.get_location(row))) stored += store.get_net_cents(row);
+                }
+                assertEquals(stated(account, "TotalAccountAmt"), stored, file.getName() + " account " + location);
+            }
+            assertEquals(stated(doc.getDocumentElement(), "TotalCreditCardsNetAmt"), file_net, file.getName());
+        }
+    }
+
+    // The sample files and the settlement exports shipped as resources
+    private static List<File> all_files() {
+        List<File> files = new ArrayList<>();
+        File[] samples = new File("xml_files").listFiles((dir, name) -> name.toLowerCase().endsWith(".xml"));
+        assertNotNull(samples, "xml_files folder not found");
+        for (File file : samples) files.add(file);
+        File[] exports = new File("src/main/resources/xml_files").listFiles((dir, name) -> name.startsWith("CITGO_"));
+        if (exports != null) for (File file : exports) files.add(file);
+        return files;
+    }
+
+    private static Document read(File file) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+    }
+
+    // Sum of one amount attribute of CardType elements, in cents
+    private static long sum(NodeList card_types, String attribute) {
+        long total = 0;
+        for (int i = 0; i < card_types.getLength(); i++) total += cents(((Element) card_types.item(i)).getAttribute(attribute));
+        return total;
+    }
+
+    // Sum of the first ChargeAmt of CardType elements, in cents (the parser keeps one fee per card type)
+    private static long sum_fees(NodeList card_types) {
+        long total = 0;
+        for (int i = 0; i < card_types.getLength(); i++) {
+            NodeList charges = ((Element) card_types.item(i)).getElementsByTagName("ChargeAmt");
+            if (charges.getLength() > 0) total += cents(charges.item(0).getTextContent());
+        }
+        return total;
+    }
+
+    // Amount of the first element with the given name under a parent, in cents
+    private static long stated(Element parent, String name) {
+        NodeList elements = parent.getElementsByTagName(name);
+        assertTrue(elements.getLength() > 0, "No " + name);
+        return cents(((Element) elements.item(0)).getAttribute("amount"));
+    }
+
+    // Exact reading that does not share code with Fixed_Point
+    private static long cents(String amount) {
+        return new BigDecimal(amount.trim()).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+}
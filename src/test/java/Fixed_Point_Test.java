@@ -0,0 +1,118 @@
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.junit.jupiter.api.Assertions.*;
+// Amounts must parse to the same cents through every overload as an exact BigDecimal rounded half up, and format back
+class Fixed_Point_Test {
+
+    @Test
+    void plain_amounts() {
+        assert_cents(24615, "246.15");
+        assert_cents(350, "3.5");
+        assert_cents(1200, "12");
+        assert_cents(50, ".5");
+        assert_cents(500, "5.");
+        assert_cents(0, "0.00");
+        assert_cents(7, "0.07");
+    }
+
+    @Test
+    void third_decimal_rounds_half_up() {
+        assert_cents(13, "0.125");
+        assert_cents(12, "0.1249");
+        assert_cents(100, "0.995");
+        assert_cents(183114, "1831.144999");
+        assert_cents(1935874, "19358.743045050553");
+    }
+
+    @Test
+    void negatives_round_away_from_zero() {
+        assert_cents(-350, "-3.5");
+        assert_cents(-5, "-0.05");
+        assert_cents(-13, "-0.125");
+        assert_cents(-12, "-0.124");
+        assert_cents(0, "-0");
+    }
+
+    @Test
+    void leading_plus_sign() {
+        assert_cents(125, "+1.25");
+        assert_cents(50, "+.5");
+    }
+
+    @Test
+    void surrounding_whitespace_is_ignored() {
+        assert_cents(1200, "  12 ");
+        assert_cents(-5, "\t-0.05\n");
+        assert_cents(24615, "\r\n 246.15\r\n");
+    }
+
+    @Test
+    void exponents_use_the_exact_fallback() {
+        assert_cents(12345, "1.2345E2");
+        assert_cents(1, "5E-3");
+        assert_cents(-1, "-5e-3");
+        assert_cents(0, "4.9e-3");
+        assert_cents(150000, "+1.5E3");
+    }
+
+    @Test
+    void long_numbers_use_the_exact_fallback() {
+        assert_cents(1234567890123456789L, "12345678901234567.891");
+        assert_cents(-1234567890123456789L, "-12345678901234567.885");
+    }
+
+    @Test
+    void invalid_amounts_throw() {
+        for (String text : new String[] {"", "   ", "-", "+", ".", "-.", "abc", "1.2.3", "12x", "1,50"}) {
+            assertThrows(NumberFormatException.class, () -> Fixed_Point.parse_cents(text), "\"" + text + "\"");
+            char[] chars = text.toCharArray();
+            assertThrows(NumberFormatException.class, () -> Fixed_Point.parse_cents(chars, 0, chars.length), "\"" + text + "\"");
+        }
+    }
+
+    @Test
+    void whole_numbers() {
+        assertEquals(42, Fixed_Point.parse_int("  42 "));
+        assertEquals(7, Fixed_Point.parse_int("+7"));
+        assertEquals(Integer.MIN_VALUE, Fixed_Point.parse_int("-2147483648"));
+        assertEquals(Integer.MAX_VALUE, Fixed_Point.parse_int("2147483647"));
+        assertEquals(174, Fixed_Point.parse_int("quantity=\"174\"", 10, 13));
+        for (String text : new String[] {"", "-", "4.2", "2147483648", "99999999999999999999", "1e3"}) {
+            assertThrows(NumberFormatException.class, () -> Fixed_Point.parse_int(text), "\"" + text + "\"");
+        }
+    }
+
+    @Test
+    void formats_two_decimals() {
+        assertEquals("0.00", Fixed_Point.format_cents(0));
+        assertEquals("-0.05", Fixed_Point.format_cents(-5));
+        assertEquals("1234.50", Fixed_Point.format_cents(123450));
+        assertEquals("-1234.05", Fixed_Point.format_cents(-123405));
+        assertEquals("-92233720368547758.08", Fixed_Point.format_cents(Long.MIN_VALUE));
+        assertEquals("92233720368547758.07", Fixed_Point.format_cents(Long.MAX_VALUE));
+    }
+
+    @Test
+    void doubles_convert_to_the_nearest_cent() {
+        assertEquals(30, Fixed_Point.to_cents(0.1 + 0.2));
+        assertEquals(-5, Fixed_Point.to_cents(-0.05));
+        assertEquals(246.15, Fixed_Point.to_amount(24615));
+    }
+
+    // Every overload, including a slice of a larger buffer, against the expected cents and the BigDecimal reading
+    private static void assert_cents(long expected, String text) {
+        String where = "\"" + text + "\"";
+        assertEquals(expected, Fixed_Point.parse_cents(text), where);
+        assertEquals(expected, new BigDecimal(text.trim()).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact(), where);
+
+        String padded = "<a>" + text + "</a>";
+        assertEquals(expected, Fixed_Point.parse_cents(padded, 3, 3 + text.length()), where);
+        assertEquals(expected, Fixed_Point.parse_cents(new StringBuilder(text)), where);
+
+        char[] chars = padded.toCharArray();
+        assertEquals(expected, Fixed_Point.parse_cents(chars, 3, 3 + text.length()), where);
+    }
+}
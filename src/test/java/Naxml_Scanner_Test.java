@@ -0,0 +1,121 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+// The fast scanner must give exactly the rows of the streaming parser, or give up (null) so the file is read by it
+class Naxml_Scanner_Test {
+
+    // One account with two batches, in the layout the scanner reads
+    private static final String document = "<?xml version='1.0' encoding='utf-8'?>\n"
+            + "<NAXML-FuelsDoc><CreditCardsProcessed><Account identType=\"Location\" ident=\"1001\">"
+            + batch("1", "7", "2025-06-01", "VISA", "3", "120.50", "116.10", "4.40")
+            + batch("2", "8", "2025-06-02", "WEX FLEET", "1", "60.00", "58.25", "1.75")
+            + "</Account></CreditCardsProcessed></NAXML-FuelsDoc>\n";
+
+    @TempDir
+    Path folder;
+
+    @BeforeAll
+    static void disable_side_files() {
+        Snapshot_Cache.set_enabled(false);
+        Rollup_Ledger.set_enabled(false);
+    }
+
+    @Test
+    void sample_files_match_the_streaming_parser() throws Exception {
+        File[] files = new File("xml_files").listFiles((dir, name) -> name.toLowerCase().endsWith(".xml"));
+        assertNotNull(files, "xml_files folder not found");
+        int scanned = 0;
+        for (File file : files) {
+            Transaction_Store fast = Naxml_Scanner.parse(file);
+            if (fast == null) continue; // Not the scanner's layout; the streaming parser reads it
+            scanned++;
+            assertNull(Naxml_Scanner.first_difference(fast, stax(file)), file.getName());
+        }
+        assertTrue(scanned > 0, "No sample file was read by the scanner");
+    }
+
+    @Test
+    void written_document_matches_the_streaming_parser() throws Exception {
+        File file = write("two_batches.xml", document);
+        Transaction_Store fast = Naxml_Scanner.parse(file);
+        assertNotNull(fast);
+        assertEquals(2, fast.size());
+        assertNull(Naxml_Scanner.first_difference(fast, stax(file)));
+    }
+
+    @Test
+    void comment_falls_back() throws Exception {
+        assert_falls_back(document.replace("<Batch ", "<!-- retried --><Batch "));
+    }
+
+    @Test
+    void entity_falls_back() throws Exception {
+        assert_falls_back(document.replace("WEX FLEET", "WEX &amp; FLEET"));
+    }
+
+    @Test
+    void namespace_prefix_falls_back() throws Exception {
+        assert_falls_back(document.replace("<BatchDate>2025-06-02</BatchDate>", "<n:BatchDate>2025-06-02</n:BatchDate>"));
+    }
+
+    @Test
+    void nested_batch_falls_back() throws Exception {
+        assert_falls_back(document.replace("</Batch><Batch", "<Batch></Batch></Batch><Batch"));
+    }
+
+    @Test
+    void file_cut_after_a_batch_falls_back() throws Exception {
+        String cut = document.substring(0, document.indexOf("</Batch>") + "</Batch>".length());
+        assert_falls_back(cut);
+        assertThrows(Exception.class, () -> stax(write("cut.xml", cut)));
+    }
+
+    @Test
+    void unclosed_root_falls_back() throws Exception {
+        assert_falls_back(document.substring(0, document.indexOf("</NAXML-FuelsDoc>")));
+    }
+
+    @Test
+    void element_after_the_root_falls_back() throws Exception {
+        assert_falls_back(document + "<Account ident=\"2002\"></Account>");
+    }
+
+    @Test
+    void empty_file_falls_back() throws Exception {
+        assert_falls_back("");
+    }
+
+    // The scanner returns null for the document, so XML_Parser uses the streaming parser instead
+    private void assert_falls_back(String content) throws IOException {
+        assertNull(Naxml_Scanner.parse(write("unsupported.xml", content)));
+    }
+
+    private File write(String name, String content) throws IOException {
+        Path path = folder.resolve(name);
+        Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+
+    private static Transaction_Store stax(File file) throws Exception {
+        Transaction_Store store = new Transaction_Store();
+        XML_Parser.parse_with_stax(file, store);
+        return store;
+    }
+
+    private static String batch(String number, String terminal, String date, String type, String quantity,
+                                String gross, String net, String fee) {
+        return "<Batch identType=\"Automated\"><BatchNumber>" + number + "</BatchNumber><TerminalId>" + terminal
+                + "</TerminalId><BatchDate>" + date + "</BatchDate><CardType quantity=\"" + quantity
+                + "\" grossAmount=\"" + gross + "\" netAmount=\"" + net + "\" identType=\"" + type
+                + "\"><AllowanceOrCharge><AllowanceOrChargeReason>Processing Fee</AllowanceOrChargeReason>"
+                + "<ChargeAmt UOMBasis=\"TranAmt\">" + fee + "</ChargeAmt></AllowanceOrCharge></CardType></Batch>";
+    }
+}
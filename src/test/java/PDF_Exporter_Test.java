@@ -0,0 +1,85 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableModel;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+// The parallel report export must paginate and print exactly like the original single-threaded table export
+class PDF_Exporter_Test {
+
+    @TempDir
+    Path folder;
+
+    @BeforeAll
+    static void disable_side_files() {
+        Snapshot_Cache.set_enabled(false);
+        Rollup_Ledger.set_enabled(false);
+    }
+
+    @Test
+    void date_report_matches_the_sequential_export() throws Exception {
+        List<Transaction_Store> stores = load("transactions_10000.xml");
+        assert_same_pdf(Report_Analyzer.build_date_report(Rollup_Cube.of(stores), stores, false));
+    }
+
+    @Test
+    void card_type_report_matches_the_sequential_export() throws Exception {
+        List<Transaction_Store> stores = load("transactions_1000.xml");
+        assert_same_pdf(Report_Analyzer.build_card_type_report(Rollup_Cube.of(stores), stores));
+    }
+
+    @Test
+    void location_report_matches_the_sequential_export() throws Exception {
+        assert_same_pdf(Report_Analyzer.build_location_report(load("transactions_1000.xml"), Transaction_Filter.none));
+    }
+
+    @Test
+    void short_report_matches_the_sequential_export() throws Exception {
+        List<Transaction_Store> stores = load("transactions_100.xml");
+        assert_same_pdf(Report_Analyzer.build_card_type_report(Rollup_Cube.of(stores), stores));
+    }
+
+    // Exports the report in parallel and, as a plain table copy, through the sequential path; the two documents
+    // must have the same pages with the same text
+    private void assert_same_pdf(Report_Data report) throws Exception {
+        File parallel = folder.resolve("parallel.pdf").toFile();
+        File sequential = folder.resolve("sequential.pdf").toFile();
+        PDF_Exporter.export_report(report, parallel);
+        PDF_Exporter.export_table(copy_of(report), sequential);
+
+        try (PDDocument expected = PDDocument.load(sequential); PDDocument actual = PDDocument.load(parallel)) {
+            assertTrue(expected.getNumberOfPages() > 0);
+            assertEquals(expected.getNumberOfPages(), actual.getNumberOfPages(), "page count");
+            PDFTextStripper stripper = new PDFTextStripper();
+            for (int page = 1; page <= expected.getNumberOfPages(); page++) {
+                stripper.setStartPage(page);
+                stripper.setEndPage(page);
+                assertEquals(stripper.getText(expected), stripper.getText(actual), "text of page " + page);
+            }
+        }
+    }
+
+    // Table with the report's cells in a plain model
+    private static JTable copy_of(Report_Data report) {
+        JTable table = Report_Analyzer.to_table(report);
+        Object[] columns = new Object[table.getColumnCount()];
+        for (int col = 0; col < columns.length; col++) columns[col] = table.getColumnName(col);
+        Object[][] cells = new Object[table.getRowCount()][columns.length];
+        for (int row = 0; row < cells.length; row++) {
+            for (int col = 0; col < columns.length; col++) cells[row][col] = table.getValueAt(row, col);
+        }
+        return new JTable(new DefaultTableModel(cells, columns));
+    }
+
+    private static List<Transaction_Store> load(String name) throws Exception {
+        return Collections.singletonList(XML_Parser.parse_file_or_throw(new File("xml_files", name)));
+    }
+}
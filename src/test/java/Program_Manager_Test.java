@@ -0,0 +1,194 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+// With two input roots, every file must be keyed and loaded by its own shard, "<shard>/All Files" must cover that
+// shard only, data versions must follow the shards a selection covers, and the rollups must equal the merge of
+// the per-file cubes
+class Program_Manager_Test {
+
+    @TempDir
+    Path folder;
+
+    // Loads quietly; a failure fails the test through the returned list
+    private static final Program_Manager.Load_Listener listener = new Program_Manager.Load_Listener() {
+        @Override
+        public void file_loaded(File file, int record_count, long elapsed_ms, int completed, int total) {
+        }
+
+        @Override
+        public void file_failed(File file, Exception error, int completed, int total) {
+        }
+    };
+
+    private File north;
+    private File south;
+
+    @BeforeAll
+    static void disable_side_files() {
+        Snapshot_Cache.set_enabled(false);
+        Rollup_Ledger.set_enabled(false);
+    }
+
+    @AfterAll
+    static void restore_roots() {
+        Program_Manager.set_input_roots(Collections.singletonList(new File("xml_files")));
+        XML_Parser.clear_cache();
+    }
+
+    // north: transactions_100 and new_file; south: transactions_1000 and its own transactions_100
+    @BeforeEach
+    void two_roots() throws Exception {
+        north = folder.resolve("north").toFile();
+        south = folder.resolve("south").toFile();
+        copy("transactions_100.xml", north);
+        copy("new_file.xml", north);
+        copy("transactions_1000.xml", south);
+        copy("transactions_100.xml", south);
+        XML_Parser.clear_cache();
+        Program_Manager.set_input_roots(Arrays.asList(north, south));
+        assertTrue(Program_Manager.load_files(Program_Manager.get_all_files(), listener).isEmpty(), "No file fails");
+    }
+
+    @Test
+    void keys_carry_the_shard_prefix() {
+        assertEquals("north/transactions_100.xml", Program_Manager.key_of(new File(north, "transactions_100.xml")));
+        assertEquals("south/transactions_100.xml", Program_Manager.key_of(new File(south, "transactions_100.xml")));
+        assertEquals(Arrays.asList("north/All Files", "south/All Files"), Program_Manager.get_shard_selections());
+        assertEquals(new HashSet<>(Arrays.asList("north/transactions_100.xml", "north/new_file.xml",
+                "south/transactions_1000.xml", "south/transactions_100.xml")), Program_Manager.get_cached_file_names());
+        assertEquals(Arrays.asList(north.getAbsoluteFile(), south.getAbsoluteFile()), Program_Manager.get_input_roots());
+    }
+
+    @Test
+    void shard_selections_cover_their_own_files() {
+        assertEquals(100, rows(Program_Manager.get_stores("north/transactions_100.xml")));
+        assertEquals(100, rows(Program_Manager.get_stores("south/transactions_100.xml")));
+        assertEquals(1000, rows(Program_Manager.get_stores("south/transactions_1000.xml")));
+        assertTrue(Program_Manager.get_stores("north/transactions_1000.xml").isEmpty());
+        assertTrue(Program_Manager.get_stores("transactions_100.xml").isEmpty(), "Keys need their prefix");
+
+        int north_rows = rows(Program_Manager.get_stores("north/transactions_100.xml")) + rows(Program_Manager.get_stores("north/new_file.xml"));
+        assertEquals(north_rows, rows(Program_Manager.get_stores("north/All Files")));
+        assertEquals(1100, rows(Program_Manager.get_stores("south/All Files")));
+        assertEquals(north_rows + 1100, rows(Program_Manager.get_stores("All Files")));
+        assertEquals(north_rows, count(Program_Manager.query("north/All Files", Transaction_Filter.none)));
+    }
+
+    @Test
+    void rollups_equal_the_merge_of_the_file_cubes() {
+        List<Rollup_Cube> north_cubes = Arrays.asList(
+                Program_Manager.get_cube("north/transactions_100.xml"), Program_Manager.get_cube("north/new_file.xml"));
+        List<Rollup_Cube> south_cubes = Arrays.asList(
+                Program_Manager.get_cube("south/transactions_1000.xml"), Program_Manager.get_cube("south/transactions_100.xml"));
+        List<Rollup_Cube> all_cubes = new ArrayList<>(north_cubes);
+        all_cubes.addAll(south_cubes);
+
+        assert_same_cube(Rollup_Cube.merge(north_cubes), Program_Manager.get_cube("north/All Files"));
+        assert_same_cube(Rollup_Cube.merge(south_cubes), Program_Manager.get_cube("south/All Files"));
+        assert_same_cube(Rollup_Cube.merge(all_cubes), Program_Manager.get_cube("All Files"));
+        assert_same_cube(Rollup_Cube.of(Program_Manager.get_stores("All Files")), Program_Manager.get_cube("All Files"));
+
+        // After one file is removed the merged rollup follows
+        Program_Manager.remove_file(new File(north, "new_file.xml"));
+        assert_same_cube(Rollup_Cube.merge(Arrays.asList(north_cubes.get(0), south_cubes.get(0), south_cubes.get(1))),
+                Program_Manager.get_cube("All Files"));
+    }
+
+    @Test
+    void data_version_follows_the_covered_shards() throws Exception {
+        long north_version = Program_Manager.get_data_version("north/transactions_100.xml");
+        long south_version = Program_Manager.get_data_version("south/All Files");
+        long all_version = Program_Manager.get_data_version("All Files");
+        assertEquals(north_version, Program_Manager.get_data_version("north/All Files"));
+        assertEquals(Math.max(north_version, south_version), all_version);
+
+        File added = copy("transactions_100.xml", south, "added.xml");
+        assertTrue(Program_Manager.reload_files(Collections.singletonList(added), listener).isEmpty());
+        assertTrue(Program_Manager.get_data_version("south/transactions_1000.xml") > south_version);
+        assertTrue(Program_Manager.get_data_version("All Files") > all_version);
+        assertEquals(north_version, Program_Manager.get_data_version("north/new_file.xml"), "Other shard unchanged");
+        assertEquals(100, rows(Program_Manager.get_stores("south/added.xml")));
+    }
+
+    @Test
+    void files_outside_the_roots_go_to_the_first_shard() throws Exception {
+        File outside = copy("transactions_100.xml", folder.resolve("elsewhere").toFile(), "outside.xml");
+        assertEquals("north/outside.xml", Program_Manager.key_of(outside));
+
+        long south_version = Program_Manager.get_data_version("south/All Files");
+        Program_Manager.add_file_to_cache(outside);
+        assertEquals(100, rows(Program_Manager.get_stores("north/outside.xml")));
+        assertTrue(Program_Manager.get_stores("north/All Files").contains(Program_Manager.get_stores("north/outside.xml").get(0)));
+        assertEquals(south_version, Program_Manager.get_data_version("south/All Files"));
+    }
+
+    @Test
+    void roots_with_the_same_name_get_unique_prefixes() throws Exception {
+        File first = folder.resolve("a").resolve("site").toFile();
+        File second = folder.resolve("b").resolve("site").toFile();
+        copy("transactions_100.xml", first);
+        copy("transactions_100.xml", second);
+        Program_Manager.set_input_roots(Arrays.asList(first, second));
+        assertTrue(Program_Manager.load_files(Program_Manager.get_all_files(), listener).isEmpty());
+
+        assertEquals(Arrays.asList("site/All Files", "site-2/All Files"), Program_Manager.get_shard_selections());
+        assertEquals("site-2/transactions_100.xml", Program_Manager.key_of(new File(second, "transactions_100.xml")));
+        assertEquals(200, rows(Program_Manager.get_stores("All Files")));
+    }
+
+    private static File copy(String sample, File root) throws Exception {
+        return copy(sample, root, sample);
+    }
+
+    private static File copy(String sample, File root, String name) throws Exception {
+        Files.createDirectories(root.toPath());
+        Path target = root.toPath().resolve(name);
+        Files.copy(new File("xml_files", sample).toPath(), target);
+        return target.toFile();
+    }
+
+    private static int rows(List<Transaction_Store> stores) {
+        int rows = 0;
+        for (Transaction_Store store : stores) rows += store.size();
+        return rows;
+    }
+
+    private static int count(List<Report_Data.Segment> segments) {
+        int rows = 0;
+        for (Report_Data.Segment segment : segments) rows += segment.size();
+        return rows;
+    }
+
+    // Same cells with the same totals
+    private static void assert_same_cube(Rollup_Cube expected, Rollup_Cube actual) {
+        assertEquals(expected.get_dates(), actual.get_dates());
+        for (String date : expected.get_dates()) {
+            Set<String> types = expected.get_card_types(date);
+            assertEquals(types, actual.get_card_types(date), date);
+            for (String type : types) {
+                Totals want = expected.get(date, type);
+                Totals got = actual.get(date, type);
+                String where = date + " " + type;
+                assertEquals(want.get_row_count(), got.get_row_count(), where);
+                assertEquals(want.get_quantity(), got.get_quantity(), where);
+                assertEquals(want.get_gross_cents(), got.get_gross_cents(), where);
+                assertEquals(want.get_net_cents(), got.get_net_cents(), where);
+                assertEquals(want.get_fee_cents(), got.get_fee_cents(), where);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+// The cache must count each kept store once however many reports share it, evict least recently used reports but
+// never the one just added, drop older versions of a view, and serve a date report in either sort order
+class Report_Cache_Test {
+
+    @BeforeEach
+    void empty_cache() {
+        Report_Cache.clear();
+        Report_Cache.reset_counters();
+        Report_Cache.set_limits(1_000_000, 32);
+    }
+
+    @AfterAll
+    static void restore_defaults() {
+        Report_Cache.clear();
+        Report_Cache.reset_counters();
+        Report_Cache.set_limits(Long.getLong("report.cache.records", 5_000_000), Integer.getInteger("report.cache.entries", 32));
+    }
+
+    @Test
+    void shared_stores_are_counted_once() {
+        Transaction_Store first = store("a", 100);
+        Transaction_Store second = store("b", 50);
+
+        put("one", 1, report(first));
+        assertEquals(100, Report_Cache.get_retained_records());
+        put("both", 1, report(first, second));
+        assertEquals(150, Report_Cache.get_retained_records());
+
+        // Replacing an entry with the same key releases the old one before keeping the new one
+        put("both", 1, report(first, second));
+        assertEquals(2, Report_Cache.get_entry_count());
+        assertEquals(150, Report_Cache.get_retained_records());
+
+        // Evicting the older report keeps the store the other one still shares
+        Report_Cache.set_limits(1_000_000, 1);
+        assertEquals(1, Report_Cache.get_entry_count());
+        assertNull(get("one", 1, true));
+        assertNotNull(get("both", 1, true));
+        assertEquals(150, Report_Cache.get_retained_records());
+
+        // A smaller budget evicts right away; with no report just added, none is spared
+        Report_Cache.set_limits(10, 1);
+        assertEquals(0, Report_Cache.get_entry_count());
+        assertEquals(0, Report_Cache.get_retained_records());
+    }
+
+    @Test
+    void eviction_keeps_the_report_just_added() {
+        Report_Cache.set_limits(100, 32);
+        put("one", 1, report(store("a", 60)));
+        put("two", 1, report(store("b", 80)));
+        assertNull(get("one", 1, true));
+        assertNotNull(get("two", 1, true));
+        assertEquals(80, Report_Cache.get_retained_records());
+
+        // Over budget on its own: everything else goes, the new report stays
+        put("three", 1, report(store("c", 200)));
+        assertEquals(1, Report_Cache.get_entry_count());
+        assertNotNull(get("three", 1, true));
+        assertEquals(200, Report_Cache.get_retained_records());
+        assertEquals(2, Report_Cache.get_evictions());
+    }
+
+    @Test
+    void eviction_follows_use_order() {
+        Report_Cache.set_limits(1_000_000, 2);
+        put("one", 1, report(store("a", 10)));
+        put("two", 1, report(store("b", 10)));
+        assertNotNull(get("one", 1, true)); // Now "two" is the least recently used
+        put("three", 1, report(store("c", 10)));
+        assertNotNull(get("one", 1, true));
+        assertNull(get("two", 1, true));
+        assertNotNull(get("three", 1, true));
+        assertEquals(20, Report_Cache.get_retained_records());
+    }
+
+    @Test
+    void put_drops_older_versions_of_the_view() {
+        Transaction_Store old_store = store("a", 40);
+        Transaction_Store new_store = store("a", 30);
+        put("one", 1, report(old_store));
+        put("other", 1, report(store("b", 5)));
+        put("one", 2, report(new_store));
+
+        assertNull(get("one", 1, true));
+        assertNotNull(get("one", 2, true));
+        assertNotNull(get("other", 1, true), "Other views keep their version");
+        assertEquals(2, Report_Cache.get_entry_count());
+        assertEquals(35, Report_Cache.get_retained_records());
+
+        // Another filter is another view, so both are kept
+        Transaction_Filter visa = new Transaction_Filter(null, null, Collections.singleton("VISA"));
+        Report_Cache.put("one", "date", visa, 3, true, report(new_store));
+        assertNotNull(get("one", 2, true));
+        assertEquals(3, Report_Cache.get_entry_count());
+    }
+
+    @Test
+    void date_report_is_reversed_for_the_other_order() {
+        Transaction_Store store = store("a", 12);
+        Report_Data ascending = Report_Analyzer.build_date_report(Rollup_Cube.of(store), Collections.singletonList(store), true);
+        Report_Data descending = Report_Analyzer.build_date_report(Rollup_Cube.of(store), Collections.singletonList(store), false);
+        Report_Cache.put("one", "date", Transaction_Filter.none, 1, true, ascending);
+
+        assertSame(ascending, get("one", 1, true));
+        Report_Data hit = get("one", 1, false);
+        assertNotNull(hit);
+        assertEquals(labels(descending), labels(hit));
+        assertEquals(descending.get_row_count(), hit.get_row_count());
+        assertEquals(2, Report_Cache.get_hits());
+
+        // Other groupings have a fixed order and come back as they are
+        Report_Data by_type = Report_Analyzer.build_card_type_report(Rollup_Cube.of(store), Collections.singletonList(store));
+        Report_Cache.put("one", "card_type", Transaction_Filter.none, 1, true, by_type);
+        assertSame(by_type, Report_Cache.get("one", "card_type", Transaction_Filter.none, 1, false));
+
+        assertNull(get("one", 2, true));
+        assertEquals(1, Report_Cache.get_misses());
+    }
+
+    private static void put(String selection, long version, Report_Data report) {
+        Report_Cache.put(selection, "date", Transaction_Filter.none, version, true, report);
+    }
+
+    private static Report_Data get(String selection, long version, boolean ascending) {
+        return Report_Cache.get(selection, "date", Transaction_Filter.none, version, ascending);
+    }
+
+    // Date report over the given stores
+    private static Report_Data report(Transaction_Store... stores) {
+        List<Transaction_Store> list = Arrays.asList(stores);
+        return Report_Analyzer.build_date_report(Rollup_Cube.of(list), list, true);
+    }
+
+    // Store with the given number of rows spread over a few dates and card types
+    private static Transaction_Store store(String location, int rows) {
+        Transaction_Store store = new Transaction_Store();
+        for (int row = 0; row < rows; row++) {
+            store.add("2025-06-0" + (1 + row % 4), row % 3 == 0 ? "VISA" : "DEBIT CARD", location, "1", "1",
+                    1, 1000 + row, 950 + row, 50);
+        }
+        return store;
+    }
+
+    private static List<String> labels(Report_Data report) {
+        List<String> labels = new ArrayList<>();
+        for (Report_Data.Group group : report.get_groups()) labels.add(group.get_label());
+        return labels;
+    }
+}
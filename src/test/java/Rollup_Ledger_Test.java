@@ -0,0 +1,310 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+// The ledger must give the totals of the parsed files it recorded, count every file content once, and survive
+// reopening, torn or damaged tails and compaction. Each test uses its own ledger file
+class Rollup_Ledger_Test {
+
+    @TempDir
+    Path folder;
+
+    private File ledger;
+    private File previous_ledger;
+
+    @BeforeAll
+    static void disable_snapshots() {
+        Snapshot_Cache.set_enabled(false);
+    }
+
+    @BeforeEach
+    void use_own_ledger() {
+        previous_ledger = Rollup_Ledger.get_file();
+        ledger = folder.resolve("ledger").resolve("rollups.ledger").toFile();
+        Rollup_Ledger.set_file(ledger);
+        Rollup_Ledger.set_enabled(true);
+    }
+
+    @AfterEach
+    void restore_ledger() {
+        Rollup_Ledger.set_enabled(false); // As the other tests run
+        Rollup_Ledger.set_file(previous_ledger);
+    }
+
+    @Test
+    void query_matches_the_parsed_files() throws Exception {
+        List<Transaction_Store> stores = new ArrayList<>();
+        for (String sample : Arrays.asList("transactions_100.xml", "transactions_1000.xml", "sample_100_batches.xml")) {
+            stores.add(record(copy(sample, "in", sample)));
+        }
+        assertEquals(3, Rollup_Ledger.get_file_count());
+
+        TreeSet<String> dates = new TreeSet<>();
+        for (Transaction_Store store : stores) {
+            for (int id = 0; id < store.get_dates().size(); id++) dates.add(store.get_dates().value_of(id));
+        }
+        List<String> sorted = new ArrayList<>(dates);
+        LocalDate from = LocalDate.parse(sorted.get(sorted.size() / 4));
+        LocalDate to = LocalDate.parse(sorted.get(sorted.size() * 3 / 4));
+
+        List<Transaction_Filter> filters = Arrays.asList(
+                Transaction_Filter.none,
+                new Transaction_Filter(from, to, null),
+                new Transaction_Filter(from, null, null),
+                new Transaction_Filter(null, to, null),
+                new Transaction_Filter(null, null, Arrays.asList("VISA", "WEX FLEET")),
+                new Transaction_Filter(from, to, Collections.singletonList("DEBIT CARD")),
+                new Transaction_Filter(LocalDate.of(1990, 1, 1), LocalDate.of(1990, 12, 31), null));
+        for (Transaction_Filter filter : filters) {
+            for (boolean monthly : new boolean[]{false, true}) {
+                assertEquals(expected_totals(stores, filter, monthly), totals_of(Rollup_Ledger.query(filter, monthly, false)),
+                        filter + (monthly ? " by month" : " by day"));
+            }
+        }
+    }
+
+    @Test
+    void entries_survive_reopening() throws Exception {
+        record(copy("transactions_100.xml", "in", "a.xml"));
+        record(copy("transactions_1000.xml", "in", "b.xml"));
+        Map<String, List<Long>> before = totals_of(Rollup_Ledger.query(Transaction_Filter.none, false, false));
+
+        reopen();
+        assertEquals(2, Rollup_Ledger.get_file_count());
+        assertEquals(before, totals_of(Rollup_Ledger.query(Transaction_Filter.none, false, false)));
+    }
+
+    @Test
+    void torn_last_entry_is_cut_off() throws Exception {
+        long valid_length = ledger_with_third_entry();
+        try (RandomAccessFile file = new RandomAccessFile(ledger, "rw")) {
+            file.setLength(file.length() - 10); // The last write did not finish
+        }
+        assert_cut_back_to(valid_length);
+    }
+
+    @Test
+    void damaged_last_entry_is_cut_off() throws Exception {
+        long valid_length = ledger_with_third_entry();
+        try (RandomAccessFile file = new RandomAccessFile(ledger, "rw")) {
+            long position = valid_length + 40; // Inside the body of the third entry
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xFF);
+        }
+        assert_cut_back_to(valid_length);
+    }
+
+    @Test
+    void ledger_of_an_older_format_is_started_over() throws Exception {
+        Files.createDirectories(ledger.getParentFile().toPath());
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(ledger))) {
+            out.writeInt(0x43544C47);
+            out.writeInt(Rollup_Ledger.FORMAT_VERSION - 1);
+            out.write(new byte[100]);
+        }
+        reopen();
+        assertEquals(0, Rollup_Ledger.get_file_count());
+        assertFalse(ledger.exists());
+
+        Transaction_Store store = record(copy("transactions_100.xml", "in", "a.xml"));
+        assertEquals(totals_of_stores(store), totals_of(Rollup_Ledger.query(Transaction_Filter.none, false, false)));
+    }
+
+    @Test
+    void changed_file_supersedes_its_entry_and_compaction_keeps_the_totals() throws Exception {
+        File file = copy("transactions_1000.xml", "in", "a.xml");
+        record(file);
+        record(copy("transactions_100.xml", "in", "b.xml"));
+        Rollup_Ledger.flush(); // Written before the file changes; otherwise the writer skips the old version
+
+        long mtime = file.lastModified();
+        Files.copy(new File("xml_files", "sample_100_batches.xml").toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(file.setLastModified(mtime + 2000));
+        Transaction_Store changed = record(file);
+        Transaction_Store other = XML_Parser.parse_file_or_throw(new File(file.getParentFile(), "b.xml"));
+
+        Map<String, List<Long>> expected = totals_of_stores(changed, other);
+        assertEquals(2, Rollup_Ledger.get_file_count());
+        assertEquals(expected, totals_of(Rollup_Ledger.query(Transaction_Filter.none, false, false)));
+
+        long length = ledger.length();
+        Rollup_Ledger.compact();
+        assertTrue(ledger.length() < length, "compaction dropped the superseded entry");
+        assertEquals(expected, totals_of(Rollup_Ledger.query(Transaction_Filter.none, false, false)));
+
+        reopen();
+        assertEquals(2, Rollup_Ledger.get_file_count());
+        assertEquals(expected, totals_of(Rollup_Ledger.query(Transaction_Filter.none, false, false)));
+    }
+
+    @Test
+    void moved_file_is_counted_once() throws Exception {
+        File file = copy("transactions_1000.xml", "old_root", "a.xml");
+        Transaction_Store store = record(file);
+        Rollup_Ledger.flush();
+        long length = ledger.length();
+
+        File moved = new File(folder.resolve("new_root").toFile(), "a.xml");
+        Files.createDirectories(moved.getParentFile().toPath());
+        Files.move(file.toPath(), moved.toPath());
+        record(moved);
+
+        assertEquals(1, Rollup_Ledger.get_file_count());
+        assertTrue(ledger.length() > length, "recorded again under the new path");
+        assertEquals(totals_of_stores(store), totals_of(Rollup_Ledger.query(Transaction_Filter.none, false, false)));
+        reopen();
+        assertEquals(1, Rollup_Ledger.get_file_count());
+    }
+
+    @Test
+    void copy_in_another_root_is_counted_once() throws Exception {
+        // new_file.xml and the CITGO settlement file have the same content
+        Transaction_Store store = record(copy("new_file.xml", "root_a", "new_file.xml"));
+        File citgo = new File("src/main/resources/xml_files/CITGO_POS_Settlements.20250606133612.xml");
+        File copy = folder.resolve("root_b").resolve(citgo.getName()).toFile();
+        Files.createDirectories(copy.getParentFile().toPath());
+        Files.copy(citgo.toPath(), copy.toPath());
+        record(copy);
+        record(copy("new_file.xml", "root_c", "again.xml"));
+
+        assertEquals(1, Rollup_Ledger.get_file_count());
+        assertEquals(totals_of_stores(store), totals_of(Rollup_Ledger.query(Transaction_Filter.none, false, false)));
+    }
+
+    @Test
+    void quantities_beyond_the_int_range_stay_in_one_row() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            record(write("big_" + i + ".xml", "2025-06-01", "VISA", Integer.MAX_VALUE, (i + 1) + ".00"));
+        }
+        Transaction_Store totals = Rollup_Ledger.query(Transaction_Filter.none, false, false);
+        assertEquals(1, totals.size());
+        assertEquals(3L * Integer.MAX_VALUE, totals.get_quantity(0));
+        assertEquals(600, totals.get_gross_cents(0));
+    }
+
+    // Ledger with two entries and a third one after them; returns the length of the first two
+    private long ledger_with_third_entry() throws Exception {
+        record(copy("transactions_100.xml", "in", "a.xml"));
+        record(copy("transactions_1000.xml", "in", "b.xml"));
+        Rollup_Ledger.flush();
+        long valid_length = ledger.length();
+        record(copy("sample_100_batches.xml", "in", "c.xml"));
+        assertEquals(3, Rollup_Ledger.get_file_count());
+        Rollup_Ledger.set_file(folder.resolve("elsewhere.ledger").toFile()); // Closed while it is damaged
+        return valid_length;
+    }
+
+    // Reopens the damaged ledger: the first two entries are kept and the file is truncated behind them
+    private void assert_cut_back_to(long valid_length) throws Exception {
+        Rollup_Ledger.set_file(ledger);
+        assertEquals(2, Rollup_Ledger.get_file_count());
+        assertEquals(valid_length, ledger.length());
+        Transaction_Store a = XML_Parser.parse_file_or_throw(folder.resolve("in").resolve("a.xml").toFile());
+        Transaction_Store b = XML_Parser.parse_file_or_throw(folder.resolve("in").resolve("b.xml").toFile());
+        assertEquals(totals_of_stores(a, b), totals_of(Rollup_Ledger.query(Transaction_Filter.none, false, false)));
+
+        record(folder.resolve("in").resolve("c.xml").toFile()); // Recorded again after the cut
+        assertEquals(3, Rollup_Ledger.get_file_count());
+    }
+
+    // Closes the ledger, so the next call reads the file again
+    private void reopen() {
+        Rollup_Ledger.set_file(ledger);
+    }
+
+    // Parses a file and records it the way the loader does
+    private static Transaction_Store record(File file) throws Exception {
+        long size = file.length();
+        long mtime = file.lastModified();
+        Transaction_Store store = XML_Parser.parse_file_or_throw(file);
+        Rollup_Ledger.record(file, size, mtime, store);
+        return store;
+    }
+
+    private File copy(String sample, String root, String name) throws IOException {
+        Path target = folder.resolve(root).resolve(name);
+        Files.createDirectories(target.getParent());
+        Files.copy(new File("xml_files", sample).toPath(), target);
+        return target.toFile();
+    }
+
+    // One batch with one card type
+    private File write(String name, String date, String card_type, int quantity, String gross) throws IOException {
+        String document = "<?xml version='1.0' encoding='utf-8'?>\n<NAXML-FuelsDoc><CreditCardsProcessed>"
+                + "<Account identType=\"Location\" ident=\"1001\"><Batch identType=\"Automated\"><BatchNumber>1"
+                + "</BatchNumber><TerminalId>7</TerminalId><BatchDate>" + date + "</BatchDate><CardType quantity=\""
+                + quantity + "\" grossAmount=\"" + gross + "\" netAmount=\"" + gross + "\" identType=\"" + card_type
+                + "\"><AllowanceOrCharge><ChargeAmt UOMBasis=\"TranAmt\">0.00</ChargeAmt></AllowanceOrCharge>"
+                + "</CardType></Batch></Account></CreditCardsProcessed></NAXML-FuelsDoc>\n";
+        Path path = folder.resolve(name);
+        Files.write(path, document.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+
+    // {quantity, gross, net, fee} per "period | card type" of a query result; every key must occur once
+    private static Map<String, List<Long>> totals_of(Transaction_Store totals) {
+        Map<String, List<Long>> sums = new TreeMap<>();
+        for (int row = 0; row < totals.size(); row++) {
+            String key = totals.get_batch_date(row) + " | " + totals.get_card_type(row);
+            List<Long> values = Arrays.asList(totals.get_quantity(row), totals.get_gross_cents(row),
+                    totals.get_net_cents(row), totals.get_fee_cents(row));
+            assertNull(sums.put(key, values), "duplicate row " + key);
+        }
+        return sums;
+    }
+
+    private static Map<String, List<Long>> totals_of_stores(Transaction_Store... stores) {
+        return expected_totals(Arrays.asList(stores), Transaction_Filter.none, false);
+    }
+
+    // The same sums computed row by row from the parsed stores
+    private static Map<String, List<Long>> expected_totals(List<Transaction_Store> stores, Transaction_Filter filter,
+                                                          boolean monthly) {
+        Map<String, long[]> sums = new TreeMap<>();
+        for (Transaction_Store store : stores) {
+            for (int row = 0; row < store.size(); row++) {
+                String date = store.get_batch_date(row);
+                String card_type = store.get_card_type(row);
+                if (!filter.accepts_day(Transaction_Filter.to_epoch_day(date)) || !filter.accepts_card_type(card_type)) {
+                    continue;
+                }
+                String key = (monthly ? date.substring(0, 7) : date) + " | " + card_type;
+                long[] sum = sums.computeIfAbsent(key, k -> new long[4]);
+                sum[0] += store.get_quantity(row);
+                sum[1] += store.get_gross_cents(row);
+                sum[2] += store.get_net_cents(row);
+                sum[3] += store.get_fee_cents(row);
+            }
+        }
+        Map<String, List<Long>> expected = new TreeMap<>();
+        for (Map.Entry<String, long[]> entry : sums.entrySet()) {
+            long[] sum = entry.getValue();
+            expected.put(entry.getKey(), Arrays.asList(sum[0], sum[1], sum[2], sum[3]));
+        }
+        return expected;
+    }
+}
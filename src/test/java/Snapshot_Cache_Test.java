@@ -0,0 +1,169 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+// A snapshot must give back exactly the parsed rows, be trusted only while the file's size and content still match
+// (a new modification time alone is checked against the CRC), be ignored when its header is corrupt or from
+// another format version, and never be written for a file that changed while it was parsed
+class Snapshot_Cache_Test {
+
+    @TempDir
+    Path folder;
+
+    private File xml;
+
+    @BeforeEach
+    void temp_snapshots() throws Exception {
+        Rollup_Ledger.set_enabled(false);
+        Snapshot_Cache.set_folder(folder.resolve("snapshots").toFile());
+        Snapshot_Cache.set_enabled(true);
+        XML_Parser.clear_cache();
+        xml = folder.resolve("transactions_100.xml").toFile();
+        Files.copy(new File("xml_files/transactions_100.xml").toPath(), xml.toPath());
+    }
+
+    @AfterEach
+    void default_snapshots() {
+        Snapshot_Cache.set_enabled(false);
+        Snapshot_Cache.set_folder(new File("snapshots"));
+        XML_Parser.clear_cache();
+    }
+
+    @Test
+    void snapshot_gives_back_the_parsed_rows() throws Exception {
+        for (File sample : new File("xml_files").listFiles((dir, name) -> name.endsWith(".xml"))) {
+            File copy = folder.resolve(sample.getName()).toFile();
+            if (!copy.exists()) Files.copy(sample.toPath(), copy.toPath());
+            Transaction_Store parsed = XML_Parser.parse_file_or_throw(copy); // Writes the snapshot
+            assertTrue(Snapshot_Cache.snapshot_file_for(copy).isFile(), copy.getName());
+            assert_same_rows(parsed, Snapshot_Cache.load(copy), copy.getName());
+        }
+    }
+
+    @Test
+    void touched_but_unchanged_file_is_trusted_again() throws Exception {
+        Transaction_Store parsed = XML_Parser.parse_file_or_throw(xml);
+        assertTrue(xml.setLastModified(xml.lastModified() + 60_000));
+        assert_same_rows(parsed, Snapshot_Cache.load(xml), "touched");
+    }
+
+    @Test
+    void changed_content_is_parsed_again() throws Exception {
+        Transaction_Store parsed = XML_Parser.parse_file_or_throw(xml);
+        long size = xml.length();
+
+        // Same size, one amount changed, new modification time: the CRC no longer matches
+        String text = new String(Files.readAllBytes(xml.toPath()), StandardCharsets.UTF_8);
+        int amount = text.indexOf("grossAmount=\"") + "grossAmount=\"".length();
+        char digit = text.charAt(amount);
+        String changed = text.substring(0, amount) + (digit == '9' ? '1' : (char) (digit + 1)) + text.substring(amount + 1);
+        Files.write(xml.toPath(), changed.getBytes(StandardCharsets.UTF_8));
+        assertTrue(xml.setLastModified(xml.lastModified() + 60_000));
+        assertEquals(size, xml.length());
+        assertNull(Snapshot_Cache.load(xml));
+
+        Transaction_Store reparsed = XML_Parser.parse_file_or_throw(xml);
+        assertNotEquals(parsed.get_gross_cents(0), reparsed.get_gross_cents(0));
+        assert_same_rows(reparsed, Snapshot_Cache.load(xml), "new snapshot");
+
+        // Another size is never trusted, whatever the modification time
+        long mtime = xml.lastModified();
+        Files.write(xml.toPath(), "\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        assertTrue(xml.setLastModified(mtime));
+        assertNull(Snapshot_Cache.load(xml));
+    }
+
+    @Test
+    void corrupt_or_old_header_is_ignored() throws Exception {
+        XML_Parser.parse_file_or_throw(xml);
+        File snapshot = Snapshot_Cache.snapshot_file_for(xml);
+
+        // Older format version: ignored and deleted
+        try (RandomAccessFile raw = new RandomAccessFile(snapshot, "rw")) {
+            raw.seek(4);
+            raw.writeInt(Snapshot_Cache.FORMAT_VERSION - 1);
+        }
+        assertNull(Snapshot_Cache.load(xml));
+        assertFalse(snapshot.exists());
+
+        // Wrong signature: ignored and deleted
+        XML_Parser.clear_cache();
+        XML_Parser.parse_file_or_throw(xml);
+        try (RandomAccessFile raw = new RandomAccessFile(snapshot, "rw")) {
+            raw.writeInt(0x12345678);
+        }
+        assertNull(Snapshot_Cache.load(xml));
+        assertFalse(snapshot.exists());
+
+        // Cut off after the header: ignored, and the file is parsed again
+        XML_Parser.clear_cache();
+        Transaction_Store parsed = XML_Parser.parse_file_or_throw(xml);
+        try (RandomAccessFile raw = new RandomAccessFile(snapshot, "rw")) {
+            raw.setLength(raw.length() / 2);
+        }
+        assertNull(Snapshot_Cache.load(xml));
+        XML_Parser.clear_cache();
+        assert_same_rows(parsed, XML_Parser.parse_file_or_throw(xml), "parsed again");
+        assert_same_rows(parsed, Snapshot_Cache.load(xml), "snapshot rewritten");
+    }
+
+    @Test
+    void file_changed_during_the_parse_is_not_saved() throws Exception {
+        long size = xml.length();
+        long mtime = xml.lastModified();
+        Transaction_Store parsed = new Transaction_Store();
+        XML_Parser.parse_with_stax(xml, parsed);
+
+        // The file grows between the parse and the save
+        Files.write(xml.toPath(), "\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        Snapshot_Cache.save(xml, size, mtime, parsed);
+        assertFalse(Snapshot_Cache.snapshot_file_for(xml).exists());
+        File[] left = folder.resolve("snapshots").toFile().listFiles();
+        assertTrue(left == null || left.length == 0, "No temp file left");
+
+        // Saved once the state passed in is the file's current one
+        Snapshot_Cache.save(xml, xml.length(), xml.lastModified(), parsed);
+        assert_same_rows(parsed, Snapshot_Cache.load(xml), "saved");
+    }
+
+    @Test
+    void disabled_cache_neither_reads_nor_writes() throws Exception {
+        Snapshot_Cache.set_enabled(false);
+        XML_Parser.parse_file_or_throw(xml);
+        assertFalse(Snapshot_Cache.snapshot_file_for(xml).exists());
+
+        Snapshot_Cache.set_enabled(true);
+        XML_Parser.clear_cache();
+        XML_Parser.parse_file_or_throw(xml);
+        assertTrue(Snapshot_Cache.snapshot_file_for(xml).exists());
+        Snapshot_Cache.set_enabled(false);
+        assertNull(Snapshot_Cache.load(xml));
+    }
+
+    // Every column of two stores, row by row
+    private static void assert_same_rows(Transaction_Store expected, Transaction_Store actual, String name) {
+        assertNotNull(actual, name + ": no snapshot");
+        assertEquals(expected.size(), actual.size(), name + " row count");
+        for (int row = 0; row < expected.size(); row++) {
+            String where = name + " row " + row;
+            assertEquals(expected.get_batch_date(row), actual.get_batch_date(row), where);
+            assertEquals(expected.get_card_type(row), actual.get_card_type(row), where);
+            assertEquals(expected.get_location(row), actual.get_location(row), where);
+            assertEquals(expected.get_terminal(row), actual.get_terminal(row), where);
+            assertEquals(expected.get_batch_number(row), actual.get_batch_number(row), where);
+            assertEquals(expected.get_quantity(row), actual.get_quantity(row), where);
+            assertEquals(expected.get_gross_cents(row), actual.get_gross_cents(row), where);
+            assertEquals(expected.get_net_cents(row), actual.get_net_cents(row), where);
+            assertEquals(expected.get_fee_cents(row), actual.get_fee_cents(row), where);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+// The shared cache must keep parsed files within its record budget by evicting the least recently used ones, count
+// its hits, misses, evictions and invalidations, and let XML_Parser read an evicted or changed file again
+class Store_Cache_Test {
+
+    @TempDir
+    Path folder;
+
+    private long saved_budget;
+
+    @BeforeAll
+    static void disable_side_files() {
+        Snapshot_Cache.set_enabled(false);
+        Rollup_Ledger.set_enabled(false);
+    }
+
+    @BeforeEach
+    void empty_cache() {
+        saved_budget = Store_Cache.get_max_records();
+        Store_Cache.clear();
+        Store_Cache.reset_counters();
+    }
+
+    @AfterEach
+    void restore_budget() {
+        Store_Cache.clear();
+        Store_Cache.set_max_records(saved_budget);
+    }
+
+    @Test
+    void least_recently_used_files_are_evicted_first() throws Exception {
+        Store_Cache.set_max_records(1500);
+        File small = copy("transactions_100.xml", "small.xml");
+        File large = copy("transactions_1000.xml", "large.xml");
+        File other = copy("transactions_1000.xml", "other.xml");
+
+        XML_Parser.parse_file_or_throw(small);
+        XML_Parser.parse_file_or_throw(large);
+        assertEquals(1100, Store_Cache.get_cached_records());
+        assertNotNull(Store_Cache.get(small)); // Now large is the least recently used
+
+        XML_Parser.parse_file_or_throw(other);
+        assertEquals(2, Store_Cache.get_entry_count());
+        assertEquals(1100, Store_Cache.get_cached_records());
+        assertEquals(1, Store_Cache.get_evictions());
+        assertNotNull(Store_Cache.get(small));
+        assertNotNull(Store_Cache.get(other));
+        assertNull(Store_Cache.get(large));
+    }
+
+    @Test
+    void file_over_budget_on_its_own_is_kept() throws Exception {
+        Store_Cache.set_max_records(500);
+        File small = copy("transactions_100.xml", "small.xml");
+        File large = copy("transactions_1000.xml", "large.xml");
+        XML_Parser.parse_file_or_throw(small);
+        Transaction_Store store = XML_Parser.parse_file_or_throw(large);
+
+        assertEquals(1, Store_Cache.get_entry_count());
+        assertSame(store, Store_Cache.get(large));
+        assertEquals(1000, Store_Cache.get_cached_records());
+
+        // A smaller budget evicts right away; no file was just added, so none is spared
+        Store_Cache.set_max_records(10);
+        assertEquals(0, Store_Cache.get_entry_count());
+        assertEquals(0, Store_Cache.get_cached_records());
+        assertEquals(2, Store_Cache.get_evictions());
+    }
+
+    @Test
+    void counters_follow_hits_misses_and_changes() throws Exception {
+        File file = copy("transactions_100.xml", "counted.xml");
+        Transaction_Store first = XML_Parser.parse_file_or_throw(file);
+        assertSame(first, XML_Parser.parse_file_or_throw(file));
+        assertSame(first, XML_Parser.parse_file_or_throw(file));
+        assertEquals(2, Store_Cache.get_hits());
+        assertEquals(1, Store_Cache.get_misses());
+
+        // Same content, new modification time: the entry is no longer trusted
+        assertTrue(file.setLastModified(file.lastModified() - 60_000));
+        Transaction_Store second = XML_Parser.parse_file_or_throw(file);
+        assertNotSame(first, second);
+        assertEquals(first.size(), second.size());
+        assertEquals(1, Store_Cache.get_invalidations());
+        assertEquals(2, Store_Cache.get_misses());
+        assertEquals(0, Store_Cache.get_evictions());
+        assertTrue(Store_Cache.describe().contains("2 hits, 2 misses, 0 evictions, 1 invalidations"), Store_Cache.describe());
+
+        Store_Cache.reset_counters();
+        assertEquals(0, Store_Cache.get_hits() + Store_Cache.get_misses() + Store_Cache.get_invalidations());
+    }
+
+    @Test
+    void evicted_or_changed_file_is_read_again() throws Exception {
+        Store_Cache.set_max_records(1000);
+        File first = copy("transactions_1000.xml", "first.xml");
+        File second = copy("transactions_1000.xml", "second.xml");
+        Transaction_Store original = XML_Parser.parse_file_or_throw(first);
+        XML_Parser.parse_file_or_throw(second);
+        assertNull(Store_Cache.get(first));
+
+        Transaction_Store reread = XML_Parser.parse_file_or_throw(first);
+        assertNotSame(original, reread);
+        assert_same_rows(original, reread);
+        assertSame(reread, Store_Cache.get(first), "Read again into the cache");
+
+        // A changed file is parsed again and gives its new rows
+        Files.copy(new File("xml_files/transactions_100.xml").toPath(), first.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.write(first.toPath(), "\n".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+        assertEquals(100, XML_Parser.parse_file_or_throw(first).size());
+    }
+
+    @Test
+    void budget_comes_from_the_system_property() throws Exception {
+        String previous = System.getProperty("store.cache.records");
+        System.setProperty("store.cache.records", "1234");
+        // A class loader of its own, so the static budget is read again from the property
+        URL classes = Store_Cache.class.getProtectionDomain().getCodeSource().getLocation();
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {classes}, null)) {
+            Class<?> fresh = Class.forName("Store_Cache", true, loader);
+            assertNotSame(Store_Cache.class, fresh);
+            assertEquals(1234L, fresh.getMethod("get_max_records").invoke(null));
+        } finally {
+            if (previous != null) System.setProperty("store.cache.records", previous);
+            else System.clearProperty("store.cache.records");
+        }
+    }
+
+    private File copy(String sample, String name) throws Exception {
+        Path target = folder.resolve(name);
+        Files.copy(new File("xml_files", sample).toPath(), target);
+        return target.toFile();
+    }
+
+    private static void assert_same_rows(Transaction_Store expected, Transaction_Store actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.get_batch_date(row), actual.get_batch_date(row));
+            assertEquals(expected.get_card_type(row), actual.get_card_type(row));
+            assertEquals(expected.get_net_cents(row), actual.get_net_cents(row));
+        }
+    }
+}
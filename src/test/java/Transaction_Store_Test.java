@@ -0,0 +1,185 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+// Transaction_Store.select must return exactly the rows a brute-force scan with the same Transaction_Filter accepts,
+// in report order (dates ascending, card types by name, undated dates last), for any date range and card types
+class Transaction_Store_Test {
+
+    @BeforeAll
+    static void disable_side_files() {
+        Snapshot_Cache.set_enabled(false);
+        Rollup_Ledger.set_enabled(false);
+    }
+
+    @Test
+    void sample_files_select_like_a_full_scan() throws Exception {
+        File[] files = new File("xml_files").listFiles((dir, name) -> name.toLowerCase().endsWith(".xml"));
+        assertNotNull(files, "xml_files folder not found");
+        for (File file : files) {
+            Transaction_Store store = new Transaction_Store();
+            XML_Parser.parse_with_stax(file, store);
+            assert_all_filters(store, file.getName());
+        }
+    }
+
+    @Test
+    void undated_rows_only_pass_without_a_date_range() {
+        Transaction_Store store = mixed_store();
+        assert_all_filters(store, "mixed");
+
+        List<Integer> unfiltered = selected(store, Transaction_Filter.none);
+        assertEquals(store.size(), unfiltered.size());
+        assertEquals(Transaction_Filter.no_day, store.get_epoch_day(unfiltered.get(unfiltered.size() - 1)), "Undated rows come last");
+
+        Transaction_Filter open_range = new Transaction_Filter(null, LocalDate.of(9999, 12, 31), null);
+        for (int row : selected(store, open_range)) {
+            assertNotEquals(Transaction_Filter.no_day, store.get_epoch_day(row), store.get_batch_date(row));
+        }
+    }
+
+    @Test
+    void bounds_on_the_first_and_last_dates_are_inclusive() {
+        Transaction_Store store = mixed_store();
+        LocalDate first = LocalDate.of(2025, 1, 30);
+        LocalDate last = LocalDate.of(2025, 3, 2);
+        assertEquals(rows_dated(store, first, last), selected(store, new Transaction_Filter(first, last, null)).size());
+        assertEquals(rows_dated(store, first, first), selected(store, new Transaction_Filter(first, first, null)).size());
+        assertEquals(rows_dated(store, last, last), selected(store, new Transaction_Filter(last, last, null)).size());
+        assertTrue(selected(store, new Transaction_Filter(first.minusDays(5), first.minusDays(1), null)).isEmpty());
+        assertTrue(selected(store, new Transaction_Filter(last.plusDays(1), null, null)).isEmpty());
+        assertTrue(selected(store, new Transaction_Filter(last, first, null)).isEmpty(), "Reversed range");
+    }
+
+    @Test
+    void empty_store_selects_nothing() {
+        assertTrue(selected(new Transaction_Store(), Transaction_Filter.none).isEmpty());
+    }
+
+    // Compares select with the brute-force scan for ranges around every kind of edge and several card type sets
+    private static void assert_all_filters(Transaction_Store store, String name) {
+        TreeSet<LocalDate> dates = new TreeSet<>();
+        for (int row = 0; row < store.size(); row++) {
+            int day = Transaction_Filter.to_epoch_day(store.get_batch_date(row));
+            if (day != Transaction_Filter.no_day) dates.add(LocalDate.ofEpochDay(day));
+        }
+        List<LocalDate[]> ranges = new ArrayList<>();
+        ranges.add(new LocalDate[] {null, null});
+        if (!dates.isEmpty()) {
+            LocalDate first = dates.first();
+            LocalDate last = dates.last();
+            LocalDate middle = new ArrayList<>(dates).get(dates.size() / 2);
+            ranges.add(new LocalDate[] {first, last});
+            ranges.add(new LocalDate[] {first, null});
+            ranges.add(new LocalDate[] {null, last});
+            ranges.add(new LocalDate[] {first.plusDays(1), last.minusDays(1)});
+            ranges.add(new LocalDate[] {first.minusDays(1), first});
+            ranges.add(new LocalDate[] {last, last.plusDays(1)});
+            ranges.add(new LocalDate[] {middle, middle});
+            ranges.add(new LocalDate[] {middle, null});
+            ranges.add(new LocalDate[] {null, middle});
+            ranges.add(new LocalDate[] {null, first.minusDays(1)});
+            ranges.add(new LocalDate[] {last.plusDays(1), null});
+            ranges.add(new LocalDate[] {last, first});
+            ranges.add(new LocalDate[] {LocalDate.of(1970, 1, 1), LocalDate.of(9999, 12, 31)});
+        }
+
+        List<String> types = new ArrayList<>(new TreeSet<>(all_card_types(store)));
+        List<Collection<String>> type_sets = new ArrayList<>();
+        type_sets.add(null);
+        type_sets.add(Collections.emptySet());
+        type_sets.add(types);
+        type_sets.add(Collections.singleton("NO SUCH CARD"));
+        if (!types.isEmpty()) {
+            type_sets.add(Collections.singleton(types.get(0)));
+            type_sets.add(Collections.singleton(types.get(types.size() - 1)));
+            type_sets.add(Arrays.asList(types.get(types.size() - 1), "NO SUCH CARD", types.get(0)));
+        }
+        if (types.size() > 2) type_sets.add(types.subList(1, types.size() - 1));
+
+        for (LocalDate[] range : ranges) {
+            for (Collection<String> type_set : type_sets) {
+                Transaction_Filter filter = new Transaction_Filter(range[0], range[1], type_set);
+                assertEquals(scanned(store, filter), selected(store, filter), name + ": " + filter);
+            }
+        }
+    }
+
+    // Rows returned by select, checking that every segment is one non-empty (date, card type) cell
+    private static List<Integer> selected(Transaction_Store store, Transaction_Filter filter) {
+        List<Report_Data.Segment> segments = new ArrayList<>();
+        store.select(filter, segments);
+        List<Integer> rows = new ArrayList<>();
+        for (Report_Data.Segment segment : segments) {
+            assertTrue(segment.size() > 0, "Empty segment");
+            assertSame(store, segment.get_store());
+            int first = segment.row(0);
+            for (int i = 0; i < segment.size(); i++) {
+                int row = segment.row(i);
+                assertEquals(store.get_date_id(first), store.get_date_id(row));
+                assertEquals(store.get_card_type_id(first), store.get_card_type_id(row));
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    // Every row the filter accepts, sorted into report order without any of the store's indexes
+    private static List<Integer> scanned(Transaction_Store store, Transaction_Filter filter) {
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < store.size(); row++) {
+            int day = Transaction_Filter.to_epoch_day(store.get_batch_date(row));
+            if (filter.accepts_day(day) && filter.accepts_card_type(store.get_card_type(row))) rows.add(row);
+        }
+        rows.sort(Comparator.<Integer>comparingInt(row -> {
+                    int day = Transaction_Filter.to_epoch_day(store.get_batch_date(row));
+                    return day == Transaction_Filter.no_day ? 1 : 0;
+                })
+                .thenComparingLong(row -> {
+                    int day = Transaction_Filter.to_epoch_day(store.get_batch_date(row));
+                    return day == Transaction_Filter.no_day ? store.get_date_id(row) : day;
+                })
+                .thenComparing(store::get_card_type)
+                .thenComparingInt(row -> row));
+        return rows;
+    }
+
+    private static int rows_dated(Transaction_Store store, LocalDate from, LocalDate to) {
+        int count = 0;
+        for (int row = 0; row < store.size(); row++) {
+            int day = Transaction_Filter.to_epoch_day(store.get_batch_date(row));
+            if (day != Transaction_Filter.no_day && day >= from.toEpochDay() && day <= to.toEpochDay()) count++;
+        }
+        return count;
+    }
+
+    private static List<String> all_card_types(Transaction_Store store) {
+        List<String> types = new ArrayList<>();
+        for (int id = 0; id < store.get_card_types().size(); id++) types.add(store.get_card_types().value_of(id));
+        return types;
+    }
+
+    // Dates out of order with gaps, a card type on a single date, and batch dates that are not ISO dates
+    private static Transaction_Store mixed_store() {
+        String[] dates = {"2025-03-02", "", "2025-01-30", "2025/02/01", "2025-02-15", "2025-02-30", "2025-02-14"};
+        String[] types = {"VISA", "DEBIT CARD", "WEX FLEET", "AMERICAN EXPRESS"};
+        Transaction_Store store = new Transaction_Store();
+        for (int row = 0; row < 200; row++) {
+            String date = dates[(row * 3) % dates.length];
+            String type = types[row % 3];
+            store.add(date, type, "1", "1", "1", 1, 100 + row, 90 + row, 10);
+        }
+        store.add("2025-02-14", "AMERICAN EXPRESS", "1", "1", "1", 1, 500, 480, 20);
+        return store;
+    }
+}
@@ -0,0 +1,216 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+// The columnar store must hold the same transactions the original DOM parse produced as Card_Transaction objects,
+// whichever reader filled it (streaming, DOM fallback, or the default entry point), for every file in xml_files,
+// also when the files are read gzipped or from a zip archive
+class XML_Parser_Test {
+
+    @TempDir
+    Path folder;
+
+    @BeforeAll
+    static void disable_side_files() {
+        Snapshot_Cache.set_enabled(false);
+        Rollup_Ledger.set_enabled(false);
+    }
+
+    @Test
+    void streaming_parse_matches_the_original_parse() throws Exception {
+        for (File file : sample_files()) {
+            Transaction_Store store = new Transaction_Store();
+            XML_Parser.parse_with_stax(file, store);
+            assert_same(original_parse(file), store, file);
+        }
+    }
+
+    @Test
+    void dom_fallback_matches_the_original_parse() throws Exception {
+        for (File file : sample_files()) {
+            Transaction_Store store = new Transaction_Store();
+            XML_Parser.parse_with_dom(file, store);
+            assert_same(original_parse(file), store, file);
+        }
+    }
+
+    @Test
+    void default_parse_matches_the_original_parse() throws Exception {
+        XML_Parser.clear_cache();
+        for (File file : sample_files()) {
+            assert_same(original_parse(file), XML_Parser.parse_file_or_throw(file), file);
+        }
+    }
+
+    @Test
+    void transaction_list_view_matches_the_original_parse() throws Exception {
+        XML_Parser.clear_cache();
+        for (File file : sample_files()) {
+            List<Card_Transaction> expected = original_parse(file);
+            List<Card_Transaction> actual = XML_Parser.parse_single_file(file);
+            assertEquals(expected.size(), actual.size(), file.getName());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).toString(), actual.get(i).toString(), file.getName() + " row " + i);
+            }
+        }
+    }
+
+    @Test
+    void store_round_trips_card_transactions() throws Exception {
+        for (File file : sample_files()) {
+            List<Card_Transaction> expected = original_parse(file);
+            assert_same(expected, Transaction_Store.from_transactions(expected), file);
+        }
+    }
+
+    @Test
+    void gzipped_files_match_the_plain_parse() throws Exception {
+        XML_Parser.clear_cache();
+        for (File file : sample_files()) {
+            File gzip = folder.resolve(file.getName() + ".gz").toFile();
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip.toPath()))) {
+                Files.copy(file.toPath(), out);
+            }
+            assertTrue(XML_Parser.is_input_file(gzip.getName()));
+            assert_same_rows(plain_parse(file), XML_Parser.parse_file_or_throw(gzip), gzip);
+        }
+    }
+
+    @Test
+    void zip_archive_matches_the_plain_parse_in_archive_order() throws Exception {
+        XML_Parser.clear_cache();
+        File zip = folder.resolve("samples.zip").toFile();
+        Transaction_Store expected = new Transaction_Store();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+            out.putNextEntry(new ZipEntry("nested/"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("readme.txt")); // Not XML: skipped
+            out.write("not a settlement file".getBytes(StandardCharsets.US_ASCII));
+            out.closeEntry();
+            boolean compress = false;
+            for (File file : sample_files()) {
+                // Every other entry is itself gzipped, as some exports are
+                out.putNextEntry(new ZipEntry("nested/" + file.getName() + (compress ? ".gz" : "")));
+                if (compress) {
+                    GZIPOutputStream gzip = new GZIPOutputStream(out);
+                    Files.copy(file.toPath(), gzip);
+                    gzip.finish();
+                } else {
+                    Files.copy(file.toPath(), out);
+                }
+                out.closeEntry();
+                expected.append(plain_parse(file));
+                compress = !compress;
+            }
+        }
+        assertTrue(XML_Parser.is_input_file(zip.getName()));
+        assert_same_rows(expected, XML_Parser.parse_file_or_throw(zip), zip);
+    }
+
+    @Test
+    void broken_zip_entry_fails_the_archive() throws Exception {
+        File zip = folder.resolve("broken.zip").toFile();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip.toPath()))) {
+            out.putNextEntry(new ZipEntry("good.xml"));
+            Files.copy(new File("xml_files/transactions_100.xml").toPath(), out);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("bad.xml"));
+            out.write("<NAXML-FuelsDoc><Batch>".getBytes(StandardCharsets.US_ASCII));
+            out.closeEntry();
+        }
+        Exception error = assertThrows(Exception.class, () -> XML_Parser.parse_file_or_throw(zip));
+        assertTrue(error.getMessage().contains("bad.xml"), error.getMessage());
+        assertFalse(XML_Parser.is_input_file("notes.txt.gz"));
+    }
+
+    // The plain .xml read by the streaming parser
+    private static Transaction_Store plain_parse(File file) throws Exception {
+        Transaction_Store store = new Transaction_Store();
+        XML_Parser.parse_with_stax(file, store);
+        return store;
+    }
+
+    // Every column of two stores, row by row
+    private static void assert_same_rows(Transaction_Store expected, Transaction_Store actual, File file) {
+        assertEquals(expected.size(), actual.size(), file.getName() + " row count");
+        for (int row = 0; row < expected.size(); row++) {
+            String where = file.getName() + " row " + row;
+            assertEquals(expected.get_batch_date(row), actual.get_batch_date(row), where);
+            assertEquals(expected.get_card_type(row), actual.get_card_type(row), where);
+            assertEquals(expected.get_location(row), actual.get_location(row), where);
+            assertEquals(expected.get_terminal(row), actual.get_terminal(row), where);
+            assertEquals(expected.get_batch_number(row), actual.get_batch_number(row), where);
+            assertEquals(expected.get_quantity(row), actual.get_quantity(row), where);
+            assertEquals(expected.get_gross_cents(row), actual.get_gross_cents(row), where);
+            assertEquals(expected.get_net_cents(row), actual.get_net_cents(row), where);
+            assertEquals(expected.get_fee_cents(row), actual.get_fee_cents(row), where);
+        }
+    }
+
+    // Every row of the store against the transaction at the same position
+    private static void assert_same(List<Card_Transaction> expected, Transaction_Store store, File file) {
+        assertEquals(expected.size(), store.size(), file.getName() + " row count");
+        for (int row = 0; row < expected.size(); row++) {
+            Card_Transaction tx = expected.get(row);
+            String where = file.getName() + " row " + row;
+            assertEquals(tx.get_batch_date(), store.get_batch_date(row), where);
+            assertEquals(tx.get_card_type(), store.get_card_type(row), where);
+            assertEquals(tx.get_quantity(), store.get_quantity(row), where);
+            assertEquals(tx.get_gross_amount(), store.get_gross_amount(row), where);
+            assertEquals(tx.get_net_amount(), store.get_net_amount(row), where);
+            assertEquals(tx.get_fee(), store.get_fee(row), where);
+        }
+    }
+
+    private static File[] sample_files() {
+        File[] files = new File("xml_files").listFiles((dir, name) -> name.toLowerCase().endsWith(".xml"));
+        assertNotNull(files, "xml_files folder not found");
+        assertTrue(files.length > 0, "No sample files");
+        return files;
+    }
+
+    // The parse the app started with: a DOM of the whole file, one Card_Transaction per CardType
+    private static List<Card_Transaction> original_parse(File file) throws Exception {
+        List<Card_Transaction> transactions = new ArrayList<>();
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        doc.getDocumentElement().normalize();
+
+        NodeList batch_list = doc.getElementsByTagName("Batch");
+        for (int i = 0; i < batch_list.getLength(); i++) {
+            Element batch = (Element) batch_list.item(i);
+            NodeList dates = batch.getElementsByTagName("BatchDate");
+            String batch_date = dates.getLength() > 0 ? dates.item(0).getTextContent() : "";
+
+            NodeList card_types = batch.getElementsByTagName("CardType");
+            for (int j = 0; j < card_types.getLength(); j++) {
+                Element card = (Element) card_types.item(j);
+                String card_type = card.getAttribute("identType");
+                int quantity = Integer.parseInt(card.getAttribute("quantity"));
+                double gross = Double.parseDouble(card.getAttribute("grossAmount"));
+                double net = Double.parseDouble(card.getAttribute("netAmount"));
+
+                Element fee_element = (Element) card.getElementsByTagName("ChargeAmt").item(0);
+                double fee = Double.parseDouble(fee_element.getTextContent());
+
+                transactions.add(new Card_Transaction(batch_date, card_type, quantity, gross, net, fee));
+            }
+        }
+        return transactions;
+    }
+}